@@ -0,0 +1,24 @@
+package bench;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * JMH's own main, but writing the results as JSON to jmh-result.json unless
+ * -rf or -rff is given, so runs on different commits can be compared.
+ */
+public class BenchmarkMain {
+	public static void main(String[] args) throws Exception {
+		List<String> arguments = new ArrayList<>(Arrays.asList(args));
+		if (arguments.contains("-rf") == false) {
+			arguments.add(0, "json");
+			arguments.add(0, "-rf");
+		}
+		if (arguments.contains("-rff") == false) {
+			arguments.add(0, "jmh-result.json");
+			arguments.add(0, "-rff");
+		}
+		org.openjdk.jmh.Main.main(arguments.toArray(new String[0]));
+	}
+}
@@ -0,0 +1,327 @@
+package bench;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Calls into DecisionTreeClassifier. The classifier lives in the default
+ * package, which a named package cannot import and JMH will not generate
+ * benchmarks in, so it is reached through method handles held in static
+ * finals (the JIT inlines through those). Encoded records are passed around
+ * as Object for the same reason.
+ */
+final class Classifier {
+	private static final Class<?> TYPE;
+	private static final MethodHandle NEW;
+	private static final MethodHandle LOAD_TRAINING_DATA;
+	private static final MethodHandle BUILD_TREE;
+	private static final MethodHandle BEST_COLUMN;
+	private static final MethodHandle LOAD_TEST_COLUMNS;
+	private static final MethodHandle CLASSIFY_ROW;
+	private static final MethodHandle CLASSIFY_BATCH;
+	private static final MethodHandle SET_SCORING_PARALLELISM;
+	private static final MethodHandle ONE_OUT_ERROR;
+	private static final MethodHandle SET_HISTOGRAM_TRAINING;
+	private static final MethodHandle K_FOLD_ERROR;
+	private static final MethodHandle NUMBER_OF_ROWS;
+	private static final MethodHandle SET_MAX_TREE_DEPTH;
+	private static final MethodHandle SET_MIN_SAMPLES_LEAF;
+	private static final MethodHandle SET_MIN_IMPURITY_DECREASE;
+	private static final MethodHandle PRUNE_COST_COMPLEXITY;
+	private static final MethodHandle PRUNE_REDUCED_ERROR;
+	private static final MethodHandle COMPUTE_ERROR;
+	private static final MethodHandle NUMBER_OF_NODES;
+	private static final MethodHandle TREE_DEPTH;
+	private static final MethodHandle COMPILE_TREE;
+
+	static {
+		try {
+			MethodHandles.Lookup lookup = MethodHandles.lookup();
+			TYPE = Class.forName("DecisionTreeClassifier");
+			Class<?> encoded = Class.forName("EncodedRecords");
+			NEW = lookup.findConstructor(TYPE,
+					MethodType.methodType(void.class, String.class));
+			LOAD_TRAINING_DATA = lookup.findVirtual(TYPE, "loadTrainingData",
+					MethodType.methodType(void.class, String.class));
+			BUILD_TREE = lookup.findVirtual(TYPE, "buildTree",
+					MethodType.methodType(void.class));
+			Method bestColumn = TYPE.getDeclaredMethod(
+					"bestColIndexToSplitRecords", Set.class, Set.class);
+			bestColumn.setAccessible(true);
+			BEST_COLUMN = lookup.unreflect(bestColumn);
+			LOAD_TEST_COLUMNS = lookup.findVirtual(TYPE,
+					"loadTestColumnsFromFile",
+					MethodType.methodType(encoded, String.class));
+			CLASSIFY_ROW = lookup.findVirtual(TYPE, "classify",
+					MethodType.methodType(String.class, encoded, int.class));
+			CLASSIFY_BATCH = lookup.findVirtual(TYPE, "classifyBatch",
+					MethodType.methodType(void.class, encoded, int[].class));
+			SET_SCORING_PARALLELISM = lookup.findVirtual(TYPE,
+					"setScoringParallelism",
+					MethodType.methodType(void.class, int.class));
+			ONE_OUT_ERROR = lookup.findVirtual(TYPE, "oneOutValidationError",
+					MethodType.methodType(double.class));
+			NUMBER_OF_ROWS = lookup.findVirtual(encoded, "numberOfRows",
+					MethodType.methodType(int.class));
+			SET_HISTOGRAM_TRAINING = lookup.findVirtual(TYPE,
+					"setHistogramTraining",
+					MethodType.methodType(void.class, int.class));
+			SET_MAX_TREE_DEPTH = lookup.findVirtual(TYPE, "setMaxTreeDepth",
+					MethodType.methodType(void.class, int.class));
+			SET_MIN_SAMPLES_LEAF = lookup.findVirtual(TYPE,
+					"setMinSamplesLeaf",
+					MethodType.methodType(void.class, int.class));
+			SET_MIN_IMPURITY_DECREASE = lookup.findVirtual(TYPE,
+					"setMinImpurityDecrease",
+					MethodType.methodType(void.class, double.class));
+			PRUNE_COST_COMPLEXITY = lookup.findVirtual(TYPE,
+					"pruneCostComplexity",
+					MethodType.methodType(int.class, double.class));
+			PRUNE_REDUCED_ERROR = lookup.findVirtual(TYPE,
+					"pruneReducedError",
+					MethodType.methodType(int.class, String.class));
+			COMPUTE_ERROR = lookup.findVirtual(TYPE, "computeError",
+					MethodType.methodType(double.class, String.class));
+			NUMBER_OF_NODES = lookup.findVirtual(TYPE, "numberOfNodes",
+					MethodType.methodType(int.class));
+			TREE_DEPTH = lookup.findVirtual(TYPE, "treeDepth",
+					MethodType.methodType(int.class));
+			COMPILE_TREE = lookup.findVirtual(TYPE, "compileTree",
+					MethodType.methodType(boolean.class));
+			// new CrossValidator(classifier).kFold(k).pooledError()
+			Class<?> validator = Class.forName("CrossValidator");
+			Class<?> result = Class.forName("CrossValidator$Result");
+			MethodHandle kFold = MethodHandles.filterReturnValue(
+					lookup.findVirtual(validator, "kFold",
+							MethodType.methodType(result, int.class)),
+					lookup.findVirtual(result, "pooledError",
+							MethodType.methodType(double.class)));
+			K_FOLD_ERROR = MethodHandles.filterArguments(kFold, 0,
+					lookup.findConstructor(validator,
+							MethodType.methodType(void.class, TYPE)));
+		} catch (ReflectiveOperationException e) {
+			throw new ExceptionInInitializerError(e);
+		}
+	}
+
+	private final Object classifier;
+
+	/**
+	 * @param impurity
+	 *            CLASS, SHANNON or GINI
+	 */
+	Classifier(String impurity) {
+		try {
+			this.classifier = NEW.invoke(impurity);
+		} catch (Throwable e) {
+			throw rethrow(e);
+		}
+	}
+
+	void loadTrainingData(String fileName) {
+		try {
+			LOAD_TRAINING_DATA.invoke(this.classifier, fileName);
+		} catch (Throwable e) {
+			throw rethrow(e);
+		}
+	}
+
+	void buildTree() {
+		try {
+			BUILD_TREE.invoke(this.classifier);
+		} catch (Throwable e) {
+			throw rethrow(e);
+		}
+	}
+
+	Integer bestColIndexToSplitRecords(Set<Integer> indicesOfRecords,
+			Set<Integer> remainingColIndices) {
+		try {
+			return (Integer) BEST_COLUMN.invoke(this.classifier,
+					indicesOfRecords, remainingColIndices);
+		} catch (Throwable e) {
+			throw rethrow(e);
+		}
+	}
+
+	Object loadTestColumnsFromFile(String fileName) {
+		try {
+			return LOAD_TEST_COLUMNS.invoke(this.classifier, fileName);
+		} catch (Throwable e) {
+			throw rethrow(e);
+		}
+	}
+
+	String classify(Object encodedRecords, int row) {
+		try {
+			return (String) CLASSIFY_ROW.invoke(this.classifier,
+					encodedRecords, row);
+		} catch (Throwable e) {
+			throw rethrow(e);
+		}
+	}
+
+	void classifyBatch(Object encodedRecords, int[] classIds) {
+		try {
+			CLASSIFY_BATCH.invoke(this.classifier, encodedRecords, classIds);
+		} catch (Throwable e) {
+			throw rethrow(e);
+		}
+	}
+
+	void setScoringParallelism(int parallelism) {
+		try {
+			SET_SCORING_PARALLELISM.invoke(this.classifier, parallelism);
+		} catch (Throwable e) {
+			throw rethrow(e);
+		}
+	}
+
+	double oneOutValidationError() {
+		try {
+			return (double) ONE_OUT_ERROR.invoke(this.classifier);
+		} catch (Throwable e) {
+			throw rethrow(e);
+		}
+	}
+
+	/**
+	 * @param maxBins
+	 *            0 for exact training
+	 */
+	void setHistogramTraining(int maxBins) {
+		try {
+			SET_HISTOGRAM_TRAINING.invoke(this.classifier, maxBins);
+		} catch (Throwable e) {
+			throw rethrow(e);
+		}
+	}
+
+	double kFoldError(int k) {
+		try {
+			return (double) K_FOLD_ERROR.invoke(this.classifier, k);
+		} catch (Throwable e) {
+			throw rethrow(e);
+		}
+	}
+
+	void setMaxTreeDepth(int maxTreeDepth) {
+		try {
+			SET_MAX_TREE_DEPTH.invoke(this.classifier, maxTreeDepth);
+		} catch (Throwable e) {
+			throw rethrow(e);
+		}
+	}
+
+	void setMinSamplesLeaf(int minSamplesLeaf) {
+		try {
+			SET_MIN_SAMPLES_LEAF.invoke(this.classifier, minSamplesLeaf);
+		} catch (Throwable e) {
+			throw rethrow(e);
+		}
+	}
+
+	void setMinImpurityDecrease(double minImpurityDecrease) {
+		try {
+			SET_MIN_IMPURITY_DECREASE.invoke(this.classifier,
+					minImpurityDecrease);
+		} catch (Throwable e) {
+			throw rethrow(e);
+		}
+	}
+
+	int pruneCostComplexity(double alpha) {
+		try {
+			return (int) PRUNE_COST_COMPLEXITY.invoke(this.classifier, alpha);
+		} catch (Throwable e) {
+			throw rethrow(e);
+		}
+	}
+
+	/**
+	 * @param fileName
+	 *            labeled records without the header
+	 */
+	int pruneReducedError(String fileName) {
+		try {
+			return (int) PRUNE_REDUCED_ERROR.invoke(this.classifier, fileName);
+		} catch (Throwable e) {
+			throw rethrow(e);
+		}
+	}
+
+	/**
+	 * @param fileName
+	 *            labeled records without the header
+	 */
+	double computeError(String fileName) {
+		try {
+			return (double) COMPUTE_ERROR.invoke(this.classifier, fileName);
+		} catch (Throwable e) {
+			throw rethrow(e);
+		}
+	}
+
+	int numberOfNodes() {
+		try {
+			return (int) NUMBER_OF_NODES.invoke(this.classifier);
+		} catch (Throwable e) {
+			throw rethrow(e);
+		}
+	}
+
+	int treeDepth() {
+		try {
+			return (int) TREE_DEPTH.invoke(this.classifier);
+		} catch (Throwable e) {
+			throw rethrow(e);
+		}
+	}
+
+	boolean compileTree() {
+		try {
+			return (boolean) COMPILE_TREE.invoke(this.classifier);
+		} catch (Throwable e) {
+			throw rethrow(e);
+		}
+	}
+
+	static int numberOfRows(Object encodedRecords) {
+		try {
+			return (int) NUMBER_OF_ROWS.invoke(encodedRecords);
+		} catch (Throwable e) {
+			throw rethrow(e);
+		}
+	}
+
+	static TreeSet<Integer> range(int size) {
+		TreeSet<Integer> indices = new TreeSet<>();
+		for (int i = 0; i < size; i++) {
+			indices.add(i);
+		}
+		return indices;
+	}
+
+	/**
+	 * buildTree traces every node to System.out; that would be measured too.
+	 */
+	static void silenceStandardOut() {
+		System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+	}
+
+	private static RuntimeException rethrow(Throwable e) {
+		if (e instanceof RuntimeException) {
+			return (RuntimeException) e;
+		}
+		if (e instanceof Error) {
+			throw (Error) e;
+		}
+		return new IllegalStateException(e);
+	}
+}
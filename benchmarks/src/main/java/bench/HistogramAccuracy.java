@@ -0,0 +1,50 @@
+package bench;
+
+/**
+ * Reports what histogram training costs in accuracy next to what it saves in
+ * build time: the exact tree and one tree per bin count are built on the
+ * same numeric data set and their k-fold errors printed side by side.
+ *
+ * <pre>
+ * java -cp benchmarks.jar bench.HistogramAccuracy [rows] [attributes] [bins...]
+ * </pre>
+ */
+public class HistogramAccuracy {
+	private static final int FOLDS = 10;
+
+	public static void main(String[] args) throws Exception {
+		int rows = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+		int attributes = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+		int[] binCounts = { 0, 256, 64, 16, 4 };
+		if (args.length > 2) {
+			binCounts = new int[args.length - 1];
+			for (int i = 2; i < args.length; i++) {
+				binCounts[i - 1] = Integer.parseInt(args[i]);
+			}
+		}
+		String trainingFile = SyntheticData.cached(rows, attributes, 1, true,
+				true);
+		java.io.PrintStream out = System.out;
+		Classifier.silenceStandardOut();
+		out.printf("%-8s %12s %12s %12s%n", "bins", "build ms", "error",
+				"vs exact");
+		double exactError = Double.NaN;
+		for (int bins : binCounts) {
+			Classifier classifier = new Classifier("SHANNON");
+			classifier.setHistogramTraining(bins);
+			classifier.loadTrainingData(trainingFile);
+			// once to warm up
+			classifier.buildTree();
+			long start = System.nanoTime();
+			classifier.buildTree();
+			long buildMillis = (System.nanoTime() - start) / 1000000;
+			double error = classifier.kFoldError(FOLDS);
+			if (bins == 0) {
+				exactError = error;
+			}
+			out.printf("%-8s %12d %12.5f %+12.5f%n",
+					bins == 0 ? "exact" : String.valueOf(bins), buildMillis,
+					error, error - exactError);
+		}
+	}
+}
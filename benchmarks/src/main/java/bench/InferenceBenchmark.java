@@ -0,0 +1,80 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Scoring a test file of the same shape as the training file, row by row and
+ * as one batch, with the tree interpreted or compiled to bytecode. Times are
+ * per record. Trees over the compiler's size cap stay interpreted, so both
+ * settings measure the same code there.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+@OperationsPerInvocation(InferenceBenchmark.TEST_ROWS)
+public class InferenceBenchmark {
+	static final int TEST_ROWS = 100000;
+
+	@Param({ "1000", "100000" })
+	public int rows;
+
+	@Param({ "10", "100" })
+	public int attributes;
+
+	@Param({ "1", "4" })
+	public int scoringThreads;
+
+	@Param({ "false", "true" })
+	public boolean compiled;
+
+	private Classifier classifier;
+	private Object testRecords;
+	private int[] classIds;
+
+	@Setup(Level.Trial)
+	public void setUp() throws Exception {
+		Classifier.silenceStandardOut();
+		this.classifier = new Classifier("GINI");
+		this.classifier.loadTrainingData(
+				SyntheticData.cached(this.rows, this.attributes, 1, true));
+		this.classifier.buildTree();
+		this.classifier.setScoringParallelism(this.scoringThreads);
+		if (this.compiled) {
+			this.classifier.compileTree();
+		}
+		this.testRecords = this.classifier.loadTestColumnsFromFile(
+				SyntheticData.cached(TEST_ROWS, this.attributes, 2, false));
+		this.classIds = new int[TEST_ROWS];
+	}
+
+	@Benchmark
+	public void classify(Blackhole blackhole) {
+		for (int row = 0; row < TEST_ROWS; row++) {
+			blackhole.consume(this.classifier.classify(this.testRecords, row));
+		}
+	}
+
+	@Benchmark
+	public int[] classifyBatch() {
+		this.classifier.classifyBatch(this.testRecords, this.classIds);
+		return this.classIds;
+	}
+}
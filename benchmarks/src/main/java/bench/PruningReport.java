@@ -0,0 +1,64 @@
+package bench;
+
+/**
+ * Reports what pruning does to a tree grown on noisy data: its size and
+ * depth, how fast classifyBatch runs through it and its error on records it
+ * was not trained on, for the unpruned tree, each pre-pruning limit and
+ * each kind of post-pruning.
+ *
+ * <pre>
+ * java -cp benchmarks.jar bench.PruningReport [rows] [attributes]
+ * </pre>
+ */
+public class PruningReport {
+	private static final int SCORING_RUNS = 5;
+
+	public static void main(String[] args) throws Exception {
+		int rows = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+		int attributes = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+		String trainingFile = SyntheticData.cached(rows, attributes, 1, true);
+		String validationFile = SyntheticData.cachedRecords(rows / 4,
+				attributes, 2);
+		String holdoutFile = SyntheticData.cachedRecords(rows, attributes, 3);
+		String testFile = SyntheticData.cached(rows, attributes, 3, false);
+		java.io.PrintStream out = System.out;
+		Classifier.silenceStandardOut();
+		out.printf("%-16s %8s %6s %10s %12s %10s%n", "pruning", "nodes",
+				"depth", "build ms", "ns/record", "holdout");
+		String[] settings = { "none", "max depth 8", "min leaf 50",
+				"min gain 0.001", "alpha 0.00005", "alpha 0.0005",
+				"reduced error" };
+		for (String setting : settings) {
+			Classifier classifier = new Classifier("SHANNON");
+			if (setting.startsWith("max depth")) {
+				classifier.setMaxTreeDepth(8);
+			} else if (setting.startsWith("min leaf")) {
+				classifier.setMinSamplesLeaf(50);
+			} else if (setting.startsWith("min gain")) {
+				classifier.setMinImpurityDecrease(0.001);
+			}
+			classifier.loadTrainingData(trainingFile);
+			long start = System.nanoTime();
+			classifier.buildTree();
+			if (setting.startsWith("alpha")) {
+				classifier.pruneCostComplexity(
+						Double.parseDouble(setting.substring(6)));
+			} else if (setting.equals("reduced error")) {
+				classifier.pruneReducedError(validationFile);
+			}
+			long buildMillis = (System.nanoTime() - start) / 1000000;
+			Object test = classifier.loadTestColumnsFromFile(testFile);
+			int[] classIds = new int[Classifier.numberOfRows(test)];
+			long best = Long.MAX_VALUE;
+			for (int run = 0; run < SCORING_RUNS; run++) {
+				start = System.nanoTime();
+				classifier.classifyBatch(test, classIds);
+				best = Math.min(best, System.nanoTime() - start);
+			}
+			out.printf("%-16s %8d %6d %10d %12.1f %10.5f%n", setting,
+					classifier.numberOfNodes(), classifier.treeDepth(),
+					buildMillis, (double) best / classIds.length,
+					classifier.computeError(holdoutFile));
+		}
+	}
+}
@@ -0,0 +1,60 @@
+package bench;
+
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Choosing the split column of the root node, i.e. every record against
+ * every attribute.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class SplitBenchmark {
+	@Param({ "1000", "100000" })
+	public int rows;
+
+	@Param({ "10", "100" })
+	public int attributes;
+
+	@Param({ "GINI" })
+	public String impurity;
+
+	private Classifier classifier;
+	private TreeSet<Integer> allRecords;
+	private TreeSet<Integer> allColumns;
+
+	@Setup(Level.Trial)
+	public void setUp() throws Exception {
+		Classifier.silenceStandardOut();
+		this.classifier = new Classifier(this.impurity);
+		this.classifier.loadTrainingData(
+				SyntheticData.cached(this.rows, this.attributes, 1, true));
+		// sets up the split evaluator
+		this.classifier.buildTree();
+		this.allRecords = Classifier.range(this.rows);
+		this.allColumns = Classifier.range(this.attributes);
+	}
+
+	@Benchmark
+	public Integer bestColIndexToSplitRecords() {
+		return this.classifier.bestColIndexToSplitRecords(this.allRecords,
+				this.allColumns);
+	}
+}
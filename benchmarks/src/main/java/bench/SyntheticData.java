@@ -0,0 +1,178 @@
+package bench;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Random;
+import java.util.stream.Stream;
+
+/**
+ * Writes random binary data sets in the format of train1 and train2: a
+ * "records attributes classes" line, a line of column types and a line of
+ * value ranges, then one record per line. The label is a vote over the first
+ * few attributes with some noise, so trees get some depth but never fit
+ * perfectly. Test files hold the same records without the label. Numeric
+ * data sets have normally distributed values instead and the label is the
+ * sign of the sum of the first few, again with noise.
+ *
+ * <pre>
+ * java -cp benchmarks.jar bench.SyntheticData file rows attributes [seed] [test|numeric]
+ * </pre>
+ */
+public class SyntheticData {
+	private static final int VOTERS = 5;
+	private static final double NOISE = 0.05;
+
+	/**
+	 * @param fileName
+	 * @param rows
+	 * @param attributes
+	 * @param seed
+	 * @param withLabels
+	 *            false writes a test file
+	 * @throws IOException
+	 */
+	public static void write(String fileName, int rows, int attributes,
+			long seed, boolean withLabels) throws IOException {
+		write(fileName, rows, attributes, seed, withLabels, false);
+	}
+
+	/**
+	 * @param fileName
+	 * @param rows
+	 * @param attributes
+	 * @param seed
+	 * @param withLabels
+	 *            false writes a test file
+	 * @param numeric
+	 *            numeric columns instead of binary ones
+	 * @throws IOException
+	 */
+	public static void write(String fileName, int rows, int attributes,
+			long seed, boolean withLabels, boolean numeric)
+			throws IOException {
+		Random random = new Random(seed);
+		int voters = Math.min(VOTERS, attributes);
+		try (BufferedWriter writer = Files.newBufferedWriter(
+				Paths.get(fileName), Charset.defaultCharset())) {
+			if (withLabels) {
+				writer.write(rows + " " + attributes + " 2\n");
+				StringBuilder types = new StringBuilder();
+				StringBuilder ranges = new StringBuilder();
+				for (int col = 0; col < attributes; col++) {
+					types.append(numeric ? "numeric " : "binary ");
+					ranges.append(numeric ? "- " : "0,1 ");
+				}
+				writer.write(types + "label\n");
+				writer.write(ranges + "a,b\n");
+			}
+			StringBuilder line = new StringBuilder(attributes * 2 + 2);
+			for (int row = 0; row < rows; row++) {
+				line.setLength(0);
+				int votes = 0;
+				double sum = 0;
+				for (int col = 0; col < attributes; col++) {
+					if (numeric) {
+						double value = Math.round(random.nextGaussian() * 1000)
+								/ 1000.0;
+						if (col < voters) {
+							sum += value;
+						}
+						line.append(value).append(' ');
+						continue;
+					}
+					boolean one = random.nextBoolean();
+					if (one && col < voters) {
+						votes++;
+					}
+					line.append(one ? '1' : '0').append(' ');
+				}
+				if (withLabels) {
+					boolean a = numeric ? sum > 0 : votes * 2 > voters;
+					if (random.nextDouble() < NOISE) {
+						a = !a;
+					}
+					line.append(a ? 'a' : 'b');
+				} else {
+					line.setLength(line.length() - 1);
+				}
+				if (row < rows - 1) {
+					line.append('\n');
+				}
+				writer.append(line);
+			}
+		}
+	}
+
+	/**
+	 * Writes the data set to the temp directory unless an earlier run did.
+	 *
+	 * @return the file name
+	 * @throws IOException
+	 */
+	public static String cached(int rows, int attributes, long seed,
+			boolean withLabels) throws IOException {
+		return cached(rows, attributes, seed, withLabels, false);
+	}
+
+	/**
+	 * Same for binary or numeric data sets.
+	 *
+	 * @return the file name
+	 * @throws IOException
+	 */
+	public static String cached(int rows, int attributes, long seed,
+			boolean withLabels, boolean numeric) throws IOException {
+		File file = new File(System.getProperty("java.io.tmpdir"),
+				"dtc-" + rows + "x" + attributes + "-" + seed
+						+ (numeric ? "-numeric" : "")
+						+ (withLabels ? ".train" : ".test"));
+		if (file.exists() == false) {
+			File partial = new File(file.getPath() + ".part");
+			write(partial.getPath(), rows, attributes, seed, withLabels,
+					numeric);
+			Files.move(partial.toPath(), file.toPath());
+		}
+		return file.getPath();
+	}
+
+	/**
+	 * Labeled binary records without the three header lines, as
+	 * addTrainingRecords and pruneReducedError read them.
+	 *
+	 * @return the file name
+	 * @throws IOException
+	 */
+	public static String cachedRecords(int rows, int attributes, long seed)
+			throws IOException {
+		String trainingFile = cached(rows, attributes, seed, true);
+		File file = new File(trainingFile + ".records");
+		if (file.exists() == false) {
+			File partial = new File(file.getPath() + ".part");
+			try (Stream<String> lines = Files.lines(Paths.get(trainingFile),
+					Charset.defaultCharset())) {
+				Files.write(partial.toPath(),
+						(Iterable<String>) lines.skip(3)::iterator,
+						Charset.defaultCharset());
+			}
+			Files.move(partial.toPath(), file.toPath());
+		}
+		return file.getPath();
+	}
+
+	public static void main(String[] args) throws IOException {
+		if (args.length < 3) {
+			System.err.println("usage: SyntheticData file rows attributes"
+					+ " [seed] [test|numeric]");
+			System.exit(1);
+		}
+		long seed = args.length > 3 ? Long.parseLong(args[3]) : 1;
+		boolean test = args.length > 4 && args[4].equals("test");
+		boolean numeric = args.length > 4 && args[4].equals("numeric");
+		write(args[0], Integer.parseInt(args[1]), Integer.parseInt(args[2]),
+				seed, test == false, numeric);
+	}
+}
@@ -0,0 +1,72 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Loading a training file and building the tree. Larger sizes, up to 10^7
+ * rows and 1000 attributes, are run with e.g. -p rows=10000000. Histogram
+ * training is compared with -p histogramBins=0,32 -p numeric=true.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class TrainingBenchmark {
+	@Param({ "1000", "100000" })
+	public int rows;
+
+	@Param({ "10", "100" })
+	public int attributes;
+
+	@Param({ "GINI" })
+	public String impurity;
+
+	// 0 for exact training
+	@Param({ "0", "32" })
+	public int histogramBins;
+
+	@Param({ "false" })
+	public boolean numeric;
+
+	private String trainingFile;
+	private Classifier loaded;
+
+	@Setup(Level.Trial)
+	public void setUp() throws Exception {
+		Classifier.silenceStandardOut();
+		this.trainingFile = SyntheticData.cached(this.rows, this.attributes,
+				1, true, this.numeric);
+		this.loaded = new Classifier(this.impurity);
+		this.loaded.setHistogramTraining(this.histogramBins);
+		this.loaded.loadTrainingData(this.trainingFile);
+	}
+
+	@Benchmark
+	public Classifier loadTrainingData() {
+		Classifier classifier = new Classifier(this.impurity);
+		classifier.setHistogramTraining(this.histogramBins);
+		classifier.loadTrainingData(this.trainingFile);
+		return classifier;
+	}
+
+	@Benchmark
+	public Classifier buildTree() {
+		this.loaded.buildTree();
+		return this.loaded;
+	}
+}
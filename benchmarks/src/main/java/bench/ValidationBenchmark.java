@@ -0,0 +1,50 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Leave one out validation builds one tree per record, so it is run on
+ * smaller data sets than the other benchmarks.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 3)
+@Fork(1)
+public class ValidationBenchmark {
+	@Param({ "1000" })
+	public int rows;
+
+	@Param({ "10" })
+	public int attributes;
+
+	private Classifier classifier;
+
+	@Setup(Level.Trial)
+	public void setUp() throws Exception {
+		Classifier.silenceStandardOut();
+		this.classifier = new Classifier("GINI");
+		this.classifier.loadTrainingData(
+				SyntheticData.cached(this.rows, this.attributes, 1, true));
+		this.classifier.buildTree();
+	}
+
+	@Benchmark
+	public double oneOutValidationError() {
+		return this.classifier.oneOutValidationError();
+	}
+}
@@ -0,0 +1,152 @@
+import java.util.List;
+
+/**
+ * Columnar copy of the training records where every binary attribute column
+ * and every class label is packed into a bitset (one long[] per column). A
+ * set of records (a tree node) is a bitset over the same rows, so split
+ * counts come from AND + popcount instead of walking boxed index sets.
+ */
+public class BitColumnStore {
+	final int numberOfRows;
+	final int numberOfAttributes;
+	final int words;
+	// columns[col] has bit i set when record i has binary value 1 at col
+	final long[][] columns;
+	// labels[classId] has bit i set when record i has that class
+	final long[][] labels;
+	final String[] classNames;
+
+	private BitColumnStore(int numberOfRows, int numberOfAttributes,
+			String[] classNames) {
+		this.numberOfRows = numberOfRows;
+		this.numberOfAttributes = numberOfAttributes;
+		this.words = (numberOfRows + 63) >>> 6;
+		this.columns = new long[numberOfAttributes][this.words];
+		this.labels = new long[classNames.length][this.words];
+		this.classNames = classNames;
+	}
+
+	/**
+	 * Packs the records into bitsets. Binary columns are shared with records,
+	 * not copied; other columns get a bitset of the rows with code 1.
+	 *
+	 * @param records
+	 * @param classNames
+	 *            label name of each class id
+	 * @return the packed store
+	 */
+	public static BitColumnStore fromEncoded(EncodedRecords records,
+			String[] classNames) {
+		int numberOfAttributes = records.numberOfAttributes();
+		BitColumnStore store = new BitColumnStore(records.numberOfRows(),
+				numberOfAttributes, classNames);
+		for (int col = 0; col < numberOfAttributes; col++) {
+			long[] bits = records.bitColumn(col);
+			if (bits != null && bits.length == store.words) {
+				store.columns[col] = bits;
+				continue;
+			}
+			for (int row = 0; row < records.numberOfRows(); row++) {
+				if (records.valueAt(row, col) == 1) {
+					store.columns[col][row >>> 6] |= 1L << row;
+				}
+			}
+		}
+		for (int row = 0; row < records.numberOfRows(); row++) {
+			store.labels[records.classIdOf(row)][row >>> 6] |= 1L << row;
+		}
+		return store;
+	}
+
+	public int numberOfClasses() {
+		return this.labels.length;
+	}
+
+	/**
+	 * @return a bitset with every record set
+	 */
+	public long[] allRows() {
+		long[] rows = new long[this.words];
+		for (int w = 0; w < this.words; w++) {
+			rows[w] = -1L;
+		}
+		int tail = this.numberOfRows & 63;
+		if (tail != 0) {
+			rows[this.words - 1] = (1L << tail) - 1;
+		}
+		return rows;
+	}
+
+	/**
+	 * @param rows
+	 * @param col
+	 * @return the rows that have value 1 at col
+	 */
+	public long[] withOne(long[] rows, int col) {
+		long[] column = this.columns[col];
+		long[] result = new long[this.words];
+		for (int w = 0; w < this.words; w++) {
+			result[w] = rows[w] & column[w];
+		}
+		return result;
+	}
+
+	/**
+	 * @param rows
+	 * @param col
+	 * @return the rows that have value 0 at col
+	 */
+	public long[] withZero(long[] rows, int col) {
+		long[] column = this.columns[col];
+		long[] result = new long[this.words];
+		for (int w = 0; w < this.words; w++) {
+			result[w] = rows[w] & ~column[w];
+		}
+		return result;
+	}
+
+	public static int count(long[] rows) {
+		int count = 0;
+		for (long word : rows) {
+			count += Long.bitCount(word);
+		}
+		return count;
+	}
+
+	/**
+	 * Fills counts[classId] with the number of the rows of each class.
+	 *
+	 * @param rows
+	 * @param counts
+	 */
+	public void classCounts(long[] rows, int[] counts) {
+		for (int classId = 0; classId < this.labels.length; classId++) {
+			long[] label = this.labels[classId];
+			int count = 0;
+			for (int w = 0; w < this.words; w++) {
+				count += Long.bitCount(rows[w] & label[w]);
+			}
+			counts[classId] = count;
+		}
+	}
+
+	/**
+	 * Fills counts[classId] with the number of the rows of each class that
+	 * have value 1 at col.
+	 *
+	 * @param rows
+	 * @param col
+	 * @param counts
+	 */
+	public void classCountsWithOne(long[] rows, int col, int[] counts) {
+		long[] column = this.columns[col];
+		for (int classId = 0; classId < this.labels.length; classId++) {
+			long[] label = this.labels[classId];
+			int count = 0;
+			for (int w = 0; w < this.words; w++) {
+				count += Long.bitCount(rows[w] & column[w] & label[w]);
+			}
+			counts[classId] = count;
+		}
+	}
+}
@@ -0,0 +1,56 @@
+/**
+ * Told what buildTree does, node by node. Events for one node come from the
+ * thread building it: nodeCreated, then either splitChosen or leafCreated;
+ * children only start after that. With fork/join building, nodes of
+ * different subtrees come from several threads at once. Every method does
+ * nothing by default.
+ */
+public interface BuildListener {
+	/**
+	 * @param numberOfRecords
+	 * @param numberOfAttributes
+	 * @param maxDepth
+	 *            no node is deeper than this
+	 */
+	default void buildStarted(int numberOfRecords, int numberOfAttributes,
+			int maxDepth) {
+	}
+
+	/**
+	 * @param depth
+	 *            0 for the root
+	 * @param numberOfRecords
+	 *            records reaching the node
+	 * @param numberOfRemainingColumns
+	 */
+	default void nodeCreated(int depth, int numberOfRecords,
+			int numberOfRemainingColumns) {
+	}
+
+	/**
+	 * @param depth
+	 * @param column
+	 * @param impurityGain
+	 *            impurity of the node minus the average weighted impurity of
+	 *            its children
+	 * @param leftSize
+	 *            records with value 1 at column
+	 * @param rightSize
+	 *            records with value 0 at column
+	 */
+	default void splitChosen(int depth, int column, double impurityGain,
+			int leftSize, int rightSize) {
+	}
+
+	/**
+	 * @param depth
+	 * @param numberOfRecords
+	 * @param label
+	 *            null for a node without records
+	 */
+	default void leafCreated(int depth, int numberOfRecords, String label) {
+	}
+
+	default void buildFinished() {
+	}
+}
@@ -0,0 +1,125 @@
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters only: node and leaf counts, depth, the time spent in the nodes of
+ * each level and records processed per second. Nothing is formatted while
+ * the tree builds. A node's time runs from nodeCreated to its splitChosen or
+ * leafCreated, i.e. its own split work without its children; with several
+ * threads the times of a level add up across threads.
+ */
+public class BuildStatistics implements BuildListener {
+	private final ThreadLocal<long[]> nodeStart = ThreadLocal
+			.withInitial(() -> new long[1]);
+	private final LongAdder leaves = new LongAdder();
+	private final LongAdder recordsProcessed = new LongAdder();
+	// by depth, sized by the maxDepth given to buildStarted
+	private AtomicIntegerArray nodesAtLevel = new AtomicIntegerArray(0);
+	private AtomicLongArray nanosAtLevel = new AtomicLongArray(0);
+	private long startNanos;
+	private long elapsedNanos;
+
+	@Override
+	public void buildStarted(int numberOfRecords, int numberOfAttributes,
+			int maxDepth) {
+		this.leaves.reset();
+		this.recordsProcessed.reset();
+		this.nodesAtLevel = new AtomicIntegerArray(maxDepth + 1);
+		this.nanosAtLevel = new AtomicLongArray(maxDepth + 1);
+		this.elapsedNanos = 0;
+		this.startNanos = System.nanoTime();
+	}
+
+	@Override
+	public void nodeCreated(int depth, int numberOfRecords,
+			int numberOfRemainingColumns) {
+		this.nodesAtLevel.incrementAndGet(depth);
+		this.recordsProcessed.add(numberOfRecords);
+		this.nodeStart.get()[0] = System.nanoTime();
+	}
+
+	@Override
+	public void splitChosen(int depth, int column, double impurityGain,
+			int leftSize, int rightSize) {
+		this.nodeDone(depth);
+	}
+
+	@Override
+	public void leafCreated(int depth, int numberOfRecords, String label) {
+		this.leaves.increment();
+		this.nodeDone(depth);
+	}
+
+	@Override
+	public void buildFinished() {
+		this.elapsedNanos = System.nanoTime() - this.startNanos;
+	}
+
+	private void nodeDone(int depth) {
+		this.nanosAtLevel.addAndGet(depth,
+				System.nanoTime() - this.nodeStart.get()[0]);
+	}
+
+	public int numberOfNodes() {
+		int nodes = 0;
+		for (int depth = 0; depth < this.nodesAtLevel.length(); depth++) {
+			nodes += this.nodesAtLevel.get(depth);
+		}
+		return nodes;
+	}
+
+	public long numberOfLeaves() {
+		return this.leaves.sum();
+	}
+
+	/**
+	 * @return the number of edges on the longest root to leaf path
+	 */
+	public int depth() {
+		int depth = this.nodesAtLevel.length() - 1;
+		while (depth > 0 && this.nodesAtLevel.get(depth) == 0) {
+			depth--;
+		}
+		return depth;
+	}
+
+	public int nodesAtLevel(int depth) {
+		return this.nodesAtLevel.get(depth);
+	}
+
+	public long nanosAtLevel(int depth) {
+		return this.nanosAtLevel.get(depth);
+	}
+
+	/**
+	 * @return the sum of the records reaching every node
+	 */
+	public long recordsProcessed() {
+		return this.recordsProcessed.sum();
+	}
+
+	public long elapsedNanos() {
+		return this.elapsedNanos;
+	}
+
+	public double recordsPerSecond() {
+		return this.elapsedNanos == 0 ? 0
+				: this.recordsProcessed() * 1e9 / this.elapsedNanos;
+	}
+
+	@Override
+	public String toString() {
+		StringBuffer sBuffer = new StringBuffer("");
+		sBuffer.append("nodes: " + this.numberOfNodes() + ", leaves: "
+				+ this.numberOfLeaves() + ", depth: " + this.depth() + "\n");
+		sBuffer.append("records processed: " + this.recordsProcessed() + " in "
+				+ this.elapsedNanos / 1000000 + " ms ("
+				+ (long) this.recordsPerSecond() + " records/s)\n");
+		for (int depth = 0; depth <= this.depth(); depth++) {
+			sBuffer.append("level " + depth + ": " + this.nodesAtLevel(depth)
+					+ " nodes, " + this.nanosAtLevel(depth) / 1000 + " us\n");
+		}
+		return sBuffer.toString();
+	}
+}
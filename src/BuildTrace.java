@@ -0,0 +1,66 @@
+import java.io.PrintStream;
+
+/**
+ * Prints the build as it goes, one line per event. Replaces the trace build
+ * always used to print; records are given by count, not listed.
+ */
+public class BuildTrace implements BuildListener {
+	public enum Level {
+		/** splits and leaves */
+		SPLITS,
+		/** also every node as it is entered */
+		NODES
+	}
+
+	private final PrintStream out;
+	private final Level level;
+
+	public BuildTrace(PrintStream out, Level level) {
+		this.out = out;
+		this.level = level;
+	}
+
+	public BuildTrace(Level level) {
+		this(System.out, level);
+	}
+
+	@Override
+	public void buildStarted(int numberOfRecords, int numberOfAttributes,
+			int maxDepth) {
+		this.out.println("^^Tree Building^^ records: " + numberOfRecords
+				+ " attributes: " + numberOfAttributes);
+	}
+
+	@Override
+	public void nodeCreated(int depth, int numberOfRecords,
+			int numberOfRemainingColumns) {
+		if (this.level == Level.NODES) {
+			this.out.println(indent(depth) + "-$$-Node-$$- records: "
+					+ numberOfRecords + " remaining columns: "
+					+ numberOfRemainingColumns);
+		}
+	}
+
+	@Override
+	public void splitChosen(int depth, int column, double impurityGain,
+			int leftSize, int rightSize) {
+		this.out.println(indent(depth)
+				+ "**Internal node created** Best condition: " + column
+				+ " gain: " + impurityGain + " left: " + leftSize + " right: "
+				+ rightSize);
+	}
+
+	@Override
+	public void leafCreated(int depth, int numberOfRecords, String label) {
+		this.out.println(indent(depth) + "--Leaf node created-- Label: "
+				+ label + " records: " + numberOfRecords);
+	}
+
+	private static String indent(int depth) {
+		StringBuffer sBuffer = new StringBuffer("");
+		for (int i = 0; i < depth; i++) {
+			sBuffer.append("\t");
+		}
+		return sBuffer.toString();
+	}
+}
@@ -0,0 +1,280 @@
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Where the time of a DecisionTreeClassifier goes, for loading, building and
+ * scoring. Set one with DecisionTreeClassifier.setMetrics; without one the
+ * classifier does not even read the clock. Counters are safe to update from
+ * fork/join workers and to read while a job runs, e.g. over JMX.
+ */
+public class ClassifierMetrics implements ClassifierMetricsMBean {
+	// rough heap cost of one index in a TreeSet<Integer>: a TreeMap entry
+	// and an Integer
+	public static final int BYTES_PER_TREESET_INDEX = 56;
+
+	// load
+	private final LongAdder rowsLoaded = new LongAdder();
+	private final LongAdder bytesLoaded = new LongAdder();
+	private final LongAdder loadNanos = new LongAdder();
+	// build
+	private final LongAdder buildNanos = new LongAdder();
+	private volatile AtomicLongArray nodesPerDepth = new AtomicLongArray(0);
+	private final LongAdder splitSearchNanos = new LongAdder();
+	private final LongAdder partitionNanos = new LongAdder();
+	private final LongAdder candidateColumnsEvaluated = new LongAdder();
+	private final AtomicLong liveIndexBytes = new AtomicLong();
+	private final AtomicLong peakLiveIndexBytes = new AtomicLong();
+	// scoring
+	private final LongAdder recordsScored = new LongAdder();
+	private final LongAdder scoringNanos = new LongAdder();
+	private final LatencyHistogram scoringLatency = new LatencyHistogram();
+	private final LatencyHistogram batchLatency = new LatencyHistogram();
+
+	void loaded(long rows, long bytes, long nanos) {
+		this.rowsLoaded.add(rows);
+		this.bytesLoaded.add(bytes);
+		this.loadNanos.add(nanos);
+	}
+
+	/**
+	 * @param maxDepth
+	 *            deepest a node of the coming build can be
+	 */
+	void buildStarted(int maxDepth) {
+		this.nodesPerDepth = new AtomicLongArray(maxDepth + 1);
+		this.liveIndexBytes.set(0);
+	}
+
+	void buildFinished(long nanos) {
+		this.buildNanos.add(nanos);
+	}
+
+	void nodeCreated(int depth) {
+		this.nodesPerDepth.incrementAndGet(depth);
+	}
+
+	void splitSearched(long nanos, int candidateColumns) {
+		this.splitSearchNanos.add(nanos);
+		this.candidateColumnsEvaluated.add(candidateColumns);
+	}
+
+	void partitioned(long nanos) {
+		this.partitionNanos.add(nanos);
+	}
+
+	/**
+	 * @param bytes
+	 *            positive when record indices are allocated, negative when
+	 *            they are dropped
+	 */
+	void indexBytesChanged(long bytes) {
+		long live = this.liveIndexBytes.addAndGet(bytes);
+		this.peakLiveIndexBytes.accumulateAndGet(live, Math::max);
+	}
+
+	void scored(long nanos) {
+		this.recordsScored.increment();
+		this.scoringNanos.add(nanos);
+		this.scoringLatency.record(nanos);
+	}
+
+	void batchScored(int records, long nanos) {
+		this.recordsScored.add(records);
+		this.scoringNanos.add(nanos);
+		this.batchLatency.record(nanos);
+	}
+
+	@Override
+	public long getRowsLoaded() {
+		return this.rowsLoaded.sum();
+	}
+
+	@Override
+	public long getBytesLoaded() {
+		return this.bytesLoaded.sum();
+	}
+
+	@Override
+	public long getLoadNanos() {
+		return this.loadNanos.sum();
+	}
+
+	@Override
+	public double getRowsLoadedPerSecond() {
+		return perSecond(this.getRowsLoaded(), this.getLoadNanos());
+	}
+
+	@Override
+	public long getBuildNanos() {
+		return this.buildNanos.sum();
+	}
+
+	/**
+	 * @return the number of nodes at each depth of the last build
+	 */
+	@Override
+	public long[] getNodesPerDepth() {
+		AtomicLongArray nodes = this.nodesPerDepth;
+		int depth = nodes.length();
+		while (depth > 0 && nodes.get(depth - 1) == 0) {
+			depth--;
+		}
+		long[] nodesPerDepth = new long[depth];
+		for (int i = 0; i < depth; i++) {
+			nodesPerDepth[i] = nodes.get(i);
+		}
+		return nodesPerDepth;
+	}
+
+	/**
+	 * @return time spent choosing split columns (bestColIndexToSplitRecords
+	 *         and its bitset and cached counterparts), summed over threads
+	 */
+	@Override
+	public long getSplitSearchNanos() {
+		return this.splitSearchNanos.sum();
+	}
+
+	/**
+	 * @return time spent dividing the records of nodes between their
+	 *         children, summed over threads
+	 */
+	@Override
+	public long getPartitionNanos() {
+		return this.partitionNanos.sum();
+	}
+
+	@Override
+	public long getCandidateColumnsEvaluated() {
+		return this.candidateColumnsEvaluated.sum();
+	}
+
+	/**
+	 * @return the most memory the record indices of the nodes being built
+	 *         (TreeSets or bitsets) took at once, estimated
+	 */
+	@Override
+	public long getPeakLiveIndexBytes() {
+		return this.peakLiveIndexBytes.get();
+	}
+
+	@Override
+	public long getRecordsScored() {
+		return this.recordsScored.sum();
+	}
+
+	@Override
+	public long getScoringNanos() {
+		return this.scoringNanos.sum();
+	}
+
+	@Override
+	public double getRecordsScoredPerSecond() {
+		return perSecond(this.getRecordsScored(), this.getScoringNanos());
+	}
+
+	/**
+	 * @return latency of classifying one record
+	 */
+	public LatencyHistogram scoringLatency() {
+		return this.scoringLatency;
+	}
+
+	/**
+	 * @return latency of classifying one batch
+	 */
+	public LatencyHistogram batchLatency() {
+		return this.batchLatency;
+	}
+
+	@Override
+	public long getScoringLatencyP50Nanos() {
+		return this.scoringLatency.percentile(50);
+	}
+
+	@Override
+	public long getScoringLatencyP99Nanos() {
+		return this.scoringLatency.percentile(99);
+	}
+
+	@Override
+	public long getBatchLatencyP50Nanos() {
+		return this.batchLatency.percentile(50);
+	}
+
+	@Override
+	public long getBatchLatencyP99Nanos() {
+		return this.batchLatency.percentile(99);
+	}
+
+	@Override
+	public void reset() {
+		this.rowsLoaded.reset();
+		this.bytesLoaded.reset();
+		this.loadNanos.reset();
+		this.buildNanos.reset();
+		this.nodesPerDepth = new AtomicLongArray(0);
+		this.splitSearchNanos.reset();
+		this.partitionNanos.reset();
+		this.candidateColumnsEvaluated.reset();
+		this.liveIndexBytes.set(0);
+		this.peakLiveIndexBytes.set(0);
+		this.recordsScored.reset();
+		this.scoringNanos.reset();
+		this.scoringLatency.reset();
+		this.batchLatency.reset();
+	}
+
+	/**
+	 * Registers these metrics with the platform MBean server as
+	 * DecisionTreeClassifier:type=Metrics,name=name.
+	 *
+	 * @param name
+	 * @return the object name, for unregistering
+	 * @throws JMException
+	 *             e.g. if the name is taken
+	 */
+	public ObjectName registerMBean(String name) throws JMException {
+		ObjectName objectName = new ObjectName(
+				"DecisionTreeClassifier:type=Metrics,name="
+						+ ObjectName.quote(name));
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		server.registerMBean(this, objectName);
+		return objectName;
+	}
+
+	@Override
+	public String toString() {
+		StringBuffer sBuffer = new StringBuffer("");
+		sBuffer.append("load: " + this.getRowsLoaded() + " rows, "
+				+ this.getBytesLoaded() + " bytes, "
+				+ (long) this.getRowsLoadedPerSecond() + " rows/s\n");
+		sBuffer.append("build: " + this.getBuildNanos() / 1000000 + " ms, "
+				+ "split search " + this.getSplitSearchNanos() / 1000000
+				+ " ms, partitioning " + this.getPartitionNanos() / 1000000
+				+ " ms, " + this.getCandidateColumnsEvaluated()
+				+ " candidate columns, peak index memory "
+				+ this.getPeakLiveIndexBytes() + " bytes\n");
+		sBuffer.append("nodes per depth: "
+				+ Arrays.toString(this.getNodesPerDepth()) + "\n");
+		sBuffer.append("scoring: " + this.getRecordsScored() + " records, "
+				+ (long) this.getRecordsScoredPerSecond()
+				+ " records/s, latency p50 "
+				+ this.getScoringLatencyP50Nanos() + " ns p99 "
+				+ this.getScoringLatencyP99Nanos() + " ns, batch p50 "
+				+ this.getBatchLatencyP50Nanos() + " ns p99 "
+				+ this.getBatchLatencyP99Nanos() + " ns\n");
+		return sBuffer.toString();
+	}
+
+	private static double perSecond(long count, long nanos) {
+		return nanos == 0 ? 0 : count * 1e9 / nanos;
+	}
+}
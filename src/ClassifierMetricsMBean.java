@@ -0,0 +1,40 @@
+/**
+ * The JMX view of ClassifierMetrics. Times are in nanoseconds.
+ */
+public interface ClassifierMetricsMBean {
+	long getRowsLoaded();
+
+	long getBytesLoaded();
+
+	long getLoadNanos();
+
+	double getRowsLoadedPerSecond();
+
+	long getBuildNanos();
+
+	long[] getNodesPerDepth();
+
+	long getSplitSearchNanos();
+
+	long getPartitionNanos();
+
+	long getCandidateColumnsEvaluated();
+
+	long getPeakLiveIndexBytes();
+
+	long getRecordsScored();
+
+	long getScoringNanos();
+
+	double getRecordsScoredPerSecond();
+
+	long getScoringLatencyP50Nanos();
+
+	long getScoringLatencyP99Nanos();
+
+	long getBatchLatencyP50Nanos();
+
+	long getBatchLatencyP99Nanos();
+
+	void reset();
+}
@@ -0,0 +1,384 @@
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * The value names of one column and their codes. Attribute columns are built
+ * from the range line of the training file ("cs,other" gives cs = 0 and
+ * other = 1), so every column has its own codes; the label column also
+ * learns names it meets in the records.
+ *
+ * A numeric column (type numeric in the type line) has no names. Its values
+ * are binned at up to MAX_BINS quantiles of the training data and the code
+ * of a value is its bin, so codes keep the order of the values and a split
+ * on a bin is a threshold on the value.
+ */
+public class ColumnDictionary {
+	public static final int MAX_BINS = 256;
+	// code of a missing value; "?" in a file, or at scoring time any value
+	// the column does not know
+	public static final int MISSING = -1;
+	public static final String MISSING_VALUE = "?";
+	private static final String[] NUMERIC_TYPES = { "numeric", "continuous",
+			"real", "integer" };
+	// powers of ten a double holds exactly
+	private static final double[] EXACT_POWERS_OF_TEN = { 1e0, 1e1, 1e2, 1e3,
+			1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12, 1e13, 1e14, 1e15,
+			1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22 };
+
+	private final HashMap<String, Integer> codeOfName = new HashMap<>();
+	private final ArrayList<String> names = new ArrayList<>();
+	// numeric columns only; bin i holds values in (edges[i - 1], edges[i]]
+	private final boolean numeric;
+	private double[] edges;
+
+	public ColumnDictionary(String[] names) {
+		this.numeric = false;
+		for (String name : names) {
+			this.codeOrAdd(name);
+		}
+	}
+
+	/**
+	 * @param edges
+	 *            ascending upper edges of all bins but the last; null until
+	 *            the training data is binned
+	 */
+	private ColumnDictionary(double[] edges) {
+		this.numeric = true;
+		this.edges = edges;
+	}
+
+	/**
+	 * @param edges
+	 *            ascending upper edges of all bins but the last, null if not
+	 *            known yet
+	 * @return a numeric column dictionary
+	 */
+	public static ColumnDictionary numeric(double[] edges) {
+		return new ColumnDictionary(edges);
+	}
+
+	public boolean isNumeric() {
+		return this.numeric;
+	}
+
+	/**
+	 * Parses a number straight from the bytes of a token, to the same double
+	 * as Double.parseDouble. Sign, digits with a point and an exponent are
+	 * read here when the result is exact to compute: at most 2^53 for the
+	 * digits and a power of ten up to 22, which is most data. Longer or
+	 * other forms (hex, Infinity) go through Double.parseDouble.
+	 *
+	 * @param bytes
+	 * @param offset
+	 * @param length
+	 * @return the value; NaN for MISSING_VALUE
+	 * @throws NumberFormatException
+	 *             if the bytes are not a number
+	 */
+	public static double parseNumber(byte[] bytes, int offset, int length) {
+		if (length == 1 && bytes[offset] == '?') {
+			return Double.NaN;
+		}
+		int end = offset + length;
+		int i = offset;
+		boolean negative = false;
+		if (i < end && (bytes[i] == '-' || bytes[i] == '+')) {
+			negative = bytes[i] == '-';
+			i++;
+		}
+		long digits = 0;
+		int significantDigits = 0;
+		boolean anyDigit = false;
+		boolean point = false;
+		int power = 0;
+		for (; i < end; i++) {
+			int b = bytes[i];
+			if (b >= '0' && b <= '9') {
+				if (digits != 0 || b != '0') {
+					if (++significantDigits > 18) {
+						return parseSlowly(bytes, offset, length);
+					}
+				}
+				digits = digits * 10 + (b - '0');
+				anyDigit = true;
+				if (point) {
+					power--;
+				}
+			} else if (b == '.' && point == false) {
+				point = true;
+			} else {
+				break;
+			}
+		}
+		if (anyDigit == false) {
+			return parseSlowly(bytes, offset, length);
+		}
+		if (i < end && (bytes[i] == 'e' || bytes[i] == 'E')) {
+			i++;
+			boolean negativeExponent = false;
+			if (i < end && (bytes[i] == '-' || bytes[i] == '+')) {
+				negativeExponent = bytes[i] == '-';
+				i++;
+			}
+			int exponent = 0;
+			int exponentStart = i;
+			for (; i < end && bytes[i] >= '0' && bytes[i] <= '9'; i++) {
+				// big enough to leave the fast path either way
+				exponent = Math.min(exponent * 10 + (bytes[i] - '0'), 1000);
+			}
+			if (i == exponentStart) {
+				return parseSlowly(bytes, offset, length);
+			}
+			power += negativeExponent ? -exponent : exponent;
+		}
+		if (i != end || digits > 1L << 53) {
+			return parseSlowly(bytes, offset, length);
+		}
+		double value = digits;
+		if (digits == 0 || power == 0) {
+			// value as it is
+		} else if (power > 0 && power < EXACT_POWERS_OF_TEN.length) {
+			value *= EXACT_POWERS_OF_TEN[power];
+		} else if (power < 0 && -power < EXACT_POWERS_OF_TEN.length) {
+			value /= EXACT_POWERS_OF_TEN[-power];
+		} else {
+			return parseSlowly(bytes, offset, length);
+		}
+		return negative ? -value : value;
+	}
+
+	/**
+	 * The code of a value of a numeric column being scored, the same for
+	 * every reader of records.
+	 *
+	 * @param bytes
+	 * @param offset
+	 * @param length
+	 * @return the bin of the value, or MISSING for MISSING_VALUE, NaN and
+	 *         anything that is not a number
+	 */
+	public int numericCode(byte[] bytes, int offset, int length) {
+		double value;
+		try {
+			value = parseNumber(bytes, offset, length);
+		} catch (NumberFormatException e) {
+			return MISSING;
+		}
+		return Double.isNaN(value) ? MISSING : this.binOf(value);
+	}
+
+	private static double parseSlowly(byte[] bytes, int offset, int length) {
+		return Double.parseDouble(new String(bytes, offset, length,
+				StandardCharsets.ISO_8859_1));
+	}
+
+	/**
+	 * @param name
+	 * @return the code of name, or MISSING if the column has no such value
+	 *         (or, for a numeric column, name is not a number or is NaN)
+	 */
+	public int code(String name) {
+		if (this.numeric) {
+			byte[] bytes = name.getBytes(StandardCharsets.ISO_8859_1);
+			return this.numericCode(bytes, 0, bytes.length);
+		}
+		Integer code = this.codeOfName.get(name);
+		return code == null ? MISSING : code;
+	}
+
+	/**
+	 * @param value
+	 * @return the bin of value in a numeric column
+	 */
+	public int binOf(double value) {
+		int low = 0;
+		int high = this.edges.length;
+		// first edge >= value
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (this.edges[middle] < value) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * @return the upper edges of the bins of a numeric column; a value goes
+	 *         to a bin above b exactly when it is above edges()[b]
+	 */
+	public double[] edges() {
+		return this.edges;
+	}
+
+	/**
+	 * Bins a numeric column at the quantiles of its training values. With
+	 * MAX_BINS or fewer distinct values every value gets its own bin, cut
+	 * half way to the next one.
+	 *
+	 * @param values
+	 * @param count
+	 *            number of values used from the start of values
+	 */
+	public void setEdgesFromValues(double[] values, int count) {
+		this.setEdgesFromValues(values, count, MAX_BINS);
+	}
+
+	/**
+	 * Same with at most maxBins bins.
+	 *
+	 * @param values
+	 * @param count
+	 * @param maxBins
+	 *            2 to MAX_BINS
+	 */
+	public void setEdgesFromValues(double[] values, int count, int maxBins) {
+		double[] sorted = Arrays.copyOf(values, count);
+		Arrays.sort(sorted);
+		// missing values are NaN, which sorts last
+		while (count > 0 && Double.isNaN(sorted[count - 1])) {
+			count--;
+		}
+		int distinct = 0;
+		for (int i = 0; i < count; i++) {
+			if (distinct == 0 || sorted[i] != sorted[distinct - 1]) {
+				distinct++;
+			}
+		}
+		double[] cuts;
+		int numberOfCuts = 0;
+		if (distinct <= maxBins) {
+			cuts = new double[Math.max(0, distinct - 1)];
+			for (int i = 1; i < count; i++) {
+				if (sorted[i] != sorted[i - 1]) {
+					cuts[numberOfCuts++] = (sorted[i - 1] + sorted[i]) / 2;
+				}
+			}
+		} else {
+			cuts = new double[maxBins - 1];
+			for (int bin = 1; bin < maxBins; bin++) {
+				double cut = sorted[(int) ((long) bin * count / maxBins)];
+				if (cut < sorted[count - 1] && (numberOfCuts == 0
+						|| cut > cuts[numberOfCuts - 1])) {
+					cuts[numberOfCuts++] = cut;
+				}
+			}
+		}
+		this.edges = Arrays.copyOf(cuts, numberOfCuts);
+	}
+
+	/**
+	 * @param name
+	 * @return the code of name; a new name gets the next free code
+	 */
+	public int codeOrAdd(String name) {
+		Integer code = this.codeOfName.get(name);
+		if (code == null) {
+			code = this.names.size();
+			this.codeOfName.put(name, code);
+			this.names.add(name);
+		}
+		return code;
+	}
+
+	/**
+	 * @param code
+	 * @return the name of code, or for a numeric column its range of values
+	 */
+	public String name(int code) {
+		if (this.numeric) {
+			String low = code == 0 ? "" : this.edges[code - 1] + " < ";
+			String high = code == this.edges.length ? ""
+					: " <= " + this.edges[code];
+			return low + "x" + high;
+		}
+		return this.names.get(code);
+	}
+
+	/**
+	 * @return the value names, none for a numeric column
+	 */
+	public String[] names() {
+		return this.names.toArray(new String[0]);
+	}
+
+	/**
+	 * @return the number of codes; the number of bins of a numeric column
+	 */
+	public int size() {
+		if (this.numeric) {
+			return this.edges == null ? 1 : this.edges.length + 1;
+		}
+		return this.names.size();
+	}
+
+	/**
+	 * Renumbers the codes in the order a HashMap iterates the names. Class
+	 * ids are kept in that order because the original HashMap based split
+	 * code summed impurities and broke majority ties in it.
+	 *
+	 * @return newCode[oldCode]
+	 */
+	public int[] renumberInHashMapOrder() {
+		ArrayList<String> ordered = new ArrayList<>(this.codeOfName.keySet());
+		int[] newCode = new int[ordered.size()];
+		for (int code = 0; code < ordered.size(); code++) {
+			String name = ordered.get(code);
+			newCode[this.codeOfName.get(name)] = code;
+			this.codeOfName.put(name, code);
+			this.names.set(code, name);
+		}
+		return newCode;
+	}
+
+	/**
+	 * Builds one dictionary per attribute column from the type and range
+	 * lines. A file may declare fewer types and ranges than attributes
+	 * (train1 does); the extra columns use the last declared attribute type
+	 * and range. Numeric columns ignore their range; their bins are set once
+	 * the training values are read.
+	 *
+	 * @param typeLine
+	 * @param rangeLine
+	 * @param numberOfAttributes
+	 * @return the attribute dictionaries, by column index
+	 */
+	public static ColumnDictionary[] attributeDictionaries(String typeLine,
+			String rangeLine, int numberOfAttributes) {
+		String[] listOfTypes = typeLine.trim().split("[ ]+");
+		String[] listOfRanges = rangeLine.trim().split("[ ]+");
+		ColumnDictionary[] dictionaries = new ColumnDictionary[numberOfAttributes];
+		for (int colIndex = 0; colIndex < numberOfAttributes; colIndex++) {
+			int typeIndex = Math.min(colIndex, listOfTypes.length - 2);
+			int rangeIndex = Math.min(colIndex, listOfRanges.length - 2);
+			dictionaries[colIndex] = isNumericType(listOfTypes[typeIndex])
+					? numeric(null)
+					: new ColumnDictionary(listOfRanges[rangeIndex].split(","));
+		}
+		return dictionaries;
+	}
+
+	private static boolean isNumericType(String type) {
+		for (String numericType : NUMERIC_TYPES) {
+			if (numericType.equalsIgnoreCase(type)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @param rangeLine
+	 * @return the dictionary of the label column (the last range)
+	 */
+	public static ColumnDictionary labelDictionary(String rangeLine) {
+		String[] listOfRanges = rangeLine.trim().split("[ ]+");
+		return new ColumnDictionary(
+				listOfRanges[listOfRanges.length - 1].split(","));
+	}
+}
@@ -0,0 +1,502 @@
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Training records on disk, column by column, for training sets too big for
+ * the heap. A text training file is converted once; after that opening the
+ * file maps it and training reads the columns through MappedRecords. Layout,
+ * all big endian:
+ *
+ * <pre>
+ * magic "DTCC", version
+ * numberOfRows, numberOfRecords and numberOfClasses of the text header
+ * numberOfAttributes, offset of the dictionaries (a long)
+ * per attribute column, from DATA_OFFSET and each at a multiple of 8: the
+ *     codes of the records, encoded as EncodedRecords does (packed bits as
+ *     longs, bytes or ints)
+ * class ids of the records, as ints
+ * per attribute column, at a multiple of 8: a bit per record, set if its
+ *     value is missing (its code is then 0)
+ * dictionaries: per attribute column as in ModelFile, then the label names
+ *     in class id order, then per attribute column a boolean: True if it
+ *     has a missing value. Bitsets of the other columns are never read.
+ * </pre>
+ *
+ * Version 1 files have neither the bitsets nor the booleans.
+ */
+public class ColumnFile {
+	public static final int MAGIC = 0x44544343; // "DTCC"
+	public static final int VERSION = 2;
+	private static final int DATA_OFFSET = 32;
+	// a multiple of 64, so blocks start on a long of the bit columns
+	private static final int BLOCK_SIZE = 1 << 16;
+
+	private final int numberOfRecords;
+	private final int numberOfClasses;
+	private final ColumnDictionary[] attributeDictionaries;
+	private final String[] classNames;
+	private final MappedRecords records;
+
+	private ColumnFile(int numberOfRecords, int numberOfClasses,
+			ColumnDictionary[] attributeDictionaries, String[] classNames,
+			MappedRecords records) {
+		this.numberOfRecords = numberOfRecords;
+		this.numberOfClasses = numberOfClasses;
+		this.attributeDictionaries = attributeDictionaries;
+		this.classNames = classNames;
+		this.records = records;
+	}
+
+	/**
+	 * @return the number of records declared in the training file header
+	 */
+	public int numberOfRecords() {
+		return this.numberOfRecords;
+	}
+
+	/**
+	 * @return the number of classes declared in the training file header
+	 */
+	public int numberOfClasses() {
+		return this.numberOfClasses;
+	}
+
+	public ColumnDictionary[] attributeDictionaries() {
+		return this.attributeDictionaries;
+	}
+
+	public String[] classNames() {
+		return this.classNames;
+	}
+
+	public MappedRecords records() {
+		return this.records;
+	}
+
+	/**
+	 * Converts a text training file into a column file, reading it a block
+	 * at a time after a first pass that counts its records (headers are not
+	 * always right about that). Codes and class ids come out as
+	 * loadTrainingData gives them, so a tree trained on either is the same.
+	 * The values of a numeric column go through a temporary file and are
+	 * binned one column at a time, which needs that one column in memory.
+	 *
+	 * @param trainingFileName
+	 * @param columnFileName
+	 * @param maxBins
+	 *            most bins of a numeric column, 2 to ColumnDictionary.MAX_BINS
+	 * @throws IOException
+	 */
+	public static void convert(String trainingFileName, String columnFileName,
+			int maxBins) throws IOException {
+		new Converter(columnFileName, maxBins).convert(trainingFileName);
+	}
+
+	/**
+	 * One conversion; the file is laid out once the header has been read.
+	 */
+	private static class Converter {
+		private final Path path;
+		private final Path valuesPath;
+		private final StreamingLoader loader = new StreamingLoader(null);
+		private final int maxBins;
+		private FileChannel channel;
+		private FileChannel valuesChannel;
+		private ColumnDictionary[] dictionaries;
+		private int numberOfRows;
+		private int rows = 0;
+		private int[] kind;
+		private MappedByteBuffer[] columns;
+		// raw values of numeric columns, until they are binned
+		private DoubleBuffer[] values;
+		private MappedByteBuffer classIds;
+		private MappedByteBuffer[] missing;
+		private boolean[] hasMissing;
+
+		Converter(String columnFileName, int maxBins) {
+			this.path = Paths.get(columnFileName);
+			this.valuesPath = Paths.get(columnFileName + ".values");
+			this.loader.setMaxBins(maxBins);
+			this.maxBins = maxBins;
+		}
+
+		void convert(String trainingFileName) throws IOException {
+			try (FileChannel file = FileChannel.open(this.path,
+					StandardOpenOption.CREATE, StandardOpenOption.READ,
+					StandardOpenOption.WRITE,
+					StandardOpenOption.TRUNCATE_EXISTING);
+					FileChannel valuesFile = FileChannel.open(this.valuesPath,
+							StandardOpenOption.CREATE, StandardOpenOption.READ,
+							StandardOpenOption.WRITE,
+							StandardOpenOption.TRUNCATE_EXISTING,
+							StandardOpenOption.DELETE_ON_CLOSE)) {
+				this.channel = file;
+				this.valuesChannel = valuesFile;
+				this.numberOfRows = countRecords(trainingFileName);
+				this.loader.scanTrainingRecords(trainingFileName, BLOCK_SIZE,
+						this::block);
+				if (this.dictionaries == null) {
+					// no records at all
+					this.layOut();
+				}
+				if (this.rows != this.numberOfRows) {
+					throw new IOException("the training file changed while it"
+							+ " was converted");
+				}
+				this.binNumericColumns();
+				this.renumberClassIds();
+				this.writeDictionaries();
+				for (MappedByteBuffer column : this.columns) {
+					column.force();
+				}
+				this.classIds.force();
+				for (MappedByteBuffer columnMissing : this.missing) {
+					columnMissing.force();
+				}
+			} finally {
+				Files.deleteIfExists(this.valuesPath);
+			}
+		}
+
+		private void layOut() throws IOException {
+			this.dictionaries = this.loader.attributeDictionaries();
+			int numberOfAttributes = this.dictionaries.length;
+			this.kind = new int[numberOfAttributes];
+			this.columns = new MappedByteBuffer[numberOfAttributes];
+			this.values = new DoubleBuffer[numberOfAttributes];
+			long offset = DATA_OFFSET;
+			long valuesOffset = 0;
+			for (int col = 0; col < numberOfAttributes; col++) {
+				this.kind[col] = EncodedRecords.encodingOf(this.dictionaries[col]);
+				long size = columnSize(this.kind[col], this.numberOfRows);
+				this.columns[col] = map(this.channel,
+						FileChannel.MapMode.READ_WRITE, offset, size);
+				offset = align(offset + size);
+				if (this.dictionaries[col].isNumeric()) {
+					this.values[col] = map(this.valuesChannel,
+							FileChannel.MapMode.READ_WRITE, valuesOffset,
+							8L * this.numberOfRows).asDoubleBuffer();
+					valuesOffset += 8L * this.numberOfRows;
+				}
+			}
+			this.classIds = map(this.channel, FileChannel.MapMode.READ_WRITE,
+					offset, 4L * this.numberOfRows);
+			offset = align(offset + 4L * this.numberOfRows);
+			// mapped but never written for columns without missing values
+			this.missing = new MappedByteBuffer[numberOfAttributes];
+			this.hasMissing = new boolean[numberOfAttributes];
+			long missingSize = missingSize(this.numberOfRows);
+			for (int col = 0; col < numberOfAttributes; col++) {
+				this.missing[col] = map(this.channel,
+						FileChannel.MapMode.READ_WRITE, offset, missingSize);
+				offset += missingSize;
+			}
+		}
+
+		private void block(EncodedRecords block) throws IOException {
+			if (this.dictionaries == null) {
+				this.layOut();
+			}
+			int base = this.rows;
+			int blockRows = block.numberOfRows();
+			if ((long) base + blockRows > this.numberOfRows) {
+				throw new IOException("the training file changed while it"
+						+ " was converted");
+			}
+			for (int col = 0; col < this.kind.length; col++) {
+				MappedByteBuffer column = this.columns[col];
+				if (block.hasMissingValues()) {
+					this.markMissing(block, col, base);
+				}
+				if (this.values[col] != null) {
+					double[] blockValues = this.loader.numericValues(col);
+					for (int row = 0; row < blockRows; row++) {
+						this.values[col].put(base + row, blockValues[row]);
+					}
+					continue;
+				}
+				switch (this.kind[col]) {
+				case EncodedRecords.BITS:
+					long[] bits = block.bitColumn(col);
+					for (int word = 0; word < (blockRows + 63) >>> 6; word++) {
+						column.putLong(((base >>> 6) + word) * 8, bits[word]);
+					}
+					break;
+				case EncodedRecords.BYTES:
+					for (int row = 0; row < blockRows; row++) {
+						column.put(base + row,
+								(byte) codeOf(block.valueAt(row, col)));
+					}
+					break;
+				default:
+					for (int row = 0; row < blockRows; row++) {
+						column.putInt((base + row) * 4,
+								codeOf(block.valueAt(row, col)));
+					}
+				}
+			}
+			for (int row = 0; row < blockRows; row++) {
+				this.classIds.putInt((base + row) * 4, block.classIdOf(row));
+			}
+			this.rows += blockRows;
+		}
+
+		/**
+		 * Sets the missing bits of a block's column, which starts at row
+		 * base of the file.
+		 */
+		private void markMissing(EncodedRecords block, int col, int base) {
+			MappedByteBuffer columnMissing = this.missing[col];
+			for (int row = 0; row < block.numberOfRows(); row++) {
+				if (block.valueAt(row, col) != ColumnDictionary.MISSING) {
+					continue;
+				}
+				int fileRow = base + row;
+				int word = (fileRow >>> 6) * 8;
+				columnMissing.putLong(word,
+						columnMissing.getLong(word) | 1L << fileRow);
+				this.hasMissing[col] = true;
+			}
+		}
+
+		private void binNumericColumns() {
+			for (int col = 0; col < this.kind.length; col++) {
+				if (this.values[col] == null) {
+					continue;
+				}
+				double[] columnValues = new double[this.rows];
+				this.values[col].duplicate().get(columnValues);
+				ColumnDictionary dictionary = this.dictionaries[col];
+				dictionary.setEdgesFromValues(columnValues, this.rows,
+						this.maxBins);
+				// numeric columns are always bytes
+				for (int row = 0; row < this.rows; row++) {
+					this.columns[col].put(row,
+							(byte) (Double.isNaN(columnValues[row]) ? 0
+									: dictionary.binOf(columnValues[row])));
+				}
+			}
+		}
+
+		private void renumberClassIds() {
+			int[] newClassId = this.loader.labelDictionary()
+					.renumberInHashMapOrder();
+			for (int row = 0; row < this.rows; row++) {
+				this.classIds.putInt(row * 4,
+						newClassId[this.classIds.getInt(row * 4)]);
+			}
+		}
+
+		private void writeDictionaries() throws IOException {
+			long offset = align(
+					DATA_OFFSET + dataSize(this.kind, this.numberOfRows));
+			this.channel.position(offset);
+			// not closed: that would close the channel
+			DataOutputStream out = new DataOutputStream(
+					Channels.newOutputStream(this.channel));
+			for (ColumnDictionary dictionary : this.dictionaries) {
+				ModelFile.writeDictionary(out, dictionary);
+			}
+			ModelFile.writeNames(out, this.loader.labelDictionary().names());
+			for (boolean columnHasMissing : this.hasMissing) {
+				out.writeBoolean(columnHasMissing);
+			}
+			out.flush();
+			ByteBuffer header = ByteBuffer.allocate(DATA_OFFSET);
+			header.putInt(MAGIC).putInt(VERSION).putInt(this.numberOfRows)
+					.putInt(this.loader.numberOfRecords())
+					.putInt(this.loader.numberOfClasses())
+					.putInt(this.dictionaries.length).putLong(offset);
+			header.flip();
+			this.channel.write(header, 0);
+		}
+	}
+
+	/**
+	 * Maps a column file. The records stay on disk.
+	 *
+	 * @param fileName
+	 * @return the column file
+	 * @throws IOException
+	 *             if the file is not a column file or has a newer version
+	 */
+	public static ColumnFile open(String fileName) throws IOException {
+		try (FileChannel channel = FileChannel.open(Paths.get(fileName),
+				StandardOpenOption.READ)) {
+			ByteBuffer header = ByteBuffer.allocate(DATA_OFFSET);
+			channel.read(header, 0);
+			header.flip();
+			if (header.limit() < DATA_OFFSET || header.getInt() != MAGIC) {
+				throw new IOException(fileName + " is not a column file");
+			}
+			int version = header.getInt();
+			if (version < 1 || version > VERSION) {
+				throw new IOException(fileName + " has column file version "
+						+ version + ", expected at most " + VERSION);
+			}
+			int numberOfRows = header.getInt();
+			int numberOfRecords = header.getInt();
+			int numberOfClasses = header.getInt();
+			int numberOfAttributes = header.getInt();
+			long dictionariesOffset = header.getLong();
+			ByteBuffer tail = map(channel, FileChannel.MapMode.READ_ONLY,
+					dictionariesOffset, channel.size() - dictionariesOffset);
+			ColumnDictionary[] dictionaries = new ColumnDictionary[numberOfAttributes];
+			for (int col = 0; col < numberOfAttributes; col++) {
+				dictionaries[col] = ModelFile.readDictionary(tail);
+			}
+			String[] classNames = ModelFile.readNames(tail);
+			boolean[] hasMissing = new boolean[numberOfAttributes];
+			if (version >= 2) {
+				for (int col = 0; col < numberOfAttributes; col++) {
+					hasMissing[col] = tail.get() != 0;
+				}
+			}
+
+			int[] kind = new int[numberOfAttributes];
+			LongBuffer[] bitColumns = new LongBuffer[numberOfAttributes];
+			ByteBuffer[] byteColumns = new ByteBuffer[numberOfAttributes];
+			IntBuffer[] intColumns = new IntBuffer[numberOfAttributes];
+			long offset = DATA_OFFSET;
+			for (int col = 0; col < numberOfAttributes; col++) {
+				kind[col] = EncodedRecords.encodingOf(dictionaries[col]);
+				long size = columnSize(kind[col], numberOfRows);
+				MappedByteBuffer column = map(channel,
+						FileChannel.MapMode.READ_ONLY, offset, size);
+				switch (kind[col]) {
+				case EncodedRecords.BITS:
+					bitColumns[col] = column.asLongBuffer();
+					break;
+				case EncodedRecords.BYTES:
+					byteColumns[col] = column;
+					break;
+				default:
+					intColumns[col] = column.asIntBuffer();
+				}
+				offset = align(offset + size);
+			}
+			IntBuffer classIds = map(channel, FileChannel.MapMode.READ_ONLY,
+					offset, 4L * numberOfRows).asIntBuffer();
+			offset = align(offset + 4L * numberOfRows);
+			LongBuffer[] missingColumns = new LongBuffer[numberOfAttributes];
+			long missingSize = missingSize(numberOfRows);
+			for (int col = 0; col < numberOfAttributes; col++) {
+				if (hasMissing[col]) {
+					missingColumns[col] = map(channel,
+							FileChannel.MapMode.READ_ONLY, offset, missingSize)
+									.asLongBuffer();
+				}
+				offset += missingSize;
+			}
+			return new ColumnFile(numberOfRecords, numberOfClasses,
+					dictionaries, classNames,
+					new MappedRecords(numberOfRows, kind, bitColumns,
+							byteColumns, intColumns, classIds,
+							missingColumns));
+		}
+	}
+
+	/**
+	 * @return the number of lines with a value after the three header lines,
+	 *         which is what the loader takes for records
+	 */
+	private static int countRecords(String trainingFileName)
+			throws IOException {
+		long records = 0;
+		try (FileChannel channel = FileChannel.open(
+				Paths.get(trainingFileName), StandardOpenOption.READ)) {
+			ByteBuffer buffer = ByteBuffer.allocate(1 << 20);
+			int headerLines = 3;
+			boolean hasValue = false;
+			while (channel.read(buffer) > 0) {
+				buffer.flip();
+				while (buffer.hasRemaining()) {
+					byte b = buffer.get();
+					if (b == '\n') {
+						if (headerLines > 0) {
+							headerLines--;
+						} else if (hasValue) {
+							records++;
+						}
+						hasValue = false;
+					} else if (b != ' ' && b != '\t' && b != '\r') {
+						hasValue = true;
+					}
+				}
+				buffer.clear();
+			}
+			if (hasValue && headerLines == 0) {
+				records++;
+			}
+		}
+		if (records > Integer.MAX_VALUE) {
+			throw new IOException(trainingFileName + " has more than "
+					+ Integer.MAX_VALUE + " records");
+		}
+		return (int) records;
+	}
+
+	private static long columnSize(int kind, int numberOfRows) {
+		switch (kind) {
+		case EncodedRecords.BITS:
+			return 8L * ((numberOfRows + 63) >>> 6);
+		case EncodedRecords.BYTES:
+			return numberOfRows;
+		default:
+			return 4L * numberOfRows;
+		}
+	}
+
+	private static long missingSize(int numberOfRows) {
+		return 8L * ((numberOfRows + 63) >>> 6);
+	}
+
+	/**
+	 * @return bytes of all the columns, the class ids and the missing
+	 *         bitsets, with padding
+	 */
+	private static long dataSize(int[] kind, int numberOfRows) {
+		long size = 0;
+		for (int columnKind : kind) {
+			size = align(size + columnSize(columnKind, numberOfRows));
+		}
+		return align(size + 4L * numberOfRows)
+				+ kind.length * missingSize(numberOfRows);
+	}
+
+	/**
+	 * @return code, or 0 for ColumnDictionary.MISSING, which the missing
+	 *         bitset records
+	 */
+	private static int codeOf(int code) {
+		return code == ColumnDictionary.MISSING ? 0 : code;
+	}
+
+	private static long align(long offset) {
+		return (offset + 7) & ~7L;
+	}
+
+	/**
+	 * One mapping is at most 2GB, so each column gets its own.
+	 */
+	private static MappedByteBuffer map(FileChannel channel,
+			FileChannel.MapMode mode, long offset, long size)
+			throws IOException {
+		if (size > Integer.MAX_VALUE) {
+			throw new IOException("a column of " + size
+					+ " bytes is too big to map");
+		}
+		return channel.map(mode, offset, size);
+	}
+}
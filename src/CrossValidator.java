@@ -0,0 +1,241 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * k-fold, leave-one-out and repeated random subsampling validation of a
+ * DecisionTreeClassifier that already has its training data loaded. Folds
+ * build on views of the loaded records (the records themselves are never
+ * moved), can run in parallel, and share the class ids and full data
+ * statistics that the classifier computes once up front.
+ */
+public class CrossValidator {
+	/**
+	 * Error of every fold plus the summaries.
+	 */
+	public static class Result {
+		private final double[] foldErrors;
+		private final int numberOfMisclassifiedRecords;
+		private final int numberOfHeldOutRecords;
+
+		private Result(double[] foldErrors, int numberOfMisclassifiedRecords,
+				int numberOfHeldOutRecords) {
+			this.foldErrors = foldErrors;
+			this.numberOfMisclassifiedRecords = numberOfMisclassifiedRecords;
+			this.numberOfHeldOutRecords = numberOfHeldOutRecords;
+		}
+
+		public double[] foldErrors() {
+			return this.foldErrors.clone();
+		}
+
+		/**
+		 * @return the average of the fold errors
+		 */
+		public double mean() {
+			double sum = 0.0;
+			for (double error : this.foldErrors) {
+				sum += error;
+			}
+			return sum / this.foldErrors.length;
+		}
+
+		/**
+		 * @return the sample variance of the fold errors (0 for one fold)
+		 */
+		public double variance() {
+			if (this.foldErrors.length < 2) {
+				return 0.0;
+			}
+			double mean = this.mean();
+			double sumOfSquares = 0.0;
+			for (double error : this.foldErrors) {
+				sumOfSquares += (error - mean) * (error - mean);
+			}
+			return sumOfSquares / (this.foldErrors.length - 1);
+		}
+
+		/**
+		 * @return misclassified held out records over all held out records
+		 */
+		public double pooledError() {
+			return (double) this.numberOfMisclassifiedRecords
+					/ this.numberOfHeldOutRecords;
+		}
+
+		@Override
+		public String toString() {
+			return "folds: " + this.foldErrors.length + ", mean: "
+					+ this.mean() + ", variance: " + this.variance()
+					+ ", pooled: " + this.pooledError();
+		}
+	}
+
+	private final DecisionTreeClassifier classifier;
+	private int parallelism = 1;
+	private long seed = 0L;
+
+	public CrossValidator(DecisionTreeClassifier classifier) {
+		this.classifier = classifier;
+	}
+
+	/**
+	 * @param parallelism
+	 *            number of folds run at once; 1 runs them in order
+	 * @return this
+	 */
+	public CrossValidator setParallelism(int parallelism) {
+		this.parallelism = parallelism;
+		return this;
+	}
+
+	/**
+	 * @param seed
+	 *            seed of the shuffles, so runs can be repeated
+	 * @return this
+	 */
+	public CrossValidator setSeed(long seed) {
+		this.seed = seed;
+		return this;
+	}
+
+	/**
+	 * @param k
+	 * @return errors of k folds of a seeded shuffle of the records
+	 */
+	public Result kFold(int k) {
+		int numberOfRecords = this.classifier.numberOfTrainingRecords();
+		int[] shuffled = this.shuffledRows(numberOfRecords);
+		List<int[]> folds = new ArrayList<>();
+		for (int fold = 0; fold < k; fold++) {
+			int from = numberOfRecords * fold / k;
+			int to = numberOfRecords * (fold + 1) / k;
+			folds.add(sorted(Arrays.copyOfRange(shuffled, from, to)));
+		}
+		return this.run(folds);
+	}
+
+	/**
+	 * @return errors of holding out each record once
+	 */
+	public Result leaveOneOut() {
+		int numberOfRecords = this.classifier.numberOfTrainingRecords();
+		List<int[]> folds = new ArrayList<>();
+		for (int i = 0; i < numberOfRecords; i++) {
+			folds.add(new int[] { i });
+		}
+		return this.run(folds);
+	}
+
+	/**
+	 * @param iterations
+	 * @param testFraction
+	 *            fraction of the records held out in each iteration
+	 * @return errors of holding out a fresh random subset each iteration
+	 */
+	public Result randomSubsampling(int iterations, double testFraction) {
+		int numberOfRecords = this.classifier.numberOfTrainingRecords();
+		int numberOfTestRecords = (int) (numberOfRecords * testFraction);
+		Random rng = new Random(this.seed);
+		List<int[]> folds = new ArrayList<>();
+		for (int iteration = 0; iteration < iterations; iteration++) {
+			int[] rows = identity(numberOfRecords);
+			// partial Fisher-Yates: the first numberOfTestRecords are a sample
+			for (int i = 0; i < numberOfTestRecords; i++) {
+				int j = i + rng.nextInt(numberOfRecords - i);
+				int swap = rows[i];
+				rows[i] = rows[j];
+				rows[j] = swap;
+			}
+			folds.add(sorted(Arrays.copyOf(rows, numberOfTestRecords)));
+		}
+		return this.run(folds);
+	}
+
+	private Result run(List<int[]> folds) {
+		this.classifier.prepareFolds();
+		try {
+			int[] misclassified = new int[folds.size()];
+			if (this.parallelism <= 1) {
+				for (int fold = 0; fold < folds.size(); fold++) {
+					misclassified[fold] = this.classifier
+							.misclassifiedInFold(folds.get(fold));
+				}
+			} else {
+				this.runInParallel(folds, misclassified);
+			}
+			double[] foldErrors = new double[folds.size()];
+			int numberOfMisclassifiedRecords = 0;
+			int numberOfHeldOutRecords = 0;
+			for (int fold = 0; fold < folds.size(); fold++) {
+				int heldOut = folds.get(fold).length;
+				foldErrors[fold] = heldOut == 0 ? 0.0
+						: (double) misclassified[fold] / heldOut;
+				numberOfMisclassifiedRecords += misclassified[fold];
+				numberOfHeldOutRecords += heldOut;
+			}
+			return new Result(foldErrors, numberOfMisclassifiedRecords,
+					numberOfHeldOutRecords);
+		} finally {
+			this.classifier.finishFolds();
+		}
+	}
+
+	private void runInParallel(List<int[]> folds, int[] misclassified) {
+		ForkJoinPool pool = new ForkJoinPool(this.parallelism);
+		try {
+			List<Callable<Integer>> tasks = new ArrayList<>();
+			for (final int[] heldOutRows : folds) {
+				tasks.add(new Callable<Integer>() {
+					@Override
+					public Integer call() {
+						return CrossValidator.this.classifier
+								.misclassifiedInFold(heldOutRows);
+					}
+				});
+			}
+			List<Future<Integer>> results = pool.invokeAll(tasks);
+			for (int fold = 0; fold < results.size(); fold++) {
+				misclassified[fold] = results.get(fold).get();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("validation interrupted", e);
+		} catch (ExecutionException e) {
+			throw new IllegalStateException("validation fold failed",
+					e.getCause());
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	private int[] shuffledRows(int numberOfRecords) {
+		int[] rows = identity(numberOfRecords);
+		Random rng = new Random(this.seed);
+		for (int i = numberOfRecords - 1; i > 0; i--) {
+			int j = rng.nextInt(i + 1);
+			int swap = rows[i];
+			rows[i] = rows[j];
+			rows[j] = swap;
+		}
+		return rows;
+	}
+
+	private static int[] identity(int n) {
+		int[] rows = new int[n];
+		for (int i = 0; i < n; i++) {
+			rows[i] = i;
+		}
+		return rows;
+	}
+
+	private static int[] sorted(int[] rows) {
+		Arrays.sort(rows);
+		return rows;
+	}
+}
@@ -1,15 +1,21 @@
-import java.io.FileNotFoundException;
+import java.io.BufferedWriter;
 import java.io.IOException;
-import java.io.PrintWriter;
 import java.nio.charset.Charset;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Random;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
 
 public class DecisionTreeClassifier {
 	private class TreeNode {
@@ -18,26 +24,281 @@ public class DecisionTreeClassifier {
 
 		private String nodeType;
 		private int attribute; // column index
+		private int classId; // -1 for internal nodes
 		private String labelName;
+		private Split split; // null for leaves
 		private TreeNode left;
 		private TreeNode right;
+		// kept while the tree learns incrementally, else null
+		private NodeStatistics statistics;
+		// training records of each class at a leaf, null for internal nodes
+		private int[] classCounts;
+		// at internal nodes, the impurity decrease of the split and the
+		// records it split, as of when it was chosen
+		private double gain;
+		private int numberOfRecords;
 
-		public TreeNode(String type, String labelName, int attribute,
+		public TreeNode(String type, int classId, int attribute,
 				TreeNode left, TreeNode right) {
 			this.nodeType = type;
 			this.left = left;
 			this.right = right;
 			this.attribute = attribute;
-			this.labelName = labelName;
+			this.classId = classId;
+			this.labelName = classId < 0 ? null
+					: DecisionTreeClassifier.this.classNames[classId];
+		}
+
+		public TreeNode(Split split, TreeNode left, TreeNode right) {
+			this(INTERNAL, -1, split.column, left, right);
+			this.split = split;
+		}
+
+		private boolean isLeaf() {
+			return this.nodeType.equals(LEAF);
+		}
+
+		/**
+		 * @return the split of an internal node; bitset training leaves it
+		 *         implicit, 1 left and 0 right
+		 */
+		private Split split() {
+			return this.split != null ? this.split
+					: new Split(this.attribute, 0, null, Double.NaN);
+		}
+
+		private void setClassId(int classId) {
+			this.classId = classId;
+			this.labelName = DecisionTreeClassifier.this.classNames[classId];
+		}
+
+		/**
+		 * @return the class counts of a leaf, live while it learns
+		 *         incrementally
+		 */
+		private int[] classCounts() {
+			return this.statistics != null ? this.statistics.classCounts
+					: this.classCounts;
 		}
 
 		@Override
 		public String toString() {
 			String contents = this.nodeType.equals(TreeNode.INTERNAL)
-					? "attribute: " + this.attribute
+					? "attribute: " + this.attribute + this.condition()
 					: "label: " + this.labelName;
 			return "Type: " + this.nodeType + ", " + contents;
 		}
+
+		/**
+		 * @return what sends a record left, for all but binary columns
+		 */
+		private String condition() {
+			ColumnDictionary dictionary = DecisionTreeClassifier.this
+					.attributeDictionaries[this.attribute];
+			if (this.split == null || dictionary.isNumeric() == false
+					&& dictionary.size() <= 2) {
+				return "";
+			}
+			if (this.split.leftCodes == null) {
+				return " > " + dictionary.edges()[this.split.threshold];
+			}
+			StringBuffer sBuffer = new StringBuffer(" in {");
+			for (int code = 0; code < this.split.leftCodes.length; code++) {
+				if (this.split.leftCodes[code]) {
+					sBuffer.append(dictionary.name(code) + ",");
+				}
+			}
+			sBuffer.setCharAt(sBuffer.length() - 1, '}');
+			return sBuffer.toString();
+		}
+	}
+
+	/**
+	 * Builds one subtree; forked by build when a node is large enough.
+	 */
+	private class SubtreeTask extends RecursiveTask<TreeNode> {
+		private static final long serialVersionUID = 1L;
+		private TreeSet<Integer> indicesOfRecords;
+		private TreeSet<Integer> remainingColIndices;
+		private SplitEvaluator statistics;
+		private int[] classCounts;
+		private int depth;
+
+		public SubtreeTask(TreeSet<Integer> indicesOfRecords,
+				TreeSet<Integer> remainingColIndices,
+				SplitEvaluator statistics, int[] classCounts, int depth) {
+			this.indicesOfRecords = indicesOfRecords;
+			this.remainingColIndices = remainingColIndices;
+			this.statistics = statistics;
+			this.classCounts = classCounts;
+			this.depth = depth;
+		}
+
+		@Override
+		protected TreeNode compute() {
+			return DecisionTreeClassifier.this.build(this.indicesOfRecords,
+					this.remainingColIndices, this.statistics,
+					this.classCounts, this.depth);
+		}
+	}
+
+	/**
+	 * Bitset version of SubtreeTask.
+	 */
+	private class BitsetSubtreeTask extends RecursiveTask<TreeNode> {
+		private static final long serialVersionUID = 1L;
+		private long[] rows;
+		private TreeSet<Integer> remainingColIndices;
+		private int depth;
+
+		public BitsetSubtreeTask(long[] rows,
+				TreeSet<Integer> remainingColIndices, int depth) {
+			this.rows = rows;
+			this.remainingColIndices = remainingColIndices;
+			this.depth = depth;
+		}
+
+		@Override
+		protected TreeNode compute() {
+			return DecisionTreeClassifier.this.buildFromBitset(this.rows,
+					this.remainingColIndices, this.depth);
+		}
+	}
+
+	/**
+	 * Histogram version of SubtreeTask.
+	 */
+	private class HistogramSubtreeTask extends RecursiveTask<TreeNode> {
+		private static final long serialVersionUID = 1L;
+		private int[] rows;
+		private int from;
+		private int to;
+		private SplitEvaluator histogram;
+		private int[] classCounts;
+		private TreeSet<Integer> remainingColIndices;
+		private int depth;
+
+		public HistogramSubtreeTask(int[] rows, int from, int to,
+				SplitEvaluator histogram, int[] classCounts,
+				TreeSet<Integer> remainingColIndices, int depth) {
+			this.rows = rows;
+			this.from = from;
+			this.to = to;
+			this.histogram = histogram;
+			this.classCounts = classCounts;
+			this.remainingColIndices = remainingColIndices;
+			this.depth = depth;
+		}
+
+		@Override
+		protected TreeNode compute() {
+			return DecisionTreeClassifier.this.buildFromHistogram(this.rows,
+					this.from, this.to, this.histogram, this.classCounts,
+					this.remainingColIndices, this.depth);
+		}
+	}
+
+	/**
+	 * Scores a chunk of the candidate columns of one node. The result is the
+	 * chunk's best split (null if none); ties inside the chunk go to the
+	 * earlier column, same as the sequential loop.
+	 */
+	private class ColumnChunkTask extends RecursiveTask<Split> {
+		private static final long serialVersionUID = 1L;
+		private Set<Integer> indicesOfRecords;
+		private int[] columns;
+
+		public ColumnChunkTask(Set<Integer> indicesOfRecords, int[] columns) {
+			this.indicesOfRecords = indicesOfRecords;
+			this.columns = columns;
+		}
+
+		@Override
+		protected Split compute() {
+			SplitEvaluator evaluator = DecisionTreeClassifier.this
+					.splitEvaluator();
+			evaluator.fill(DecisionTreeClassifier.this.records,
+					this.indicesOfRecords, this.columns);
+			return evaluator.bestSplit(this.columns);
+		}
+	}
+
+	/**
+	 * Classifies rows [from, to) of a block, halving the range until it is
+	 * at most SCORING_CHUNK rows.
+	 */
+	private class BatchTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private TreeScorer tree;
+		private EncodedRecords block;
+		private int from;
+		private int to;
+		private int[] classIds;
+
+		public BatchTask(TreeScorer tree, EncodedRecords block, int from,
+				int to, int[] classIds) {
+			this.tree = tree;
+			this.block = block;
+			this.from = from;
+			this.to = to;
+			this.classIds = classIds;
+		}
+
+		@Override
+		protected void compute() {
+			if (this.to - this.from <= SCORING_CHUNK) {
+				this.tree.classify(this.block, this.from, this.to,
+						this.classIds, this.from);
+				return;
+			}
+			int middle = (this.from + this.to) >>> 1;
+			invokeAll(new BatchTask(this.tree, this.block, this.from, middle,
+					this.classIds),
+					new BatchTask(this.tree, this.block, middle, this.to,
+							this.classIds));
+		}
+	}
+
+	/**
+	 * Scores labeled records with one column shuffled and counts the
+	 * misclassified ones, for permutationImportances. Each task has its own
+	 * permutation, view and class ids, made when it runs.
+	 */
+	private static class PermutationTask extends RecursiveTask<Integer> {
+		private static final long serialVersionUID = 1L;
+		private TreeScorer tree;
+		private EncodedRecords labeled;
+		private int column;
+		private long seed;
+
+		public PermutationTask(TreeScorer tree, EncodedRecords labeled,
+				int column, long seed) {
+			this.tree = tree;
+			this.labeled = labeled;
+			this.column = column;
+			this.seed = seed;
+		}
+
+		@Override
+		protected Integer compute() {
+			int rows = this.labeled.numberOfRows();
+			int[] permutation = new int[rows];
+			for (int row = 0; row < rows; row++) {
+				permutation[row] = row;
+			}
+			Random random = new Random(this.seed);
+			for (int i = rows - 1; i > 0; i--) {
+				int j = random.nextInt(i + 1);
+				int row = permutation[i];
+				permutation[i] = permutation[j];
+				permutation[j] = row;
+			}
+			int[] classIds = new int[rows];
+			this.tree.classify(
+					new PermutedRecords(this.labeled, this.column, permutation),
+					0, rows, classIds, 0);
+			return misclassified(this.labeled, classIds);
+		}
 	}
 
 	public static String SHANNON = "SHANNON";
@@ -93,426 +354,2734 @@ public class DecisionTreeClassifier {
 		System.out.println("class error: " + classError);
 	}
 
-	private String entropyType;
+	private ImpurityMeasure impurityMeasure;
 
 	private int numberOfRecords;
 	private int numberOfAttributes;
 
 	private int numberOfClasses;
-	// list of the type of the variables in records (ordinal, continuous, etc)
-	private ArrayList<Record> records = new ArrayList<>();
-	private HashMap<String, Integer> binaryNameToIntSymbol = new HashMap<>();
+	// the training records, encoded column by column with a dictionary per
+	// column; labels are class ids
+	private EncodedRecords records;
+	private ColumnDictionary[] attributeDictionaries;
+	private ColumnDictionary labelDictionary;
+	private StreamingLoader loader;
 
 	// variables pertaining to the tree
 	private TreeNode root;
+	// root compiled into arrays; classify goes through this
+	private FlatTree flatTree;
+
+	// label name of each class id
+	private String[] classNames;
+	private SplitEvaluator splitEvaluator;
+
+	// bitset training mode
+	private boolean useBitsetTraining = false;
+	private BitColumnStore columnStore;
+
+	// histogram training mode, 0 when off; histograms of finished nodes are
+	// kept for reuse by the thread that finished them
+	private int histogramBins = 0;
+	private ThreadLocal<ArrayDeque<SplitEvaluator>> freeHistograms;
+
+	// pre-pruning limits, read by the next build
+	private int maxTreeDepth = Integer.MAX_VALUE;
+	private int minSamplesLeaf = 1;
+	private double minImpurityDecrease = 0;
+
+	// split search shortcuts, both off by default
+	private boolean skipConstantColumns;
+	private int maxCandidateColumns;
+	private long candidateSeed;
+
+	// fork/join training; parallelism <= 1 keeps the sequential path
+	public static final int DEFAULT_FORK_THRESHOLD = 10000;
+	private int parallelism = 1;
+	private int forkThreshold = DEFAULT_FORK_THRESHOLD;
+	private ForkJoinPool forkJoinPool;
+	// each worker thread fills its own contingency table
+	private ThreadLocal<SplitEvaluator> workerSplitEvaluators;
+
+	// batch scoring; batches above SCORING_CHUNK rows are split over the pool
+	public static final int SCORING_CHUNK = 4096;
+	public static final int SCORING_BLOCK_SIZE = 1 << 16;
+	private ForkJoinPool scoringPool;
+
+	// set by setBuildListener; tracer is that listener while buildTree runs
+	// and null otherwise, so validation folds are not traced
+	private BuildListener buildListener;
+	private BuildListener tracer;
+
+	// set by setMetrics; buildMetrics is the same while buildTree runs
+	private ClassifierMetrics metrics;
+	private ClassifierMetrics buildMetrics;
 
 	private final int RIGHT_RECORDS_BINARY_VALUE = 0;
 	private final int LEFT_RECORDS_BINARY_VALUE = 1;
 
 	public DecisionTreeClassifier(String entropyType) {
-		this.entropyType = entropyType;
+		this(ImpurityMeasure.forName(entropyType));
+	}
+
+	public DecisionTreeClassifier(ImpurityMeasure impurityMeasure) {
+		this.impurityMeasure = impurityMeasure;
 	}
 
 	/**
-	 * @param indicesOfRecords
-	 * @return True if all of the records have the same class; false otherwise.
+	 * When on, buildTree packs the records into a BitColumnStore and builds
+	 * the tree over bitsets instead of TreeSet indices. The tree is the same.
+	 *
+	 * @param useBitsetTraining
+	 */
+	public void setBitsetTraining(boolean useBitsetTraining) {
+		this.useBitsetTraining = useBitsetTraining;
+	}
+
+	/**
+	 * Approximate training for very large data sets. Numeric columns are cut
+	 * into at most maxBins bins when the training file is loaded, so call
+	 * this before loadTrainingData. Every node then keeps a class histogram
+	 * per column bin, and of the two children of a split only the smaller
+	 * one is scanned: the larger one's histograms are its parent's minus its
+	 * sibling's. Records are one int array partitioned in place instead of
+	 * TreeSets. Columns that are not numeric are not approximated, so on
+	 * those the tree is the same as the exact one. Takes precedence over
+	 * bitset training.
+	 *
+	 * @param maxBins
+	 *            2 to ColumnDictionary.MAX_BINS, or 0 to turn it off
+	 */
+	public void setHistogramTraining(int maxBins) {
+		if (maxBins != 0 && (maxBins < 2
+				|| maxBins > ColumnDictionary.MAX_BINS)) {
+			throw new IllegalArgumentException("maxBins must be 0 or 2 to "
+					+ ColumnDictionary.MAX_BINS + ", not " + maxBins);
+		}
+		this.histogramBins = maxBins;
+	}
+
+	/**
+	 * @return True if the tree is built over histograms, which is also the
+	 *         only way over mapped records: its row ids are one int array
+	 */
+	private boolean histogramTraining() {
+		return this.histogramBins > 0 || this.records instanceof MappedRecords;
+	}
+
+	/**
+	 * @return True if the tree is built over bitsets; only binary columns
+	 *         without missing values fit in them, so other data falls back to
+	 *         TreeSet indices
 	 */
-	private boolean areRecordsSameClass(TreeSet<Integer> indicesOfRecords) {
-		if (indicesOfRecords.size() == 0) {
+	private boolean bitsetTraining() {
+		if (this.useBitsetTraining == false || this.histogramTraining()
+				|| this.records.hasMissingValues()) {
 			return false;
 		}
-		String classOfRecord = this.records.get(indicesOfRecords.last()).label;
-		for (Integer indexOfRecord : indicesOfRecords) {
-			Record record = this.records.get(indexOfRecord);
-			if (record.label.equals(classOfRecord) == false) {
+		for (ColumnDictionary dictionary : this.attributeDictionaries) {
+			if (dictionary.isNumeric() || dictionary.size() > 2) {
 				return false;
 			}
 		}
 		return true;
 	}
 
+	private SplitEvaluator newSplitEvaluator() {
+		SplitEvaluator evaluator = new SplitEvaluator(this.impurityMeasure,
+				this.attributeDictionaries, this.classNames.length);
+		evaluator.setMinLeafSize(this.minSamplesLeaf);
+		return evaluator;
+	}
+
 	/**
-	 * @param indicesOfRecords
-	 * @param colIndex
-	 * @return returns the average weighted entropy
-	 */
-	private double averageWeightedEntropy(Set<Integer> indicesOfRecords,
-			int colIndex) {
-
-		TreeSet<Integer> leftRecords = this.indicesOfRecordsWithValueAtColumn(
-				indicesOfRecords, this.LEFT_RECORDS_BINARY_VALUE, colIndex);
-		HashMap<String, Integer> freqOfBinValuesLeftRecords = this
-				.frequenciesOfLabels(leftRecords, colIndex);
-		TreeSet<Integer> rightRecords = this.indicesOfRecordsWithValueAtColumn(
-				indicesOfRecords, this.RIGHT_RECORDS_BINARY_VALUE, colIndex);
-		HashMap<String, Integer> freqOfBinValuesRightRecords = this
-				.frequenciesOfLabels(rightRecords, colIndex);
-		double entropyLeft;
-		double entropyRight;
-		if (this.entropyType.equals(DecisionTreeClassifier.CLASS)) {
-			entropyLeft = classError(freqOfBinValuesLeftRecords,
-					leftRecords.size());
-			entropyRight = classError(freqOfBinValuesRightRecords,
-					rightRecords.size());
-		} else if (this.entropyType.equals(DecisionTreeClassifier.SHANNON)) {
-			entropyLeft = entropy(freqOfBinValuesLeftRecords,
-					leftRecords.size());
-			entropyRight = entropy(freqOfBinValuesRightRecords,
-					rightRecords.size());
-		} else {
-			entropyLeft = gini(freqOfBinValuesLeftRecords, leftRecords.size());
-			entropyRight = gini(freqOfBinValuesRightRecords,
-					rightRecords.size());
+	 * @return the most splits a root to leaf path can have: one per binary
+	 *         column, one less than its number of values for the others
+	 */
+	private int maxDepth() {
+		long splits = 0;
+		for (ColumnDictionary dictionary : this.attributeDictionaries) {
+			splits += Math.max(1, dictionary.size() - 1);
 		}
+		return (int) Math.min(Math.min(splits, this.records.numberOfRows()),
+				this.maxTreeDepth);
+	}
 
-		double average = entropyLeft * leftRecords.size()
-				/ indicesOfRecords.size()
-				+ entropyRight * rightRecords.size() / indicesOfRecords.size();
+	/**
+	 * Turns on fork/join tree building. Subtrees and candidate columns of
+	 * nodes with at least forkThreshold records are worked on in parallel;
+	 * smaller nodes stay on the thread that reached them. The tree is the
+	 * same as the sequential one, ties included.
+	 *
+	 * @param parallelism
+	 *            number of worker threads; 1 or less builds sequentially
+	 * @param forkThreshold
+	 *            minimum number of records in a node before it forks
+	 */
+	public void setParallelism(int parallelism, int forkThreshold) {
+		this.parallelism = parallelism;
+		this.forkThreshold = forkThreshold;
+	}
 
-		return average;
+	public void setParallelism(int parallelism) {
+		this.setParallelism(parallelism, this.forkThreshold);
 	}
 
 	/**
-	 * @param indicesOfRecords
-	 * @param remainingColIndices
-	 * @return Returns the column index of the best attribute on which to split
-	 *         the records.
+	 * @param maxTreeDepth
+	 *            nodes this deep become leaves; the root is at depth 0
 	 */
-	private Integer bestColIndexToSplitRecords(Set<Integer> indicesOfRecords,
-			Set<Integer> remainingColIndices) {
-		if (remainingColIndices.size() == 0 || indicesOfRecords.size() == 0) {
-			return null;
-		}
-		double minValue = Double.MAX_VALUE;
-		Integer bestColumnIndex = null;// the column index has the lowest
-										// average weighted entropy
-		for (Integer colIndex : remainingColIndices) {
-			double value = this.averageWeightedEntropy(indicesOfRecords,
-					colIndex);
-			if (value < minValue) {
-				minValue = value;
-				bestColumnIndex = colIndex;
-			}
-		}
-		return bestColumnIndex;
+	public void setMaxTreeDepth(int maxTreeDepth) {
+		this.maxTreeDepth = maxTreeDepth;
 	}
 
 	/**
-	 * Builds a decision tree recursively. Ultimately returns the root of the
-	 * tree.
+	 * @param minSamplesLeaf
+	 *            least number of records a split may leave on either side
+	 */
+	public void setMinSamplesLeaf(int minSamplesLeaf) {
+		this.minSamplesLeaf = Math.max(1, minSamplesLeaf);
+	}
+
+	/**
+	 * @param minImpurityDecrease
+	 *            a node becomes a leaf unless its best split lowers its
+	 *            impurity by at least this much; 0, the default, turns the
+	 *            check off
+	 */
+	public void setMinImpurityDecrease(double minImpurityDecrease) {
+		this.minImpurityDecrease = minImpurityDecrease;
+	}
+
+	/**
+	 * Stops filling and scoring columns below the node where they are found
+	 * constant, which saves most of the work on wide tables of rare binary
+	 * values. The tree is the same; listeners and metrics see fewer
+	 * remaining columns.
 	 *
-	 * @param indicesOfRecordsLeft
-	 * @param remainingColIndices
-	 * @return the root TreeNode of the tree
+	 * @param skipConstantColumns
 	 */
-	public TreeNode build(TreeSet<Integer> indicesOfRecordsLeft,
-			TreeSet<Integer> remainingColIndices) {
-		System.out.println("-$$-Tree Building Iteration-$$-");
-		System.out.println("indicesOfRecordsLeft: " + indicesOfRecordsLeft);
-		System.out.println("remainingColumnIndices: " + remainingColIndices);
-		if (this.areRecordsSameClass(indicesOfRecordsLeft)) {
-			String labelName = this.records
-					.get(indicesOfRecordsLeft.first()).label;
-			System.out.println("--Leaf node created-- Label: " + labelName);
-			return new TreeNode(TreeNode.LEAF, labelName, -1, null, null);
-		} else if (remainingColIndices.size() == 0
-				|| indicesOfRecordsLeft.size() < 6) {
-			String majorityLabel = this.majorityLabel(indicesOfRecordsLeft);
-			System.out.println("--Leaf node created-- Label: " + majorityLabel);
-			return new TreeNode(TreeNode.LEAF, majorityLabel, -1, null, null);
-		} else {// the real tree building
-			int bestColumnToSplitRecords = this.bestColIndexToSplitRecords(
-					indicesOfRecordsLeft, remainingColIndices);
-			TreeSet<Integer> leftIndices = this
-					.indicesOfRecordsWithValueAtColumn(indicesOfRecordsLeft,
-							this.LEFT_RECORDS_BINARY_VALUE,
-							bestColumnToSplitRecords);
-			TreeSet<Integer> rightIndices = this
-					.indicesOfRecordsWithValueAtColumn(indicesOfRecordsLeft,
-							this.RIGHT_RECORDS_BINARY_VALUE,
-							bestColumnToSplitRecords);
-			if (leftIndices.size() == 0 || rightIndices.size() == 0) {
-				String label = this.majorityLabel(indicesOfRecordsLeft);
-				System.out.println("--Leaf node created-- Label: " + label);
-				return new TreeNode(TreeNode.LEAF, label, -1, null, null);
-			} else {// building left and right nodes
-				TreeSet<Integer> leftRemainingColIndices = new TreeSet<>(
-						remainingColIndices);
-				TreeSet<Integer> rightRemainingColIndices = new TreeSet<>(
-						remainingColIndices);
-
-				leftRemainingColIndices.remove(bestColumnToSplitRecords);
-				rightRemainingColIndices.remove(bestColumnToSplitRecords);
-
-				System.out.println("**Internal node created** Best condition: "
-						+ bestColumnToSplitRecords);
-				System.out.println(
-						"left node indices passed to subtree: " + leftIndices);
-				System.out.println("right node indices passed to subtree: "
-						+ rightIndices);
-
-				TreeNode left = this.build(leftIndices,
-						leftRemainingColIndices);
-				TreeNode right = this.build(rightIndices,
-						rightRemainingColIndices);
-
-				TreeNode node = new TreeNode(TreeNode.INTERNAL, null,
-						bestColumnToSplitRecords, left, right);
-				return node;
-			}
-		}
+	public void setSkipConstantColumns(boolean skipConstantColumns) {
+		this.skipConstantColumns = skipConstantColumns;
 	}
 
-	public void buildTree() {
-		TreeSet<Integer> indicesOfRecords = new TreeSet<>();
-		for (int i = 0; i < this.records.size(); i++) {
-			indicesOfRecords.add(i);
-		}
-		TreeSet<Integer> remainingColIndices = new TreeSet<>();
-		for (int i = 0; i < this.numberOfAttributes; i++) {
-			remainingColIndices.add(i);
-		}
-		System.out.println("^^Tree Building^^");
-		this.root = this.build(indicesOfRecords, remainingColIndices);
+	/**
+	 * Caps the columns each node scores, for very wide tables. A node with
+	 * more remaining columns scores maxColumns of them, drawn at random from
+	 * seed, its depth and its class counts, so the tree is the same
+	 * sequentially and in parallel. Scores fewer columns, not fewer
+	 * records; the tree may differ from the exact one.
+	 *
+	 * @param maxColumns
+	 *            0, the default, scores every remaining column
+	 * @param seed
+	 */
+	public void setMaxCandidateColumns(int maxColumns, long seed) {
+		this.maxCandidateColumns = maxColumns;
+		this.candidateSeed = seed;
 	}
 
-	public String classify(Record recordToClassify) {
-		TreeNode currentNode = this.root;
-		while (currentNode.nodeType.equals(TreeNode.INTERNAL)) {
-			int colIndexForSplitting = currentNode.attribute;
-			if (recordToClassify.attrList[colIndexForSplitting] == this.RIGHT_RECORDS_BINARY_VALUE) {
-				currentNode = currentNode.right;
-			} else {
-				currentNode = currentNode.left;
-			}
-		}
-		return currentNode.labelName;
+	/**
+	 * Listens to buildTree, e.g. a BuildTrace to print it or BuildStatistics
+	 * to count it. Null, the default, turns tracing off; build then makes no
+	 * listener calls at all.
+	 *
+	 * @param buildListener
+	 */
+	public void setBuildListener(BuildListener buildListener) {
+		this.buildListener = buildListener;
 	}
 
 	/**
-	 * Takes An array of classified records and filename as input and write the
-	 * classified records' labels to an input file specified by the user.
+	 * Records where loading, buildTree and scoring spend their time. Null, the
+	 * default, turns it off; nothing then reads the clock.
 	 *
-	 * @param fileName
-	 * @param theRecords
+	 * @param metrics
 	 */
-	public void classifyTestRecordsAndWriteToFile(String fileName,
-			ArrayList<Record> theRecords) {
-		PrintWriter pw = null;
-		try {
-			pw = new PrintWriter(fileName);
-		} catch (FileNotFoundException e) {
-			e.printStackTrace();
+	public void setMetrics(ClassifierMetrics metrics) {
+		this.metrics = metrics;
+	}
+
+	public ClassifierMetrics metrics() {
+		return this.metrics;
+	}
+
+	/**
+	 * @return System.nanoTime() while buildTree is measured, else 0
+	 */
+	private long buildClock() {
+		return this.buildMetrics == null ? 0 : System.nanoTime();
+	}
+
+	/**
+	 * Lets classifyBatch spread big batches over several cores. The pool is
+	 * kept until the next call, so it is not paid for on every batch.
+	 *
+	 * @param parallelism
+	 *            number of scoring threads; 1 or less scores on the caller
+	 */
+	public void setScoringParallelism(int parallelism) {
+		if (this.scoringPool != null) {
+			this.scoringPool.shutdown();
+			this.scoringPool = null;
 		}
-		StringBuffer sBuffer = new StringBuffer("");
-		for (Record theRecord : theRecords) {
-			String label = this.classify(theRecord);
-			sBuffer.append(label + "\n");
+		if (parallelism > 1) {
+			this.scoringPool = new ForkJoinPool(parallelism);
 		}
-		sBuffer.delete(sBuffer.length() - 1, sBuffer.length());
-		pw.write(sBuffer.toString());
-		pw.close();
 	}
 
-	public double computeTrainingError() {
-		int numberOfMisclassifiedRecords = 0;
-		for (Record currentRecord : this.records) {
-			String labelOfClassifiedRecord = this.classify(currentRecord);
-			if (currentRecord.label.equals(labelOfClassifiedRecord) == false) {
-				numberOfMisclassifiedRecords++;
-			}
-		}
-		return (double) numberOfMisclassifiedRecords / this.records.size();
+	/**
+	 * @param numberOfRecordsInNode
+	 * @return True if work on a node of this size should be forked
+	 */
+	private boolean shouldFork(int numberOfRecordsInNode) {
+		return this.forkJoinPool != null
+				&& numberOfRecordsInNode >= this.forkThreshold
+				&& ForkJoinTask.inForkJoinPool();
 	}
 
 	/**
-	 * Calculates the frequency of labels for a specified set of indices of
-	 * records.
-	 *
-	 * @param indicesOfRecords
-	 * @param colIndex
-	 * @return A hashmap where the key is a label and the value is its
-	 *         frequency.
+	 * @return the split evaluator the current thread may fill
 	 */
-	private HashMap<String, Integer> frequenciesOfLabels(
-			TreeSet<Integer> indicesOfRecords, int colIndex) {
-		HashMap<String, Integer> frequencyOfLabels = new HashMap<>();
-		for (Integer rowIndex : indicesOfRecords) {
-			Record record = this.records.get(rowIndex);
-			String labelKey = record.label;
-			if (frequencyOfLabels.containsKey(labelKey)) {
-				frequencyOfLabels.put(labelKey,
-						frequencyOfLabels.get(labelKey) + 1);
-			} else {// if the key is not in the hashmap yet
-				frequencyOfLabels.put(labelKey, 1);
-			}
+	private SplitEvaluator splitEvaluator() {
+		if (this.workerSplitEvaluators != null) {
+			return this.workerSplitEvaluators.get();
 		}
-		return frequencyOfLabels;
+		return this.splitEvaluator;
 	}
 
 	/**
-	 * Examines all of the records and returns the set of indices where the
-	 * record has the value at that column index
-	 *
 	 * @param indicesOfRecords
-	 * @param value
-	 * @param colIndex
-	 * @return A TreeSet of indices of records with a value at a column index
+	 * @param remainingColIndices
+	 * @param depth
+	 *            of the node the records are in
+	 * @return Returns the column index of the best attribute on which to split
+	 *         the records.
 	 */
-	private TreeSet<Integer> indicesOfRecordsWithValueAtColumn(
-			Set<Integer> indicesOfRecords, int value, int colIndex) {
-		TreeSet<Integer> setOfIndicesToReturn = new TreeSet<>();
-		for (Integer index : indicesOfRecords) {
-			Record recordAtRow = this.records.get(index);
-			if ((int) recordAtRow.attrList[colIndex] == value) {
-				setOfIndicesToReturn.add(index);
-			}
-		}
-		return setOfIndicesToReturn;
+	private Integer bestColIndexToSplitRecords(Set<Integer> indicesOfRecords,
+			Set<Integer> remainingColIndices, int depth) {
+		Split split = this.bestSplitOfRecords(indicesOfRecords,
+				remainingColIndices, depth,
+				this.classCounts(indicesOfRecords));
+		return split == null ? null : split.column;
 	}
 
 	/**
-	 *
-	 * @param fileName
-	 * @return An arrayList of the records (label is null)
-	 * @throws IOException
+	 * @param indicesOfRecords
+	 * @param remainingColIndices
+	 * @param depth
+	 *            of the node the records are in
+	 * @param classCounts
+	 *            of the records
+	 * @return the best split of the records, or null if no column divides
+	 *         them
 	 */
-	public ArrayList<Record> loadTestRecordsFromFile(String fileName)
-			throws IOException {
-		String whitespace = "[ ]+";
-		List<String> lines = Files.readAllLines(Paths.get(fileName),
-				Charset.defaultCharset());
-		ArrayList<Record> testRecords = new ArrayList<>();
-		for (String line : lines) {
-			String[] comps = line.split(whitespace);
-			double[] attrs = new double[comps.length];
-			for (int i = 0; i < comps.length; i++) {
-				attrs[i] = this.binaryNameToIntSymbol.get(comps[i]);
-			}
-			Record recordToAdd = new Record(attrs, null);
-			testRecords.add(recordToAdd);
+	private Split bestSplitOfRecords(Set<Integer> indicesOfRecords,
+			Set<Integer> remainingColIndices, int depth, int[] classCounts) {
+		if (remainingColIndices.size() == 0 || indicesOfRecords.size() == 0) {
+			return null;
 		}
-		return testRecords;
+		int[] columns = this.candidateColumns(remainingColIndices, depth,
+				classCounts);
+		if (this.shouldFork(indicesOfRecords.size()) && columns.length > 1) {
+			return this.bestSplitInParallel(indicesOfRecords, columns);
+		}
+		// one pass fills the counts of every candidate column
+		SplitEvaluator evaluator = this.splitEvaluator();
+		evaluator.fill(this.records, indicesOfRecords, columns);
+		return evaluator.bestSplit(columns);
+	}
+
+	private static int[] columnsOf(Set<Integer> colIndices) {
+		int[] columns = new int[colIndices.size()];
+		int i = 0;
+		for (Integer colIndex : colIndices) {
+			columns[i++] = colIndex;
+		}
+		return columns;
 	}
 
 	/**
-	 * Loads the training data into the Ivars: numberOfRecords,
-	 * numberOfAttributes, etc. Also fills the records Ivar.
-	 *
-	 * @param fileName
-	 * @throws IOException
+	 * @param remainingColIndices
+	 * @param depth
+	 * @param classCounts
+	 *            of the node
+	 * @return the columns a node may split on: all remaining ones, or while
+	 *         an ensemble tree is built, featuresPerNode of them at random,
+	 *         or maxCandidateColumns of them (still in column order, so ties
+	 *         go to the first one)
 	 */
-	public void loadTrainingData(String fileName) throws IOException {
-		String whitespace = "[ ]+";
-		List<String> lines = Files.readAllLines(Paths.get(fileName),
-				Charset.defaultCharset());
-		// first line
-		String[] componentsOfFirstLine = lines.get(0).split(whitespace);
-
-		this.numberOfRecords = Integer.parseInt(componentsOfFirstLine[0]);
-		this.numberOfAttributes = Integer.parseInt(componentsOfFirstLine[1]);
-		this.numberOfClasses = Integer.parseInt(componentsOfFirstLine[2]);
-
-		int binaryVariableCounter = 0;
-		// third line reading the ranges of the attribute types
-		// uses rangeAtColumn hash map
-		String[] listOfRanges = lines.get(2).split(whitespace);
-		for (int colIndex = 0; colIndex < listOfRanges.length - 1; colIndex++) {
-			String[] strRange = listOfRanges[colIndex].split(",");
-			// String typeOfAttrAtIndex = this.attributeList.get(colIndex);
-			for (String binaryName : strRange) {
-				this.binaryNameToIntSymbol.put(binaryName,
-						binaryVariableCounter);
-				binaryVariableCounter++;
-			}
-			binaryVariableCounter = 0;
-		}
-		// now I have to get all of the records
-		for (int i = 3; i < lines.size(); i++) {
-			String line = lines.get(i);
-			String[] comps = line.split(whitespace);
-			double[] attrs = new double[comps.length - 1];
-			String label = comps[comps.length - 1];
-			for (int colIndex = 0; colIndex < comps.length - 1; colIndex++) {
-				String stringValAtColIndex = comps[colIndex];
-				attrs[colIndex] = this.binaryNameToIntSymbol
-						.get(stringValAtColIndex);
+	private int[] candidateColumns(Set<Integer> remainingColIndices,
+			int depth, int[] classCounts) {
+		int[] columns = columnsOf(remainingColIndices);
+		Random random = this.featureRandom == null ? null
+				: this.featureRandom.get();
+		int sampleSize = this.featuresPerNode;
+		if (random == null && this.maxCandidateColumns > 0) {
+			sampleSize = this.maxCandidateColumns;
+			if (columns.length > sampleSize) {
+				// the node's own draw, whichever thread builds it
+				random = new Random(this.candidateSeed + 0x9E3779B97F4A7C15L
+						* (31 * depth + Arrays.hashCode(classCounts)));
 			}
-			Record recordToAdd = new Record(attrs, label);
-			this.records.add(recordToAdd);
 		}
-	}// end of loadTrainingData()
+		if (random == null || columns.length <= sampleSize) {
+			return columns;
+		}
+		for (int i = 0; i < sampleSize; i++) {
+			int j = i + random.nextInt(columns.length - i);
+			int swap = columns[i];
+			columns[i] = columns[j];
+			columns[j] = swap;
+		}
+		int[] subset = Arrays.copyOf(columns, sampleSize);
+		Arrays.sort(subset);
+		return subset;
+	}
 
 	/**
-	 * Returns the label with the highest frequency from the records specified
-	 * by the indices parameter
+	 * With skipConstantColumns, takes the columns constant in a node out of
+	 * its children's. No split on them divides the node or any part of it.
+	 * The first constant binary column stays: its one-sided split, which
+	 * makes a leaf, wins when nothing scores lower, and the other constant
+	 * binary columns score the same.
 	 *
-	 * @param indicesOfRecordsLeft
-	 * @return majority label
+	 * @param statistics
+	 *            filled for the node, or null to leave the columns
+	 * @param filledColumns
+	 *            the sorted columns statistics holds, or null if it holds
+	 *            every one of childRemainingColIndices; the others are left
+	 * @param childRemainingColIndices
 	 */
-	private String majorityLabel(TreeSet<Integer> indicesOfRecordsLeft) {
-		HashMap<String, Integer> frequencyOfLabels = new HashMap<>();
-		for (Integer indexOfRecord : indicesOfRecordsLeft) {
-			String labelOfRecord = this.records.get(indexOfRecord).label;
-			if (frequencyOfLabels.containsKey(labelOfRecord)) {
-				frequencyOfLabels.put(labelOfRecord,
-						frequencyOfLabels.get(labelOfRecord) + 1);
-			} else {// if the key is not in the hashmap yet
-				frequencyOfLabels.put(labelOfRecord, 1);
-			}
+	private void dropConstantColumns(SplitEvaluator statistics,
+			int[] filledColumns, TreeSet<Integer> childRemainingColIndices) {
+		if (this.skipConstantColumns == false || statistics == null) {
+			return;
 		}
-		String maxLabel = null;
-		int maxFrequency = Integer.MIN_VALUE;
-		for (String label : frequencyOfLabels.keySet()) {
-			int frequencyOfCurrentLabel = frequencyOfLabels.get(label);
-			if (frequencyOfLabels.get(label) > maxFrequency) {
-				maxFrequency = frequencyOfCurrentLabel;
-				maxLabel = label;
+		boolean keptBinary = false;
+		Iterator<Integer> columns = childRemainingColIndices.iterator();
+		while (columns.hasNext()) {
+			int col = columns.next();
+			if (filledColumns != null
+					&& Arrays.binarySearch(filledColumns, col) < 0) {
+				continue;
+			}
+			if (statistics.isConstant(col) == false) {
+				continue;
+			}
+			if (statistics.isBinary(col) && keptBinary == false) {
+				keptBinary = true;
+				continue;
 			}
+			columns.remove();
 		}
-		return maxLabel;
 	}
 
-	public double oneOutValidationError() {
-		int numberOfMisclassifiedRecords = 0;
-		for (int i = 0; i < this.records.size(); i++) {
-			Record recordToClassify = this.records.remove(i);
-			this.buildTree();
-			System.out.println(this.treeString(this.root, 0));
-			String label = this.classify(recordToClassify);
-			if (label.equals(recordToClassify.label) == false) {
-				numberOfMisclassifiedRecords++;
+	/**
+	 * Splits the candidate columns into one chunk per worker and scores the
+	 * chunks in parallel. Chunks are combined in column order with a strict
+	 * less than, so ties go to the same column as the sequential loop.
+	 *
+	 * @param indicesOfRecords
+	 * @param columns
+	 * @return the best split, or null if no column divides the records
+	 */
+	private Split bestSplitInParallel(Set<Integer> indicesOfRecords,
+			int[] columns) {
+		int numberOfChunks = Math.min(columns.length,
+				this.forkJoinPool.getParallelism());
+		ArrayList<ColumnChunkTask> tasks = new ArrayList<>();
+		for (int chunk = 0; chunk < numberOfChunks; chunk++) {
+			int from = columns.length * chunk / numberOfChunks;
+			int to = columns.length * (chunk + 1) / numberOfChunks;
+			tasks.add(new ColumnChunkTask(indicesOfRecords,
+					Arrays.copyOfRange(columns, from, to)));
+		}
+		ForkJoinTask.invokeAll(tasks);
+		Split bestSplit = null;
+		for (ColumnChunkTask task : tasks) {
+			Split chunkBest = task.join();
+			if (chunkBest != null && (bestSplit == null
+					|| chunkBest.impurity < bestSplit.impurity)) {
+				bestSplit = chunkBest;
 			}
-			this.records.add(i, recordToClassify);
 		}
-		return (double) numberOfMisclassifiedRecords / this.records.size();
+		return bestSplit;
 	}
 
-	public double randomSamplingClassificationError() {
-		// 15% of the records will be used as test records; 85% for training.
-		Random rng = new Random();
-		int numberOfTestRecords = (int) (this.records.size() * 0.15);
-		int numberOfMisclassifiedRecords = 0;
-		int ITERATIONS = 100;
-		for (int iteration = 0; iteration < ITERATIONS; iteration++) {
-			ArrayList<Record> testRecords = new ArrayList<>();
-			for (int i = 0; i < numberOfTestRecords; i++) {
-				int randomIndex = rng.nextInt(this.records.size());
-				testRecords.add(this.records.remove(randomIndex));
-			}
-
-			this.buildTree();
-			for (Record testRecord : testRecords) {
-				String label = this.classify(testRecord);
-				if (label.equals(testRecord.label) == false) {
-					numberOfMisclassifiedRecords++;
-				}
+	/**
+	 * Builds a decision tree recursively. Ultimately returns the root of the
+	 * tree.
+	 *
+	 * @param indicesOfRecordsLeft
+	 * @param remainingColIndices
+	 * @return the root TreeNode of the tree
+	 */
+	public TreeNode build(TreeSet<Integer> indicesOfRecordsLeft,
+			TreeSet<Integer> remainingColIndices) {
+		return this.build(indicesOfRecordsLeft, remainingColIndices, null,
+				null, 0);
+	}
+
+	/**
+	 * Everything a node needs is counted once: its class counts come from
+	 * its parent's partition and decide the leaf tests and the majority
+	 * class, and its contingency table is filled once (or, for the larger
+	 * child, left over from the parent's table minus the smaller child's) and
+	 * decides the split.
+	 *
+	 * @param indicesOfRecordsLeft
+	 * @param remainingColIndices
+	 * @param statistics
+	 *            the contingency table of exactly these records over
+	 *            remainingColIndices, owned by the call from then on, or null
+	 *            to fill one here
+	 * @param classCounts
+	 *            number of records of each class, or null to count them here
+	 * @param depth
+	 *            0 for the root
+	 * @return the root TreeNode of the tree
+	 */
+	private TreeNode build(TreeSet<Integer> indicesOfRecordsLeft,
+			TreeSet<Integer> remainingColIndices, SplitEvaluator statistics,
+			int[] classCounts, int depth) {
+		int size = indicesOfRecordsLeft.size();
+		if (classCounts == null) {
+			classCounts = this.classCounts(indicesOfRecordsLeft);
+		}
+		if (this.tracer != null) {
+			this.tracer.nodeCreated(depth, size, remainingColIndices.size());
+		}
+		if (this.buildMetrics != null) {
+			this.buildMetrics.nodeCreated(depth);
+		}
+		if (this.maySplit(classCounts, remainingColIndices.size(),
+				depth) == false) {
+			this.releaseHistogram(statistics);
+			return this.leaf(classCounts, depth, size);
+		}
+		// the real tree building
+		long searchStart = this.buildClock();
+		int[] columns = this.candidateColumns(remainingColIndices, depth,
+				classCounts);
+		// only a table of every remaining column can be handed down
+		boolean allColumns = statistics != null
+				|| columns.length == remainingColIndices.size();
+		Split bestSplit;
+		if (statistics == null && this.shouldFork(size) && columns.length > 1) {
+			// chunks of columns are filled on several threads, so there is
+			// no table of the whole node to hand down
+			bestSplit = this.bestSplitInParallel(indicesOfRecordsLeft,
+					columns);
+		} else {
+			if (statistics == null) {
+				statistics = this.histogram();
+				statistics.fill(this.records, indicesOfRecordsLeft, columns);
+			}
+			bestSplit = statistics.bestSplit(columns);
+		}
+		if (bestSplit == null
+				|| this.gainsTooLittle(classCounts, bestSplit.impurity)) {
+			this.releaseHistogram(statistics);
+			return this.leaf(classCounts, depth, size);
+		}
+		long partitionStart = this.buildClock();
+		TreeSet<Integer> leftIndices = new TreeSet<>();
+		TreeSet<Integer> rightIndices = new TreeSet<>();
+		int[] leftCounts = new int[classCounts.length];
+		this.partition(indicesOfRecordsLeft, bestSplit, leftIndices,
+				rightIndices, leftCounts);
+		// the children's indices are as many as this node's
+		long childIndexBytes = (long) size
+				* ClassifierMetrics.BYTES_PER_TREESET_INDEX;
+		if (this.buildMetrics != null) {
+			this.buildMetrics.splitSearched(partitionStart - searchStart,
+					remainingColIndices.size());
+			this.buildMetrics.partitioned(System.nanoTime() - partitionStart);
+			this.buildMetrics.indexBytesChanged(childIndexBytes);
+		}
+		if (leftIndices.size() == 0 || rightIndices.size() == 0) {
+			if (this.buildMetrics != null) {
+				this.buildMetrics.indexBytesChanged(-childIndexBytes);
+			}
+			this.releaseHistogram(statistics);
+			return this.leaf(classCounts, depth, size);
+		}
+		// building left and right nodes
+		int[] rightCounts = new int[classCounts.length];
+		for (int classId = 0; classId < classCounts.length; classId++) {
+			rightCounts[classId] = classCounts[classId] - leftCounts[classId];
+		}
+		TreeSet<Integer> childRemainingColIndices = new TreeSet<>(
+				remainingColIndices);
+		// a column with more than two values may split again
+		if (this.splitEvaluator().isBinary(bestSplit.column)) {
+			childRemainingColIndices.remove(bestSplit.column);
+		}
+		this.dropConstantColumns(statistics, allColumns ? null : columns,
+				childRemainingColIndices);
+		// scan the smaller child; the larger one gets what is left of this
+		// node's table. Children that will be leaves get none, and so do
+		// the children of a node that filled its sampled columns only.
+		boolean leftMaySplit = this.maySplit(leftCounts,
+				childRemainingColIndices.size(), depth + 1);
+		boolean rightMaySplit = this.maySplit(rightCounts,
+				childRemainingColIndices.size(), depth + 1);
+		SplitEvaluator leftStatistics = null;
+		SplitEvaluator rightStatistics = null;
+		if (statistics != null && allColumns
+				&& (leftMaySplit || rightMaySplit)) {
+			int[] childColumns = columnsOf(childRemainingColIndices);
+			if (leftIndices.size() <= rightIndices.size()) {
+				leftStatistics = this.histogram();
+				leftStatistics.fill(this.records, leftIndices, childColumns);
+				statistics.subtract(leftStatistics, childColumns);
+				rightStatistics = statistics;
+			} else {
+				rightStatistics = this.histogram();
+				rightStatistics.fill(this.records, rightIndices, childColumns);
+				statistics.subtract(rightStatistics, childColumns);
+				leftStatistics = statistics;
+			}
+			if (leftMaySplit == false) {
+				this.releaseHistogram(leftStatistics);
+				leftStatistics = null;
+			}
+			if (rightMaySplit == false) {
+				this.releaseHistogram(rightStatistics);
+				rightStatistics = null;
+			}
+		} else {
+			this.releaseHistogram(statistics);
+		}
+		if (this.tracer != null) {
+			this.tracer.splitChosen(depth, bestSplit.column,
+					this.impurityGain(leftCounts, rightCounts),
+					leftIndices.size(), rightIndices.size());
+		}
+		TreeNode left;
+		TreeNode right;
+		if (this.shouldFork(size)) {
+			SubtreeTask leftTask = new SubtreeTask(leftIndices,
+					childRemainingColIndices, leftStatistics, leftCounts,
+					depth + 1);
+			leftTask.fork();
+			right = this.build(rightIndices, childRemainingColIndices,
+					rightStatistics, rightCounts, depth + 1);
+			left = leftTask.join();
+		} else {
+			left = this.build(leftIndices, childRemainingColIndices,
+					leftStatistics, leftCounts, depth + 1);
+			right = this.build(rightIndices, childRemainingColIndices,
+					rightStatistics, rightCounts, depth + 1);
+		}
+		if (this.buildMetrics != null) {
+			this.buildMetrics.indexBytesChanged(-childIndexBytes);
+		}
+		return this.withGain(new TreeNode(bestSplit, left, right), classCounts,
+				size, bestSplit.impurity);
+	}
+
+	public void buildTree() {
+		TreeSet<Integer> remainingColIndices = new TreeSet<>();
+		for (int i = 0; i < this.numberOfAttributes; i++) {
+			remainingColIndices.add(i);
+		}
+		this.tracer = this.buildListener;
+		if (this.tracer != null) {
+			this.tracer.buildStarted(this.records.numberOfRows(),
+					this.numberOfAttributes, this.maxDepth());
+		}
+		this.buildMetrics = this.metrics;
+		long start = this.buildClock();
+		if (this.buildMetrics != null) {
+			this.buildMetrics.buildStarted(this.maxDepth());
+			int rows = this.records.numberOfRows();
+			this.buildMetrics.indexBytesChanged(this.histogramTraining()
+					? 4L * rows
+					: this.bitsetTraining() ? 8L * ((rows + 63) >>> 6)
+							: (long) rows
+									* ClassifierMetrics.BYTES_PER_TREESET_INDEX);
+		}
+		try {
+			this.buildRoot(remainingColIndices);
+		} finally {
+			if (this.tracer != null) {
+				this.tracer.buildFinished();
+			}
+			if (this.buildMetrics != null) {
+				this.buildMetrics.buildFinished(System.nanoTime() - start);
+			}
+			this.tracer = null;
+			this.buildMetrics = null;
+		}
+		this.flatTree = this.flatten(this.root);
+	}
+
+	/**
+	 * Sets root from all the records, sequentially or on a fork/join pool.
+	 */
+	private void buildRoot(TreeSet<Integer> remainingColIndices) {
+		this.splitEvaluator = this.newSplitEvaluator();
+		// only the index path has a TreeSet of every record
+		TreeSet<Integer> indicesOfRecords = new TreeSet<>();
+		if (this.histogramTraining() == false && this.bitsetTraining() == false) {
+			for (int i = 0; i < this.records.numberOfRows(); i++) {
+				indicesOfRecords.add(i);
+			}
+		}
+		if (this.bitsetTraining()) {
+			this.columnStore = BitColumnStore.fromEncoded(this.records,
+					this.classNames);
+		}
+		if (this.bitsetTraining() == false) {
+			this.freeHistograms = ThreadLocal.withInitial(ArrayDeque::new);
+		}
+		try {
+			if (this.parallelism <= 1) {
+				this.root = this.histogramTraining()
+						? this.histogramRoot(this.allRows(), remainingColIndices)
+								.invoke()
+						: this.bitsetTraining()
+								? this.buildFromBitset(
+										this.columnStore.allRows(),
+										remainingColIndices, 0)
+								: this.build(indicesOfRecords,
+										remainingColIndices);
+				return;
+			}
+			this.workerSplitEvaluators = ThreadLocal
+					.withInitial(this::newSplitEvaluator);
+			this.forkJoinPool = new ForkJoinPool(this.parallelism);
+			try {
+				this.root = this.forkJoinPool.invoke(this.histogramTraining()
+						? this.histogramRoot(this.allRows(),
+								remainingColIndices)
+						: this.bitsetTraining()
+								? new BitsetSubtreeTask(
+										this.columnStore.allRows(),
+										remainingColIndices, 0)
+								: new SubtreeTask(indicesOfRecords,
+										remainingColIndices, null, null, 0));
+			} finally {
+				this.forkJoinPool.shutdown();
+				this.forkJoinPool = null;
+				this.workerSplitEvaluators = null;
+			}
+		} finally {
+			this.freeHistograms = null;
+		}
+	}
+
+	private int[] allRows() {
+		int[] rows = new int[this.records.numberOfRows()];
+		for (int i = 0; i < rows.length; i++) {
+			rows[i] = i;
+		}
+		return rows;
+	}
+
+	/**
+	 * @param rows
+	 *            the training records of the tree, in any order
+	 * @param remainingColIndices
+	 * @return the task that builds the tree over histograms
+	 */
+	private HistogramSubtreeTask histogramRoot(int[] rows,
+			TreeSet<Integer> remainingColIndices) {
+		int[] classCounts = new int[this.classNames.length];
+		for (int row : rows) {
+			classCounts[this.records.classIdOf(row)]++;
+		}
+		// the root fills its own histogram, over its candidate columns
+		return new HistogramSubtreeTask(rows, 0, rows.length, null,
+				classCounts, remainingColIndices, 0);
+	}
+
+	/**
+	 * @return a histogram (a node's contingency table) for the current thread
+	 *         to fill, reused if it can
+	 */
+	private SplitEvaluator histogram() {
+		SplitEvaluator histogram = this.freeHistograms == null ? null
+				: this.freeHistograms.get().poll();
+		return histogram != null ? histogram : this.newSplitEvaluator();
+	}
+
+	/**
+	 * @param histogram
+	 *            may be null; dropped when there is no pool, e.g. when build
+	 *            is called outside buildTree
+	 */
+	private void releaseHistogram(SplitEvaluator histogram) {
+		if (histogram != null && this.freeHistograms != null) {
+			this.freeHistograms.get().push(histogram);
+		}
+	}
+
+	/**
+	 * Lays the tree out breadth first in a FlatTree.
+	 *
+	 * @param treeRoot
+	 * @return the flattened tree
+	 */
+	private FlatTree flatten(TreeNode treeRoot) {
+		ArrayList<TreeNode> nodes = new ArrayList<>();
+		nodes.add(treeRoot);
+		// nodes grows as it is walked, so it ends up in breadth first order
+		for (int i = 0; i < nodes.size(); i++) {
+			TreeNode node = nodes.get(i);
+			if (node.nodeType.equals(TreeNode.INTERNAL)) {
+				nodes.add(node.left);
+				nodes.add(node.right);
+			}
+		}
+		int[] feature = new int[nodes.size()];
+		int[] left = new int[nodes.size()];
+		int[] right = new int[nodes.size()];
+		int[] leafClass = new int[nodes.size()];
+		int[] threshold = new int[nodes.size()];
+		boolean[][] leftCodes = new boolean[nodes.size()][];
+		boolean[] missingLeft = new boolean[nodes.size()];
+		int numberOfLeaves = 0;
+		for (TreeNode node : nodes) {
+			if (node.isLeaf()) {
+				numberOfLeaves++;
+			}
+		}
+		int width = this.classNames.length;
+		float[] distributions = new float[numberOfLeaves * width];
+		int nextLeaf = 0;
+		int nextChild = 1;
+		for (int i = 0; i < nodes.size(); i++) {
+			TreeNode node = nodes.get(i);
+			if (node.nodeType.equals(TreeNode.INTERNAL)) {
+				feature[i] = node.attribute;
+				if (node.split != null) {
+					threshold[i] = node.split.threshold;
+					leftCodes[i] = node.split.leftCodes;
+					missingLeft[i] = node.split.missingGoesLeft;
+				}
+				left[i] = nextChild++;
+				right[i] = nextChild++;
+				leafClass[i] = -1;
+			} else {
+				feature[i] = -1;
+				left[i] = -1;
+				right[i] = -1;
+				leafClass[i] = node.classId;
+				fillDistribution(node.classCounts(), distributions,
+						width * nextLeaf++);
+			}
+		}
+		return new FlatTree(feature, left, right, leafClass, threshold,
+				leftCodes, missingLeft, width, distributions);
+	}
+
+	/**
+	 * Writes the fractions of classCounts at distributions[offset...]; all 0
+	 * for a leaf of no records.
+	 */
+	private static void fillDistribution(int[] classCounts,
+			float[] distributions, int offset) {
+		if (classCounts == null) {
+			return;
+		}
+		long total = 0;
+		for (int count : classCounts) {
+			total += count;
+		}
+		if (total == 0) {
+			return;
+		}
+		for (int classId = 0; classId < classCounts.length; classId++) {
+			distributions[offset + classId] = (float) (classCounts[classId]
+					/ (double) total);
+		}
+	}
+
+	/**
+	 * @param classCounts
+	 *            of the records reaching the leaf; copied
+	 */
+	private TreeNode leaf(int[] classCounts, int depth, int numberOfRecords) {
+		TreeNode leaf = new TreeNode(TreeNode.LEAF, majorityClass(classCounts),
+				-1, null, null);
+		leaf.classCounts = classCounts.clone();
+		if (this.tracer != null) {
+			this.tracer.leafCreated(depth, numberOfRecords, leaf.labelName);
+		}
+		return leaf;
+	}
+
+	/**
+	 * @param leftCounts
+	 *            class counts of the records going left
+	 * @param rightCounts
+	 *            class counts of the records going right
+	 * @return impurity of the node minus the average weighted impurity of
+	 *         its children
+	 */
+	private double impurityGain(int[] leftCounts, int[] rightCounts) {
+		int[] nodeCounts = new int[leftCounts.length];
+		int leftSize = 0;
+		int rightSize = 0;
+		for (int classId = 0; classId < leftCounts.length; classId++) {
+			nodeCounts[classId] = leftCounts[classId] + rightCounts[classId];
+			leftSize += leftCounts[classId];
+			rightSize += rightCounts[classId];
+		}
+		int size = leftSize + rightSize;
+		return this.impurityMeasure.impurity(nodeCounts, size)
+				- this.splitEvaluator().averageWeightedImpurity(leftCounts,
+						leftSize, rightCounts, rightSize, size);
+	}
+
+	/**
+	 * @param classCounts
+	 *            of a node
+	 * @param numberOfRemainingColumns
+	 * @param depth
+	 *            of the node, 0 for the root
+	 * @return False if the node is a leaf whatever its records: it is pure,
+	 *         has fewer than 6 records (or too few for two leaves of
+	 *         minSamplesLeaf), no column left, or is at maxTreeDepth
+	 */
+	private boolean maySplit(int[] classCounts, int numberOfRemainingColumns,
+			int depth) {
+		int size = 0;
+		int classesPresent = 0;
+		for (int count : classCounts) {
+			size += count;
+			if (count > 0) {
+				classesPresent++;
+			}
+		}
+		return classesPresent > 1 && numberOfRemainingColumns > 0
+				&& size >= Math.max(6, 2 * this.minSamplesLeaf)
+				&& depth < this.maxTreeDepth;
+	}
+
+	/**
+	 * @param classCounts
+	 *            of a node
+	 * @param splitImpurity
+	 *            average weighted impurity of the node's best split
+	 * @return True if the split lowers the node's impurity by less than
+	 *         minImpurityDecrease
+	 */
+	private boolean gainsTooLittle(int[] classCounts, double splitImpurity) {
+		if (this.minImpurityDecrease <= 0) {
+			return false;
+		}
+		int size = 0;
+		for (int count : classCounts) {
+			size += count;
+		}
+		return this.impurityMeasure.impurity(classCounts, size)
+				- splitImpurity < this.minImpurityDecrease;
+	}
+
+	/**
+	 * @param classCounts
+	 * @return the class id with the highest count, or -1 if all are 0
+	 */
+	private static int majorityClass(int[] classCounts) {
+		int maxClass = -1;
+		int maxFrequency = Integer.MIN_VALUE;
+		for (int classId = 0; classId < classCounts.length; classId++) {
+			if (classCounts[classId] > 0
+					&& classCounts[classId] > maxFrequency) {
+				maxFrequency = classCounts[classId];
+				maxClass = classId;
+			}
+		}
+		return maxClass;
+	}
+
+	/**
+	 * Same recursion as build, but the records of a node are a bitset over
+	 * the columnStore and split counts come from popcounts.
+	 *
+	 * @param rows
+	 * @param remainingColIndices
+	 * @param depth
+	 * @return the root TreeNode of the tree
+	 */
+	private TreeNode buildFromBitset(long[] rows,
+			TreeSet<Integer> remainingColIndices, int depth) {
+		BitColumnStore store = this.columnStore;
+		int numberOfClasses = store.numberOfClasses();
+		int[] classCounts = new int[numberOfClasses];
+		store.classCounts(rows, classCounts);
+		int size = 0;
+		for (int count : classCounts) {
+			size += count;
+		}
+		if (this.tracer != null) {
+			this.tracer.nodeCreated(depth, size, remainingColIndices.size());
+		}
+		if (this.buildMetrics != null) {
+			this.buildMetrics.nodeCreated(depth);
+		}
+		if (this.maySplit(classCounts, remainingColIndices.size(),
+				depth) == false) {
+			return this.leaf(classCounts, depth, size);
+		}
+		int[] leftCounts = new int[numberOfClasses];
+		int[] rightCounts = new int[numberOfClasses];
+		long searchStart = this.buildClock();
+		double minValue = Double.MAX_VALUE;
+		int bestColumnToSplitRecords = -1;
+		// all but the first, see dropConstantColumns
+		ArrayList<Integer> constantColumns = new ArrayList<>();
+		boolean keptConstantColumn = false;
+		for (int colIndex : this.candidateColumns(remainingColIndices, depth,
+				classCounts)) {
+			store.classCountsWithOne(rows, colIndex, leftCounts);
+			int leftSize = 0;
+			for (int classId = 0; classId < numberOfClasses; classId++) {
+				rightCounts[classId] = classCounts[classId]
+						- leftCounts[classId];
+				leftSize += leftCounts[classId];
+			}
+			if (this.skipConstantColumns
+					&& (leftSize == 0 || leftSize == size)) {
+				if (keptConstantColumn) {
+					constantColumns.add(colIndex);
+				}
+				keptConstantColumn = true;
+			}
+			if (this.minSamplesLeaf > 1
+					&& Math.min(leftSize, size - leftSize) < this.minSamplesLeaf) {
+				continue;
+			}
+			double value = this.splitEvaluator.averageWeightedImpurity(
+					leftCounts, leftSize, rightCounts, size - leftSize, size);
+			if (value < minValue) {
+				minValue = value;
+				bestColumnToSplitRecords = colIndex;
+				if (value <= 0) {
+					// a perfect split; no column can score lower
+					break;
+				}
+			}
+		}
+		if (bestColumnToSplitRecords < 0
+				|| this.gainsTooLittle(classCounts, minValue)) {
+			return this.leaf(classCounts, depth, size);
+		}
+		long partitionStart = this.buildClock();
+		long[] leftRows = store.withOne(rows, bestColumnToSplitRecords);
+		long[] rightRows = store.withZero(rows, bestColumnToSplitRecords);
+		int leftSize = BitColumnStore.count(leftRows);
+		long childIndexBytes = 2 * 8L * rows.length;
+		if (this.buildMetrics != null) {
+			this.buildMetrics.splitSearched(partitionStart - searchStart,
+					remainingColIndices.size());
+			this.buildMetrics.partitioned(System.nanoTime() - partitionStart);
+			this.buildMetrics.indexBytesChanged(childIndexBytes);
+		}
+		if (leftSize == 0 || leftSize == size) {
+			if (this.buildMetrics != null) {
+				this.buildMetrics.indexBytesChanged(-childIndexBytes);
+			}
+			return this.leaf(classCounts, depth, size);
+		}
+		TreeSet<Integer> childRemainingColIndices = new TreeSet<>(
+				remainingColIndices);
+		childRemainingColIndices.remove(bestColumnToSplitRecords);
+		childRemainingColIndices.removeAll(constantColumns);
+		if (this.tracer != null) {
+			store.classCountsWithOne(rows, bestColumnToSplitRecords,
+					leftCounts);
+			for (int classId = 0; classId < numberOfClasses; classId++) {
+				rightCounts[classId] = classCounts[classId]
+						- leftCounts[classId];
+			}
+			this.tracer.splitChosen(depth, bestColumnToSplitRecords,
+					this.impurityGain(leftCounts, rightCounts), leftSize,
+					size - leftSize);
+		}
+		TreeNode left;
+		TreeNode right;
+		if (this.shouldFork(size)) {
+			BitsetSubtreeTask leftTask = new BitsetSubtreeTask(leftRows,
+					childRemainingColIndices, depth + 1);
+			leftTask.fork();
+			right = this.buildFromBitset(rightRows, childRemainingColIndices,
+					depth + 1);
+			left = leftTask.join();
+		} else {
+			left = this.buildFromBitset(leftRows, childRemainingColIndices,
+					depth + 1);
+			right = this.buildFromBitset(rightRows, childRemainingColIndices,
+					depth + 1);
+		}
+		if (this.buildMetrics != null) {
+			this.buildMetrics.indexBytesChanged(-childIndexBytes);
+		}
+		return this.withGain(new TreeNode(TreeNode.INTERNAL, -1,
+				bestColumnToSplitRecords, left, right), classCounts, size,
+				minValue);
+	}
+
+	/**
+	 * Same recursion as build over histograms. The records of the node are
+	 * rows[from, to); they are partitioned in place, the left child's first.
+	 *
+	 * @param rows
+	 * @param from
+	 * @param to
+	 * @param histogram
+	 *            filled for the node over remainingColIndices and owned by the
+	 *            call from then on, or null to fill one here
+	 * @param classCounts
+	 *            number of records of each class in the node
+	 * @param remainingColIndices
+	 * @param depth
+	 * @return the root TreeNode of the subtree
+	 */
+	private TreeNode buildFromHistogram(int[] rows, int from, int to,
+			SplitEvaluator histogram, int[] classCounts,
+			TreeSet<Integer> remainingColIndices, int depth) {
+		int size = to - from;
+		if (this.tracer != null) {
+			this.tracer.nodeCreated(depth, size, remainingColIndices.size());
+		}
+		if (this.buildMetrics != null) {
+			this.buildMetrics.nodeCreated(depth);
+		}
+		if (this.maySplit(classCounts, remainingColIndices.size(),
+				depth) == false) {
+			this.releaseHistogram(histogram);
+			return this.leaf(classCounts, depth, size);
+		}
+		long searchStart = this.buildClock();
+		int[] columns = this.candidateColumns(remainingColIndices, depth,
+				classCounts);
+		// only a histogram of every remaining column can be handed down
+		boolean allColumns = histogram != null
+				|| columns.length == remainingColIndices.size();
+		if (histogram == null) {
+			histogram = this.histogram();
+			histogram.fill(this.records, rows, from, to, columns);
+		}
+		Split bestSplit = histogram.bestSplit(columns);
+		if (bestSplit == null
+				|| this.gainsTooLittle(classCounts, bestSplit.impurity)) {
+			this.releaseHistogram(histogram);
+			return this.leaf(classCounts, depth, size);
+		}
+		long partitionStart = this.buildClock();
+		int[] leftCounts = new int[classCounts.length];
+		int middle = this.partition(rows, from, to, bestSplit, leftCounts);
+		if (this.buildMetrics != null) {
+			this.buildMetrics.splitSearched(partitionStart - searchStart,
+					remainingColIndices.size());
+			this.buildMetrics.partitioned(System.nanoTime() - partitionStart);
+		}
+		if (middle == from || middle == to) {
+			this.releaseHistogram(histogram);
+			return this.leaf(classCounts, depth, size);
+		}
+		int[] rightCounts = new int[classCounts.length];
+		for (int classId = 0; classId < classCounts.length; classId++) {
+			rightCounts[classId] = classCounts[classId] - leftCounts[classId];
+		}
+		TreeSet<Integer> childRemainingColIndices = new TreeSet<>(
+				remainingColIndices);
+		if (histogram.isBinary(bestSplit.column)) {
+			childRemainingColIndices.remove(bestSplit.column);
+		}
+		this.dropConstantColumns(histogram, allColumns ? null : columns,
+				childRemainingColIndices);
+		// scan the smaller child; the larger one gets what is left of this
+		// node's histogram. Children that will be leaves get none, and so do
+		// the children of a node that filled its sampled columns only.
+		boolean leftMaySplit = this.maySplit(leftCounts,
+				childRemainingColIndices.size(), depth + 1);
+		boolean rightMaySplit = this.maySplit(rightCounts,
+				childRemainingColIndices.size(), depth + 1);
+		SplitEvaluator leftHistogram = null;
+		SplitEvaluator rightHistogram = null;
+		if (allColumns && (leftMaySplit || rightMaySplit)) {
+			int[] childColumns = columnsOf(childRemainingColIndices);
+			if (middle - from <= to - middle) {
+				leftHistogram = this.histogram();
+				leftHistogram.fill(this.records, rows, from, middle,
+						childColumns);
+				histogram.subtract(leftHistogram, childColumns);
+				rightHistogram = histogram;
+			} else {
+				rightHistogram = this.histogram();
+				rightHistogram.fill(this.records, rows, middle, to,
+						childColumns);
+				histogram.subtract(rightHistogram, childColumns);
+				leftHistogram = histogram;
+			}
+			if (leftMaySplit == false) {
+				this.releaseHistogram(leftHistogram);
+				leftHistogram = null;
+			}
+			if (rightMaySplit == false) {
+				this.releaseHistogram(rightHistogram);
+				rightHistogram = null;
+			}
+		} else {
+			this.releaseHistogram(histogram);
+		}
+		if (this.tracer != null) {
+			this.tracer.splitChosen(depth, bestSplit.column,
+					this.impurityGain(leftCounts, rightCounts), middle - from,
+					to - middle);
+		}
+		TreeNode left;
+		TreeNode right;
+		if (this.shouldFork(size)) {
+			HistogramSubtreeTask leftTask = new HistogramSubtreeTask(rows,
+					from, middle, leftHistogram, leftCounts,
+					childRemainingColIndices, depth + 1);
+			leftTask.fork();
+			right = this.buildFromHistogram(rows, middle, to, rightHistogram,
+					rightCounts, childRemainingColIndices, depth + 1);
+			left = leftTask.join();
+		} else {
+			left = this.buildFromHistogram(rows, from, middle, leftHistogram,
+					leftCounts, childRemainingColIndices, depth + 1);
+			right = this.buildFromHistogram(rows, middle, to, rightHistogram,
+					rightCounts, childRemainingColIndices, depth + 1);
+		}
+		return this.withGain(new TreeNode(bestSplit, left, right), classCounts,
+				size, bestSplit.impurity);
+	}
+
+	/**
+	 * Keeps the impurity decrease of an internal node's split, which
+	 * featureImportances adds up.
+	 *
+	 * @param splitImpurity
+	 *            average weighted impurity of the children, from the split
+	 *            search
+	 * @return node
+	 */
+	private TreeNode withGain(TreeNode node, int[] classCounts, int size,
+			double splitImpurity) {
+		node.gain = this.impurityMeasure.impurity(classCounts, size)
+				- splitImpurity;
+		node.numberOfRecords = size;
+		return node;
+	}
+
+	/**
+	 * Moves the records of rows[from, to) that go left to the front.
+	 *
+	 * @param rows
+	 * @param from
+	 * @param to
+	 * @param split
+	 * @param leftCounts
+	 *            incremented for the class of every record that goes left
+	 * @return the end of the records that go left
+	 */
+	private int partition(int[] rows, int from, int to, Split split,
+			int[] leftCounts) {
+		int middle = from;
+		for (int i = from; i < to; i++) {
+			int row = rows[i];
+			if (split.goesLeft(this.records.valueAt(row, split.column))) {
+				rows[i] = rows[middle];
+				rows[middle++] = row;
+				leftCounts[this.records.classIdOf(row)]++;
+			}
+		}
+		return middle;
+	}
+
+	public String classify(Record recordToClassify) {
+		if (this.metrics == null) {
+			return this.labelOf(
+					this.flatTree.scorer().classify(recordToClassify.attrList));
+		}
+		long start = System.nanoTime();
+		int classId = this.flatTree.scorer()
+				.classify(recordToClassify.attrList);
+		this.metrics.scored(System.nanoTime() - start);
+		return this.labelOf(classId);
+	}
+
+	/**
+	 * Classifies a row of encoded records, e.g. one from
+	 * loadTestColumnsFromFile.
+	 *
+	 * @param encodedRecords
+	 * @param row
+	 * @return the label
+	 */
+	public String classify(EncodedRecords encodedRecords, int row) {
+		if (this.metrics == null) {
+			return this.labelOf(
+					this.flatTree.scorer().classify(encodedRecords, row));
+		}
+		long start = System.nanoTime();
+		int classId = this.flatTree.scorer().classify(encodedRecords, row);
+		this.metrics.scored(System.nanoTime() - start);
+		return this.labelOf(classId);
+	}
+
+	/**
+	 * Classifies every row of a block of encoded records.
+	 *
+	 * @param block
+	 * @param classIds
+	 *            gets the class id of each row; at least block.numberOfRows()
+	 *            long
+	 */
+	public void classifyBatch(EncodedRecords block, int[] classIds) {
+		int rows = block.numberOfRows();
+		ClassifierMetrics batchMetrics = this.metrics;
+		long start = batchMetrics == null ? 0 : System.nanoTime();
+		this.scoreBatch(this.flatTree.scorer(), block, classIds);
+		if (batchMetrics != null) {
+			batchMetrics.batchScored(rows, System.nanoTime() - start);
+		}
+	}
+
+	/**
+	 * classifyBatch without metrics, on the scoring pool if there is one.
+	 */
+	private void scoreBatch(TreeScorer tree, EncodedRecords block,
+			int[] classIds) {
+		int rows = block.numberOfRows();
+		if (this.scoringPool == null || rows <= SCORING_CHUNK) {
+			tree.classify(block, 0, rows, classIds, 0);
+		} else {
+			this.scoringPool
+					.invoke(new BatchTask(tree, block, 0, rows, classIds));
+		}
+	}
+
+	/**
+	 * Compiles the tree to bytecode for classify and classifyBatch, see
+	 * TreeCompiler, unless it has more than TreeCompiler.DEFAULT_MAX_NODES
+	 * nodes. Worth it for a tree that will score many records; a tree built,
+	 * pruned or trained further afterwards is interpreted until compiled
+	 * again.
+	 *
+	 * @return whether scoring runs compiled code; if not, the tree is
+	 *         interpreted as before
+	 */
+	public boolean compileTree() {
+		return this.compileTree(TreeCompiler.DEFAULT_MAX_NODES);
+	}
+
+	/**
+	 * @param maxNodes
+	 *            bigger trees stay interpreted
+	 * @return whether scoring runs compiled code
+	 */
+	public boolean compileTree(int maxNodes) {
+		return this.flatTree.compile(maxNodes);
+	}
+
+	/**
+	 * Writes the class distribution of the leaf each row of a block reaches:
+	 * the fraction of the leaf's training records in each class, in class id
+	 * order (see classNames). Allocates nothing.
+	 *
+	 * @param block
+	 * @param probabilities
+	 *            gets the fraction of class c for row r at
+	 *            probabilities[r * classNames().length + c]
+	 */
+	public void predictProba(EncodedRecords block, double[] probabilities) {
+		FlatTree tree = this.flatTree;
+		int rows = block.numberOfRows();
+		this.checkProbabilities(tree, rows, probabilities.length);
+		ClassifierMetrics batchMetrics = this.metrics;
+		long start = batchMetrics == null ? 0 : System.nanoTime();
+		tree.probabilities(block, 0, rows, probabilities, 0);
+		if (batchMetrics != null) {
+			batchMetrics.batchScored(rows, System.nanoTime() - start);
+		}
+	}
+
+	/**
+	 * Like the double version, for callers that keep a float buffer.
+	 */
+	public void predictProba(EncodedRecords block, float[] probabilities) {
+		FlatTree tree = this.flatTree;
+		int rows = block.numberOfRows();
+		this.checkProbabilities(tree, rows, probabilities.length);
+		ClassifierMetrics batchMetrics = this.metrics;
+		long start = batchMetrics == null ? 0 : System.nanoTime();
+		tree.probabilities(block, 0, rows, probabilities, 0);
+		if (batchMetrics != null) {
+			batchMetrics.batchScored(rows, System.nanoTime() - start);
+		}
+	}
+
+	private void checkProbabilities(FlatTree tree, int rows, int length) {
+		if (length < (long) rows * tree.numberOfClasses()) {
+			throw new IllegalArgumentException("need " + rows + " x "
+					+ tree.numberOfClasses() + " probabilities, got " + length);
+		}
+	}
+
+	/**
+	 * Classifies every row of a block by a threshold on one class, e.g. to
+	 * trade precision for recall on a rare class: a row gets classId when
+	 * its leaf has at least threshold of it, otherwise the most frequent
+	 * other class of its leaf, or the leaf's class if it has no other.
+	 *
+	 * @param block
+	 * @param classId
+	 * @param threshold
+	 *            between 0 and 1
+	 * @param classIds
+	 *            gets the class id of each row; at least block.numberOfRows()
+	 *            long
+	 */
+	public void classifyBatch(EncodedRecords block, int classId,
+			double threshold, int[] classIds) {
+		FlatTree tree = this.flatTree;
+		int rows = block.numberOfRows();
+		int width = tree.numberOfClasses();
+		ClassifierMetrics batchMetrics = this.metrics;
+		long start = batchMetrics == null ? 0 : System.nanoTime();
+		for (int row = 0; row < rows; row++) {
+			int leaf = tree.leafOf(block, row);
+			if (tree.probability(leaf, classId) >= threshold) {
+				classIds[row] = classId;
+				continue;
+			}
+			// a leaf of classId alone keeps it
+			int best = tree.leafClass[leaf];
+			float bestProbability = 0;
+			for (int c = 0; c < width; c++) {
+				if (c != classId
+						&& tree.probability(leaf, c) > bestProbability) {
+					bestProbability = tree.probability(leaf, c);
+					best = c;
+				}
+			}
+			classIds[row] = best;
+		}
+		if (batchMetrics != null) {
+			batchMetrics.batchScored(rows, System.nanoTime() - start);
+		}
+	}
+
+	/**
+	 * Ranks the classes of the leaf each row of a block reaches, most
+	 * frequent first, ties to the lower class id.
+	 *
+	 * @param block
+	 * @param k
+	 *            classes per row, at most classNames().length
+	 * @param classIds
+	 *            gets the k class ids of row r at classIds[r * k ...]; -1
+	 *            where the leaf has fewer than k classes
+	 */
+	public void topClasses(EncodedRecords block, int k, int[] classIds) {
+		FlatTree tree = this.flatTree;
+		int rows = block.numberOfRows();
+		int width = tree.numberOfClasses();
+		if (k < 1 || k > width) {
+			throw new IllegalArgumentException(
+					"k must be between 1 and " + width + ", got " + k);
+		}
+		for (int row = 0; row < rows; row++) {
+			int leaf = tree.leafOf(block, row);
+			int out = row * k;
+			// insertion into the k best so far; k is small
+			int found = 0;
+			for (int c = 0; c < width; c++) {
+				float probability = tree.probability(leaf, c);
+				if (probability == 0) {
+					continue;
+				}
+				int i = Math.min(found, k - 1);
+				if (found == k && probability <= tree.probability(leaf,
+						classIds[out + i])) {
+					continue;
+				}
+				while (i > 0 && probability > tree.probability(leaf,
+						classIds[out + i - 1])) {
+					classIds[out + i] = classIds[out + i - 1];
+					i--;
+				}
+				classIds[out + i] = c;
+				found = Math.min(found + 1, k);
+			}
+			for (int i = found; i < k; i++) {
+				classIds[out + i] = -1;
+			}
+		}
+	}
+
+	/**
+	 * @return the labels in class id order, the order of predictProba
+	 */
+	public String[] classNames() {
+		return this.classNames.clone();
+	}
+
+	/**
+	 * @param classId
+	 * @return the label name, or null for -1 (a tree built on no records)
+	 */
+	String labelOf(int classId) {
+		return classId < 0 ? null : this.classNames[classId];
+	}
+
+	/**
+	 * Takes An array of classified records and filename as input and write the
+	 * classified records' labels to an input file specified by the user.
+	 *
+	 * @param fileName
+	 * @param theRecords
+	 */
+	public void classifyTestRecordsAndWriteToFile(String fileName,
+			ArrayList<Record> theRecords) {
+		try (BufferedWriter writer = Files.newBufferedWriter(
+				Paths.get(fileName), Charset.defaultCharset())) {
+			boolean first = true;
+			for (Record theRecord : theRecords) {
+				if (first == false) {
+					writer.write('\n');
+				}
+				writer.write(String.valueOf(this.classify(theRecord)));
+				first = false;
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Classifies a test file and writes one label per line, like
+	 * classifyTestRecordsAndWriteToFile, but reads and scores it
+	 * SCORING_BLOCK_SIZE records at a time, so memory does not grow with
+	 * the size of the file.
+	 *
+	 * @param testFileName
+	 * @param outputFileName
+	 * @throws IOException
+	 */
+	public void classifyTestFileAndWriteToFile(String testFileName,
+			String outputFileName) throws IOException {
+		final int[] classIds = new int[SCORING_BLOCK_SIZE];
+		try (BufferedWriter writer = Files.newBufferedWriter(
+				Paths.get(outputFileName), Charset.defaultCharset())) {
+			final boolean[] first = { true };
+			this.scanTestFile(testFileName, block -> {
+				this.classifyBatch(block, classIds);
+				for (int row = 0; row < block.numberOfRows(); row++) {
+					if (first[0] == false) {
+						writer.write('\n');
+					}
+					writer.write(String.valueOf(this.labelOf(classIds[row])));
+					first[0] = false;
+				}
+			});
+		}
+	}
+
+	/**
+	 * Hands a test file to handler SCORING_BLOCK_SIZE records at a time.
+	 *
+	 * @param testFileName
+	 * @param handler
+	 * @throws IOException
+	 */
+	void scanTestFile(String testFileName,
+			StreamingLoader.BlockHandler handler) throws IOException {
+		this.loader.scanTestRecords(testFileName, SCORING_BLOCK_SIZE,
+				handler);
+	}
+
+	public double computeTrainingError() {
+		int numberOfMisclassifiedRecords = 0;
+		for (int row = 0; row < this.records.numberOfRows(); row++) {
+			if (this.flatTree.classify(this.records, row) != this.records
+					.classIdOf(row)) {
+				numberOfMisclassifiedRecords++;
+			}
+		}
+		return (double) numberOfMisclassifiedRecords
+				/ this.records.numberOfRows();
+	}
+
+	/**
+	 * @param fileName
+	 *            labeled records as in a training file, without the header
+	 * @return fraction of them the tree misclassifies
+	 * @throws IOException
+	 */
+	public double computeError(String fileName) throws IOException {
+		final int[] classIds = new int[SCORING_BLOCK_SIZE];
+		final long[] counts = new long[2];
+		this.loader.scanLabeledRecords(fileName, SCORING_BLOCK_SIZE,
+				block -> {
+					this.classifyBatch(block, classIds);
+					for (int row = 0; row < block.numberOfRows(); row++) {
+						if (classIds[row] != block.classIdOf(row)) {
+							counts[0]++;
+						}
+					}
+					counts[1] += block.numberOfRows();
+				});
+		return (double) counts[0] / counts[1];
+	}
+
+	/**
+	 * Examines all of the records and puts the index of each one in
+	 * leftIndices or rightIndices, depending on which side of the split it
+	 * goes to.
+	 *
+	 * @param indicesOfRecords
+	 * @param split
+	 * @param leftIndices
+	 * @param rightIndices
+	 * @param leftCounts
+	 *            incremented for the class of every record that goes left
+	 */
+	private void partition(Set<Integer> indicesOfRecords, Split split,
+			TreeSet<Integer> leftIndices, TreeSet<Integer> rightIndices,
+			int[] leftCounts) {
+		for (Integer index : indicesOfRecords) {
+			if (split.goesLeft(this.records.valueAt(index, split.column))) {
+				leftIndices.add(index);
+				leftCounts[this.records.classIdOf(index)]++;
+			} else {
+				rightIndices.add(index);
+			}
+		}
+	}
+
+	/**
+	 *
+	 * @param fileName
+	 * @return An arrayList of the records (label is null)
+	 * @throws IOException
+	 */
+	public ArrayList<Record> loadTestRecordsFromFile(String fileName)
+			throws IOException {
+		String whitespace = "[ ]+";
+		List<String> lines = Files.readAllLines(Paths.get(fileName),
+				Charset.defaultCharset());
+		ArrayList<Record> testRecords = new ArrayList<>();
+		for (String line : lines) {
+			String[] comps = line.split(whitespace);
+			double[] attrs = new double[comps.length];
+			for (int i = 0; i < comps.length; i++) {
+				// ColumnDictionary.MISSING for "?" and unknown values
+				attrs[i] = this.attributeDictionaries[i].code(comps[i]);
+			}
+			Record recordToAdd = new Record(attrs, null);
+			testRecords.add(recordToAdd);
+		}
+		return testRecords;
+	}
+
+	/**
+	 * Streams a test file into encoded records, using the dictionaries of the
+	 * training data.
+	 *
+	 * @param fileName
+	 * @return the test records, encoded (class ids are -1)
+	 * @throws IOException
+	 */
+	public EncodedRecords loadTestColumnsFromFile(String fileName)
+			throws IOException {
+		long start = System.nanoTime();
+		EncodedRecords testRecords = this.loader.loadTestRecords(fileName);
+		if (this.metrics != null) {
+			this.metrics.loaded(testRecords.numberOfRows(),
+					Files.size(Paths.get(fileName)),
+					System.nanoTime() - start);
+		}
+		return testRecords;
+	}
+
+	/**
+	 * Loads the training data into the Ivars: numberOfRecords,
+	 * numberOfAttributes, etc. Also fills the records Ivar.
+	 *
+	 * @param fileName
+	 * @throws IOException
+	 */
+	public void loadTrainingData(String fileName) throws IOException {
+		this.loadTrainingData(fileName, null);
+	}
+
+	/**
+	 * Same as loadTrainingData(fileName); the file is streamed into the
+	 * encoded records, never held as lines or Records.
+	 *
+	 * @param fileName
+	 * @param listener
+	 *            told about progress, may be null
+	 * @throws IOException
+	 */
+	public void loadTrainingData(String fileName,
+			StreamingLoader.ProgressListener listener) throws IOException {
+		long start = System.nanoTime();
+		this.loader = new StreamingLoader(listener);
+		if (this.histogramBins > 0) {
+			this.loader.setMaxBins(this.histogramBins);
+		}
+		this.records = this.loader.loadTrainingData(fileName);
+		this.statisticsCache.clear();
+		if (this.metrics != null) {
+			this.metrics.loaded(this.records.numberOfRows(),
+					Files.size(Paths.get(fileName)),
+					System.nanoTime() - start);
+		}
+		this.numberOfRecords = this.loader.numberOfRecords();
+		this.numberOfAttributes = this.loader.numberOfAttributes();
+		this.numberOfClasses = this.loader.numberOfClasses();
+		this.attributeDictionaries = this.loader.attributeDictionaries();
+		this.labelDictionary = this.loader.labelDictionary();
+		this.classNames = this.labelDictionary.names();
+	}// end of loadTrainingData()
+
+	/**
+	 * Out-of-core training: uses the records of a column file (see
+	 * ColumnFile.convert) where they are, mapped from disk, instead of
+	 * loading them. The heap holds no column data, only an int of row id per
+	 * record while a tree is built over histograms; the tree is the same as
+	 * from loadTrainingData on the text file. Test files are read as usual.
+	 *
+	 * @param columnFileName
+	 * @throws IOException
+	 */
+	public void loadColumnFile(String columnFileName) throws IOException {
+		long start = System.nanoTime();
+		ColumnFile columnFile = ColumnFile.open(columnFileName);
+		this.records = columnFile.records();
+		this.statisticsCache.clear();
+		if (this.metrics != null) {
+			this.metrics.loaded(this.records.numberOfRows(),
+					Files.size(Paths.get(columnFileName)),
+					System.nanoTime() - start);
+		}
+		this.numberOfRecords = columnFile.numberOfRecords();
+		this.numberOfClasses = columnFile.numberOfClasses();
+		this.attributeDictionaries = columnFile.attributeDictionaries();
+		this.numberOfAttributes = this.attributeDictionaries.length;
+		this.classNames = columnFile.classNames();
+		this.labelDictionary = new ColumnDictionary(this.classNames);
+		this.loader = new StreamingLoader(null);
+		this.loader.useDictionaries(this.attributeDictionaries,
+				this.labelDictionary);
+	}
+
+	/**
+	 * Writes the trained tree, with the dictionaries needed to read test
+	 * files, to a model file.
+	 *
+	 * @param fileName
+	 * @throws IOException
+	 */
+	public void saveModel(String fileName) throws IOException {
+		new ModelFile(this.numberOfRecords, this.numberOfClasses,
+				this.attributeDictionaries, this.classNames, this.flatTree)
+						.write(fileName);
+	}
+
+	/**
+	 * Loads a classifier saved with saveModel. It can classify and write
+	 * test files straight away; it has no training records, so it cannot be
+	 * rebuilt or validated, and toString shows no tree.
+	 *
+	 * @param fileName
+	 * @return the classifier
+	 * @throws IOException
+	 */
+	public static DecisionTreeClassifier loadModel(String fileName)
+			throws IOException {
+		ModelFile model = ModelFile.read(fileName);
+		DecisionTreeClassifier classifier = new DecisionTreeClassifier(
+				(ImpurityMeasure) null);
+		classifier.numberOfRecords = model.numberOfRecords();
+		classifier.numberOfClasses = model.numberOfClasses();
+		classifier.attributeDictionaries = model.attributeDictionaries();
+		classifier.numberOfAttributes = classifier.attributeDictionaries.length;
+		classifier.classNames = model.classNames();
+		classifier.labelDictionary = new ColumnDictionary(
+				classifier.classNames);
+		classifier.flatTree = model.tree();
+		classifier.loader = new StreamingLoader(null);
+		classifier.loader.useDictionaries(classifier.attributeDictionaries,
+				classifier.labelDictionary);
+		return classifier;
+	}
+
+	/**
+	 * @param indicesOfRecords
+	 * @return the number of records of each class id
+	 */
+	private int[] classCounts(Set<Integer> indicesOfRecords) {
+		int[] frequencyOfClasses = new int[this.classNames.length];
+		for (Integer indexOfRecord : indicesOfRecords) {
+			frequencyOfClasses[this.records.classIdOf(indexOfRecord)]++;
+		}
+		return frequencyOfClasses;
+	}
+
+	/**
+	 * Leave-one-out error of the records. Every fold builds on a view of the
+	 * other records; the records list is not touched.
+	 *
+	 * @return fraction of records misclassified by the tree built without
+	 *         them
+	 */
+	public double oneOutValidationError() {
+		return new CrossValidator(this).leaveOneOut().pooledError();
+	}
+
+	public double randomSamplingClassificationError() {
+		// 15% of the records will be used as test records; 85% for training.
+		return new CrossValidator(this).setSeed(System.nanoTime())
+				.randomSubsampling(100, 0.15).pooledError();
+	}
+
+	/*
+	 * Validation folds. CrossValidator calls prepareFolds once, then
+	 * misclassifiedInFold for each fold (possibly from several threads), then
+	 * finishFolds. Root tables outlive the run in statisticsCache, which is
+	 * emptied whenever other records are loaded.
+	 */
+	public static final int DEFAULT_STATISTICS_CACHE_SIZE = 16;
+	private static final int[] NO_ROWS = new int[0];
+	private SplitEvaluator fullDataStatistics;
+	private StatisticsCache statisticsCache = new StatisticsCache(
+			DEFAULT_STATISTICS_CACHE_SIZE);
+
+	/**
+	 * @param maxEntries
+	 *            number of fold root tables kept between validation runs
+	 *            (each as big as a node's contingency table); 0 keeps none
+	 */
+	public void setStatisticsCacheSize(int maxEntries) {
+		this.statisticsCache = new StatisticsCache(maxEntries);
+	}
+
+	int numberOfTrainingRecords() {
+		return this.records.numberOfRows();
+	}
+
+	/**
+	 * Computes the statistics every fold shares, unless an earlier run left
+	 * them in the cache: the contingency table of the whole data set over all
+	 * columns (or its bitsets). A fold's root table is this one minus the
+	 * held out records.
+	 */
+	void prepareFolds() {
+		this.splitEvaluator = this.newSplitEvaluator();
+		this.workerSplitEvaluators = ThreadLocal
+				.withInitial(this::newSplitEvaluator);
+		if (this.bitsetTraining()) {
+			this.columnStore = BitColumnStore.fromEncoded(this.records,
+					this.classNames);
+			return;
+		}
+		this.freeHistograms = ThreadLocal.withInitial(ArrayDeque::new);
+		this.fullDataStatistics = this.statisticsCache.get(NO_ROWS);
+		if (this.fullDataStatistics == null) {
+			SplitEvaluator statistics = this.newSplitEvaluator();
+			int[] rows = this.allRows();
+			statistics.fill(this.records, rows, 0, rows.length,
+					this.allColumns());
+			this.statisticsCache.put(NO_ROWS, statistics);
+			this.fullDataStatistics = statistics;
+		}
+	}
+
+	/**
+	 * @param heldOutRows
+	 * @return the root table of a fold, in a histogram the caller owns:
+	 *         copied from the cache, or else the full data set's minus the
+	 *         held out records (and then cached). Folds of one record, as in
+	 *         leave-one-out, are never cached: subtracting the record costs
+	 *         no more than a copy, and there are too many of them for the
+	 *         cache to keep.
+	 */
+	private SplitEvaluator foldStatistics(int[] heldOutRows) {
+		int[] columns = this.allColumns();
+		SplitEvaluator statistics = this.histogram();
+		boolean cacheable = heldOutRows.length > 1
+				&& this.statisticsCache.maxEntries() > 0;
+		SplitEvaluator cached = cacheable
+				? this.statisticsCache.get(heldOutRows)
+				: null;
+		if (cached != null) {
+			statistics.copyFrom(cached, columns);
+			return statistics;
+		}
+		statistics.fillBySubtracting(this.fullDataStatistics, this.records,
+				heldOutRows, columns);
+		if (cacheable) {
+			SplitEvaluator copy = this.newSplitEvaluator();
+			copy.copyFrom(statistics, columns);
+			this.statisticsCache.put(heldOutRows, copy);
+		}
+		return statistics;
+	}
+
+	void finishFolds() {
+		this.fullDataStatistics = null;
+		this.freeHistograms = null;
+		this.workerSplitEvaluators = null;
+	}
+
+	private int[] allColumns() {
+		int[] columns = new int[this.numberOfAttributes];
+		for (int i = 0; i < this.numberOfAttributes; i++) {
+			columns[i] = i;
+		}
+		return columns;
+	}
+
+	/**
+	 * Builds a tree on every record except the held out ones and classifies
+	 * the held out ones with it.
+	 *
+	 * @param heldOutRows
+	 *            ascending indices of the records to hold out
+	 * @return the number of held out records that were misclassified
+	 */
+	int misclassifiedInFold(int[] heldOutRows) {
+		TreeSet<Integer> remainingColIndices = new TreeSet<>();
+		for (int i = 0; i < this.numberOfAttributes; i++) {
+			remainingColIndices.add(i);
+		}
+		TreeNode foldRoot;
+		if (this.bitsetTraining()) {
+			long[] rows = this.columnStore.allRows();
+			for (int row : heldOutRows) {
+				rows[row >>> 6] &= ~(1L << row);
+			}
+			foldRoot = this.buildFromBitset(rows, remainingColIndices, 0);
+		} else if (this.histogramTraining()) {
+			int[] rows = new int[this.records.numberOfRows()
+					- heldOutRows.length];
+			int next = 0;
+			int size = 0;
+			for (int i = 0; i < this.records.numberOfRows(); i++) {
+				if (next < heldOutRows.length && heldOutRows[next] == i) {
+					next++;
+				} else {
+					rows[size++] = i;
+				}
 			}
+			SplitEvaluator rootHistogram = this.foldStatistics(heldOutRows);
+			int[] classCounts = new int[this.classNames.length];
+			for (int row : rows) {
+				classCounts[this.records.classIdOf(row)]++;
+			}
+			foldRoot = this.buildFromHistogram(rows, 0, rows.length,
+					rootHistogram, classCounts, remainingColIndices, 0);
+		} else {
+			TreeSet<Integer> trainingIndices = new TreeSet<>();
+			int next = 0;
+			for (int i = 0; i < this.records.numberOfRows(); i++) {
+				if (next < heldOutRows.length && heldOutRows[next] == i) {
+					next++;
+				} else {
+					trainingIndices.add(i);
+				}
+			}
+			foldRoot = this.build(trainingIndices, remainingColIndices,
+					this.foldStatistics(heldOutRows), null, 0);
+		}
+		FlatTree foldTree = this.flatten(foldRoot);
+		int numberOfMisclassifiedRecords = 0;
+		for (int row : heldOutRows) {
+			if (foldTree.classify(this.records, row) != this.records
+					.classIdOf(row)) {
+				numberOfMisclassifiedRecords++;
+			}
+		}
+		return numberOfMisclassifiedRecords;
+	}
+
+	/*
+	 * Ensembles. RandomForest calls prepareEnsemble once, then ensembleTree
+	 * for each tree (possibly from several threads), then finishEnsemble.
+	 * All the trees read the one copy of the records.
+	 */
+	private int featuresPerNode;
+	// the column choices of the tree the thread is building, if any
+	private ThreadLocal<Random> featureRandom;
+
+	EncodedRecords trainingRecords() {
+		return this.records;
+	}
+
+	int numberOfClassIds() {
+		return this.classNames.length;
+	}
 
-			this.records.addAll(testRecords);
+	ColumnDictionary[] attributeDictionaries() {
+		return this.attributeDictionaries;
+	}
+
+	/**
+	 * @return True once buildTree has run or the model was loaded
+	 */
+	boolean hasTree() {
+		return this.flatTree != null;
+	}
+
+	/**
+	 * @param featuresPerNode
+	 *            number of remaining columns every node of an ensemble tree
+	 *            picks its split from
+	 */
+	void prepareEnsemble(int featuresPerNode) {
+		this.splitEvaluator = this.newSplitEvaluator();
+		this.freeHistograms = ThreadLocal.withInitial(ArrayDeque::new);
+		this.featuresPerNode = featuresPerNode;
+		this.featureRandom = new ThreadLocal<>();
+	}
+
+	void finishEnsemble() {
+		this.freeHistograms = null;
+		this.featureRandom = null;
+	}
+
+	/**
+	 * Builds one ensemble tree over histograms, on the calling thread.
+	 *
+	 * @param rows
+	 *            the tree's sample of the records, a row as often as it was
+	 *            drawn; partitioned in place
+	 * @param seed
+	 *            seed of the tree's column choices
+	 * @return the tree
+	 */
+	FlatTree ensembleTree(int[] rows, long seed) {
+		TreeSet<Integer> remainingColIndices = new TreeSet<>();
+		for (int i = 0; i < this.numberOfAttributes; i++) {
+			remainingColIndices.add(i);
 		}
-		return (double) numberOfMisclassifiedRecords
-				/ (numberOfTestRecords * ITERATIONS);
+		this.featureRandom.set(new Random(seed));
+		try {
+			return this.flatten(
+					this.histogramRoot(rows, remainingColIndices).invoke());
+		} finally {
+			this.featureRandom.remove();
+		}
+	}
+
+	/*
+	 * Incremental training, in the style of a Hoeffding tree.
+	 * startIncrementalTraining gives every node of the trained tree the
+	 * statistics of the records that reach it. addTrainingRecords then adds
+	 * each new record to the nodes on its path, which costs depth times
+	 * attributes counter increments, and every gracePeriod records revisits
+	 * a node: if buildTree would now choose another split there, and the
+	 * Hoeffding bound says the difference is real, the node's subtree is
+	 * rebuilt from the node's records. Nothing else is read again.
+	 */
+	public static final double DEFAULT_HOEFFDING_DELTA = 1e-7;
+	public static final int DEFAULT_GRACE_PERIOD = 200;
+	// splits closer than this are not worth waiting for; the Hoeffding bound
+	// gets below it after enough records
+	private static final double TIE_THRESHOLD = 0.05;
+	private double hoeffdingDelta;
+	private int gracePeriod;
+	// impurity of a uniform class distribution, the highest there is
+	private double impurityRange;
+
+	/**
+	 * What a node's split is chosen from: the contingency table of its
+	 * records over its remaining columns, and its class counts. Leaves also
+	 * keep their rows, so a subtree can be rebuilt without a pass over all
+	 * the records.
+	 */
+	private static class NodeStatistics {
+		private final int[] columns;
+		private final SplitEvaluator table;
+		private final int[] classCounts;
+		private int size = 0;
+		// null for internal nodes
+		private int[] rows;
+		private int numberOfRows = 0;
+		// records added since the node was last revisited
+		private int sinceRevisit = 0;
+
+		NodeStatistics(int[] columns, SplitEvaluator table,
+				int numberOfClasses) {
+			this.columns = columns;
+			this.table = table;
+			this.classCounts = new int[numberOfClasses];
+		}
+
+		void add(EncodedRecords records, int row) {
+			this.table.add(records, row, this.columns);
+			this.classCounts[records.classIdOf(row)]++;
+			this.size++;
+			if (this.rows != null) {
+				if (this.numberOfRows == this.rows.length) {
+					this.rows = Arrays.copyOf(this.rows,
+							Math.max(16, this.numberOfRows * 2));
+				}
+				this.rows[this.numberOfRows++] = row;
+			}
+		}
+	}
+
+	/**
+	 * Keeps statistics at every node of the tree buildTree built, so
+	 * addTrainingRecords can update it. The tables take memory per node
+	 * like histogram training does per level, plus an int per record.
+	 *
+	 * @param delta
+	 *            chance of the Hoeffding bound being wrong, e.g.
+	 *            DEFAULT_HOEFFDING_DELTA; 1 makes the bound 0, so a node
+	 *            changes as soon as buildTree would choose otherwise, which
+	 *            (with a grace period of 1) keeps the tree the same as
+	 *            buildTree on all the records
+	 * @param gracePeriod
+	 *            records a node gets between revisits, e.g.
+	 *            DEFAULT_GRACE_PERIOD
+	 */
+	public void startIncrementalTraining(double delta, int gracePeriod) {
+		if (this.root == null || this.records == null) {
+			throw new IllegalStateException("incremental training needs a"
+					+ " tree built on loaded training data");
+		}
+		if (this.records instanceof MappedRecords
+				|| this.records instanceof PermutedRecords) {
+			throw new IllegalStateException("incremental training adds"
+					+ " records, which read only training records cannot take;"
+					+ " load the training file instead");
+		}
+		this.hoeffdingDelta = delta;
+		this.gracePeriod = Math.max(1, gracePeriod);
+		int[] uniform = new int[this.classNames.length];
+		Arrays.fill(uniform, 1);
+		this.impurityRange = this.impurityMeasure.impurity(uniform,
+				uniform.length);
+		if (this.splitEvaluator == null) {
+			this.splitEvaluator = this.newSplitEvaluator();
+		}
+		int[] rows = this.allRows();
+		this.startStatistics(this.root, this.allColumns(), rows, 0,
+				rows.length);
+	}
+
+	/**
+	 * Drops the statistics; the tree stays as it is.
+	 */
+	public void stopIncrementalTraining() {
+		this.stopStatistics(this.root);
+	}
+
+	/**
+	 * Learns from more labeled records without retraining. The records are
+	 * added to the training records too, so buildTree and validation see
+	 * them.
+	 *
+	 * @param block
+	 *            labeled records encoded with this classifier's dictionaries,
+	 *            e.g. from StreamingLoader.scanLabeledRecords
+	 * @return the number of subtrees rebuilt (leaves split included)
+	 */
+	public int addTrainingRecords(EncodedRecords block) {
+		if (this.root == null || this.root.statistics == null) {
+			throw new IllegalStateException(
+					"startIncrementalTraining has not been called");
+		}
+		int[] codes = new int[this.numberOfAttributes];
+		int rebuilt = 0;
+		for (int row = 0; row < block.numberOfRows(); row++) {
+			int classId = block.classIdOf(row);
+			if (classId < 0 || classId >= this.classNames.length) {
+				throw new IllegalArgumentException(
+						"record " + row + " of the block has no label");
+			}
+			for (int col = 0; col < this.numberOfAttributes; col++) {
+				codes[col] = block.valueAt(row, col);
+			}
+			this.records.addRow(codes, classId);
+			if (this.learn(this.records.numberOfRows() - 1)) {
+				rebuilt++;
+			}
+		}
+		this.statisticsCache.clear();
+		this.flatTree = this.flatten(this.root);
+		return rebuilt;
+	}
+
+	/**
+	 * @param fileName
+	 *            labeled records as in a training file, without the header
+	 * @return the number of subtrees rebuilt
+	 * @throws IOException
+	 */
+	public int addTrainingRecords(String fileName) throws IOException {
+		final int[] rebuilt = { 0 };
+		this.loader.scanLabeledRecords(fileName, SCORING_BLOCK_SIZE,
+				block -> rebuilt[0] += this.addTrainingRecords(block));
+		return rebuilt[0];
+	}
+
+	/**
+	 * Sets the statistics of the subtree at node from rows[from, to), the
+	 * records that reach it; partitions them in place.
+	 */
+	private void startStatistics(TreeNode node, int[] columns, int[] rows,
+			int from, int to) {
+		NodeStatistics statistics = new NodeStatistics(columns,
+				this.newSplitEvaluator(), this.classNames.length);
+		statistics.table.fill(this.records, rows, from, to, columns);
+		for (int i = from; i < to; i++) {
+			statistics.classCounts[this.records.classIdOf(rows[i])]++;
+		}
+		statistics.size = to - from;
+		node.statistics = statistics;
+		if (node.isLeaf()) {
+			statistics.rows = Arrays.copyOfRange(rows, from, to);
+			statistics.numberOfRows = to - from;
+			return;
+		}
+		Split split = node.split();
+		int middle = this.partition(rows, from, to, split,
+				new int[this.classNames.length]);
+		int[] childColumns = columns;
+		if (this.splitEvaluator.isBinary(split.column)) {
+			TreeSet<Integer> remaining = new TreeSet<>();
+			for (int col : columns) {
+				if (col != split.column) {
+					remaining.add(col);
+				}
+			}
+			childColumns = columnsOf(remaining);
+		}
+		this.startStatistics(node.left, childColumns, rows, from, middle);
+		this.startStatistics(node.right, childColumns, rows, middle, to);
+	}
+
+	private void stopStatistics(TreeNode node) {
+		if (node == null) {
+			return;
+		}
+		if (node.isLeaf() && node.statistics != null) {
+			// keeps what the leaf learned for its distribution
+			node.classCounts = node.statistics.classCounts;
+		}
+		node.statistics = null;
+		this.stopStatistics(node.left);
+		this.stopStatistics(node.right);
+	}
+
+	/**
+	 * Adds a record to the nodes on its path and its leaf's class, then
+	 * revisits the nodes that are due, from the root down; the first one
+	 * whose split should change gets its subtree rebuilt.
+	 *
+	 * @param row
+	 *            of the record in records
+	 * @return True if a subtree was rebuilt
+	 */
+	private boolean learn(int row) {
+		ArrayList<TreeNode> path = new ArrayList<>();
+		TreeNode node = this.root;
+		while (true) {
+			node.statistics.add(this.records, row);
+			path.add(node);
+			if (node.isLeaf()) {
+				break;
+			}
+			node = node.split().goesLeft(this.records.valueAt(row,
+					node.attribute)) ? node.left : node.right;
+		}
+		node.setClassId(majorityClass(node.statistics.classCounts));
+		for (int depth = 0; depth < path.size(); depth++) {
+			TreeNode visited = path.get(depth);
+			if (++visited.statistics.sinceRevisit < this.gracePeriod) {
+				continue;
+			}
+			visited.statistics.sinceRevisit = 0;
+			if (this.shouldRebuild(visited, depth)) {
+				TreeNode rebuilt = this.rebuild(visited, depth);
+				if (depth == 0) {
+					this.root = rebuilt;
+				} else if (path.get(depth - 1).left == visited) {
+					path.get(depth - 1).left = rebuilt;
+				} else {
+					path.get(depth - 1).right = rebuilt;
+				}
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Compares the node with what buildTree would make of its records now,
+	 * which the node's table tells without reading them.
+	 *
+	 * @return True if buildTree would split a leaf, or split an internal node
+	 *         on another column or cut, and the impurity it gains by that is
+	 *         above the Hoeffding bound. Once the bound is below
+	 *         TIE_THRESHOLD a leaf splits anyway, and a split is replaced if
+	 *         that gains at least half the threshold, so near ties do not
+	 *         rebuild a subtree over and over. A split that only sends
+	 *         missing values the other way now is changed in place while no
+	 *         record of the node misses the value; otherwise those records
+	 *         went the old way, and the change is weighed like any other.
+	 */
+	private boolean shouldRebuild(TreeNode node, int depth) {
+		NodeStatistics statistics = node.statistics;
+		int[] classCounts = statistics.classCounts;
+		int size = statistics.size;
+		if (this.maySplit(classCounts, statistics.columns.length,
+				depth) == false) {
+			return false;
+		}
+		Split best = statistics.table.bestSplit(statistics.columns);
+		if (best == null || this.gainsTooLittle(classCounts, best.impurity)) {
+			return false;
+		}
+		int[] leftCounts = new int[classCounts.length];
+		int leftSize = statistics.table.leftCounts(best, leftCounts);
+		if (leftSize == 0 || leftSize == size) {
+			// buildTree would make a leaf
+			return false;
+		}
+		double impurity;
+		if (node.isLeaf()) {
+			impurity = this.impurityMeasure.impurity(classCounts, size);
+		} else {
+			Split split = node.split();
+			if (split.column == best.column
+					&& split.threshold == best.threshold
+					&& Arrays.equals(split.leftCodes, best.leftCodes)) {
+				if (split.missingGoesLeft == best.missingGoesLeft) {
+					return false;
+				}
+				if (statistics.table.hasMissingValues(split.column) == false) {
+					// no record has gone either way yet
+					node.split = new Split(split.column, split.threshold,
+							split.leftCodes, split.impurity,
+							best.missingGoesLeft);
+					return false;
+				}
+			}
+			impurity = statistics.table.impurity(split);
+		}
+		double bound = this.impurityRange * Math.sqrt(
+				Math.log(1 / this.hoeffdingDelta) / (2.0 * size));
+		double gain = impurity - best.impurity;
+		if (bound <= 0 || gain > bound) {
+			return true;
+		}
+		return bound < TIE_THRESHOLD
+				&& (node.isLeaf() || gain > TIE_THRESHOLD / 2);
+	}
+
+	/**
+	 * Builds over histograms, starting from a copy of the node's table; the
+	 * subtree is the one buildTree makes of the node's records.
+	 *
+	 * @return the new subtree, with statistics
+	 */
+	private TreeNode rebuild(TreeNode node, int depth) {
+		NodeStatistics statistics = node.statistics;
+		int[] rows = new int[statistics.size];
+		this.collectRows(node, rows, 0);
+		TreeSet<Integer> remainingColIndices = new TreeSet<>();
+		for (int col : statistics.columns) {
+			remainingColIndices.add(col);
+		}
+		SplitEvaluator histogram = this.histogram();
+		histogram.copyFrom(statistics.table, statistics.columns);
+		TreeNode rebuilt = this.buildFromHistogram(rows, 0, rows.length,
+				histogram, statistics.classCounts.clone(),
+				remainingColIndices, depth);
+		this.startStatistics(rebuilt, statistics.columns, rows, 0,
+				rows.length);
+		return rebuilt;
+	}
+
+	/**
+	 * Copies the rows of the leaves under node into rows from offset on.
+	 *
+	 * @return the offset after them
+	 */
+	private int collectRows(TreeNode node, int[] rows, int offset) {
+		if (node.isLeaf()) {
+			NodeStatistics statistics = node.statistics;
+			System.arraycopy(statistics.rows, 0, rows, offset,
+					statistics.numberOfRows);
+			return offset + statistics.numberOfRows;
+		}
+		return this.collectRows(node.right, rows,
+				this.collectRows(node.left, rows, offset));
+	}
+
+	/*
+	 * Post-pruning. Both kinds collapse subtrees of the built tree into
+	 * leaves of their training majority class, bottom up, and re-flatten it;
+	 * a smaller tree is also a shallower one, so classify walks fewer nodes.
+	 */
+
+	/**
+	 * Cost-complexity pruning: keeps the subtree that minimizes training
+	 * error rate plus alpha per leaf. Working bottom up, a node is collapsed
+	 * when its error as a leaf is at most alpha * (leaves - 1) above that of
+	 * its (already pruned) subtree, which gives that subtree exactly.
+	 *
+	 * @param alpha
+	 *            cost per leaf, as a fraction of the training records; 0
+	 *            only collapses subtrees that do not help on the training
+	 *            records
+	 * @return the number of nodes removed
+	 */
+	public int pruneCostComplexity(double alpha) {
+		this.checkPrunable();
+		int before = this.flatTree.numberOfNodes();
+		int[] rows = this.allRows();
+		double errorCost = 1.0 / rows.length;
+		this.pruneCostComplexity(this.root, rows, 0, rows.length,
+				new int[this.classNames.length], alpha, errorCost);
+		return this.afterPruning(before);
+	}
+
+	/**
+	 * @param classCounts
+	 *            gets the training class counts of rows[from, to)
+	 * @return {training errors, leaves} of the pruned subtree
+	 */
+	private int[] pruneCostComplexity(TreeNode node, int[] rows, int from,
+			int to, int[] classCounts, double alpha, double errorCost) {
+		if (node.isLeaf()) {
+			for (int i = from; i < to; i++) {
+				classCounts[this.records.classIdOf(rows[i])]++;
+			}
+			return new int[] { to - from - count(classCounts, node.classId),
+					1 };
+		}
+		int middle = this.partition(rows, from, to, node.split(),
+				new int[classCounts.length]);
+		int[] rightCounts = new int[classCounts.length];
+		int[] left = this.pruneCostComplexity(node.left, rows, from, middle,
+				classCounts, alpha, errorCost);
+		int[] right = this.pruneCostComplexity(node.right, rows, middle, to,
+				rightCounts, alpha, errorCost);
+		for (int classId = 0; classId < classCounts.length; classId++) {
+			classCounts[classId] += rightCounts[classId];
+		}
+		int errors = left[0] + right[0];
+		int leaves = left[1] + right[1];
+		int majority = majorityClass(classCounts);
+		int leafErrors = to - from - count(classCounts, majority);
+		if (majority >= 0
+				&& (leafErrors - errors) * errorCost <= alpha * (leaves - 1)) {
+			this.collapse(node, classCounts.clone());
+			return new int[] { leafErrors, 1 };
+		}
+		return new int[] { errors, leaves };
+	}
+
+	/**
+	 * Reduced-error pruning: collapses every subtree that misclassifies at
+	 * least as many validation records as a leaf of its training majority
+	 * would, bottom up. The validation records should not be training
+	 * records.
+	 *
+	 * @param validation
+	 *            labeled records encoded with this classifier's dictionaries
+	 * @return the number of nodes removed
+	 */
+	public int pruneReducedError(EncodedRecords validation) {
+		this.checkPrunable();
+		int before = this.flatTree.numberOfNodes();
+		int[] rows = this.allRows();
+		int[] validationRows = new int[validation.numberOfRows()];
+		for (int i = 0; i < validationRows.length; i++) {
+			validationRows[i] = i;
+		}
+		this.pruneReducedError(this.root, rows, 0, rows.length,
+				new int[this.classNames.length], validation, validationRows,
+				0, validationRows.length);
+		return this.afterPruning(before);
+	}
+
+	/**
+	 * @param fileName
+	 *            labeled validation records as in a training file, without
+	 *            the header
+	 * @return the number of nodes removed
+	 * @throws IOException
+	 */
+	public int pruneReducedError(String fileName) throws IOException {
+		return this.pruneReducedError(this.loadLabeledRecords(fileName));
+	}
+
+	/**
+	 * @param fileName
+	 *            labeled records without the header
+	 * @return all of them in one block
+	 * @throws IOException
+	 */
+	private EncodedRecords loadLabeledRecords(String fileName)
+			throws IOException {
+		EncodedRecords labeled = new EncodedRecords(
+				this.attributeDictionaries, SCORING_BLOCK_SIZE);
+		int[] codes = new int[this.numberOfAttributes];
+		this.loader.scanLabeledRecords(fileName, SCORING_BLOCK_SIZE,
+				block -> {
+					for (int row = 0; row < block.numberOfRows(); row++) {
+						for (int col = 0; col < codes.length; col++) {
+							codes[col] = block.valueAt(row, col);
+						}
+						labeled.addRow(codes, block.classIdOf(row));
+					}
+				});
+		return labeled;
+	}
+
+	/**
+	 * @param classCounts
+	 *            gets the training class counts of rows[from, to)
+	 * @return validation records in [validationFrom, validationTo) the
+	 *         pruned subtree misclassifies
+	 */
+	private int pruneReducedError(TreeNode node, int[] rows, int from,
+			int to, int[] classCounts, EncodedRecords validation,
+			int[] validationRows, int validationFrom, int validationTo) {
+		if (node.isLeaf()) {
+			for (int i = from; i < to; i++) {
+				classCounts[this.records.classIdOf(rows[i])]++;
+			}
+			return misclassified(validation, validationRows, validationFrom,
+					validationTo, node.classId);
+		}
+		Split split = node.split();
+		int middle = this.partition(rows, from, to, split,
+				new int[classCounts.length]);
+		int validationMiddle = validationFrom;
+		for (int i = validationFrom; i < validationTo; i++) {
+			int row = validationRows[i];
+			if (split.goesLeft(validation.valueAt(row, split.column))) {
+				validationRows[i] = validationRows[validationMiddle];
+				validationRows[validationMiddle++] = row;
+			}
+		}
+		int[] rightCounts = new int[classCounts.length];
+		int errors = this.pruneReducedError(node.left, rows, from, middle,
+				classCounts, validation, validationRows, validationFrom,
+				validationMiddle)
+				+ this.pruneReducedError(node.right, rows, middle, to,
+						rightCounts, validation, validationRows,
+						validationMiddle, validationTo);
+		for (int classId = 0; classId < classCounts.length; classId++) {
+			classCounts[classId] += rightCounts[classId];
+		}
+		int majority = majorityClass(classCounts);
+		int leafErrors = misclassified(validation, validationRows,
+				validationFrom, validationTo, majority);
+		if (majority >= 0 && leafErrors <= errors) {
+			this.collapse(node, classCounts.clone());
+			return leafErrors;
+		}
+		return errors;
+	}
+
+	private static int misclassified(EncodedRecords records, int[] rows,
+			int from, int to, int classId) {
+		int errors = 0;
+		for (int i = from; i < to; i++) {
+			if (records.classIdOf(rows[i]) != classId) {
+				errors++;
+			}
+		}
+		return errors;
+	}
+
+	private static int count(int[] classCounts, int classId) {
+		return classId < 0 ? 0 : classCounts[classId];
+	}
+
+	private void checkPrunable() {
+		if (this.root == null || this.records == null) {
+			throw new IllegalStateException(
+					"pruning needs a tree built on loaded training data");
+		}
+	}
+
+	/**
+	 * Turns an internal node into a leaf.
+	 *
+	 * @param classCounts
+	 *            of the training records reaching the node, not copied
+	 */
+	private void collapse(TreeNode node, int[] classCounts) {
+		node.nodeType = TreeNode.LEAF;
+		node.attribute = -1;
+		node.split = null;
+		node.left = null;
+		node.right = null;
+		node.classCounts = classCounts;
+		node.setClassId(majorityClass(classCounts));
+	}
+
+	/**
+	 * Re-flattens the tree and, if it learns incrementally, gives the
+	 * collapsed nodes their statistics.
+	 *
+	 * @return the number of nodes removed
+	 */
+	private int afterPruning(int numberOfNodesBefore) {
+		if (this.root.statistics != null) {
+			int[] rows = this.allRows();
+			this.startStatistics(this.root, this.root.statistics.columns,
+					rows, 0, rows.length);
+		}
+		this.flatTree = this.flatten(this.root);
+		return numberOfNodesBefore - this.flatTree.numberOfNodes();
+	}
+
+	public int numberOfNodes() {
+		return this.flatTree.numberOfNodes();
+	}
+
+	/**
+	 * @return the number of edges on the longest root to leaf path
+	 */
+	public int treeDepth() {
+		return this.flatTree.depth();
+	}
+
+	/**
+	 * Impurity decrease importance: for each attribute column, the gains of
+	 * the splits on it weighted by the records they split, as a fraction of
+	 * the total over all columns. Adds up what building recorded, with no
+	 * pass over the records. Columns the tree does not split on get 0.
+	 *
+	 * @return per attribute column
+	 */
+	public double[] featureImportances() {
+		if (this.root == null) {
+			throw new IllegalStateException(
+					"importances need a tree built here, not a loaded model");
+		}
+		double[] importances = new double[this.numberOfAttributes];
+		this.addGains(this.root, importances);
+		double total = 0;
+		for (double importance : importances) {
+			total += importance;
+		}
+		if (total > 0) {
+			for (int col = 0; col < importances.length; col++) {
+				importances[col] /= total;
+			}
+		}
+		return importances;
+	}
+
+	private void addGains(TreeNode node, double[] importances) {
+		if (node.isLeaf()) {
+			return;
+		}
+		importances[node.attribute] += node.numberOfRecords * node.gain;
+		this.addGains(node.left, importances);
+		this.addGains(node.right, importances);
+	}
+
+	/**
+	 * Permutation importance: how much the error on labeled records grows
+	 * when a column's values are shuffled between them, averaged over
+	 * repeats. Each shuffle is a task of its own, run on the scoring pool if
+	 * there is one; its shuffle is drawn from seed, its column and its
+	 * repeat, so the result does not depend on the pool. Columns the tree
+	 * does not split on are not scored. Works for loaded models too.
+	 *
+	 * @param labeled
+	 *            e.g. held out records
+	 * @param repeats
+	 *            shuffles of each column
+	 * @param seed
+	 * @return per attribute column, the mean increase of the fraction
+	 *         misclassified; around 0, or below, for columns that do not
+	 *         matter
+	 */
+	public double[] permutationImportances(EncodedRecords labeled,
+			int repeats, long seed) {
+		if (repeats < 1) {
+			throw new IllegalArgumentException(
+					"repeats must be at least 1, got " + repeats);
+		}
+		TreeScorer tree = this.flatTree.scorer();
+		int rows = labeled.numberOfRows();
+		int[] classIds = new int[rows];
+		this.scoreBatch(tree, labeled, classIds);
+		int baseErrors = misclassified(labeled, classIds);
+		boolean[] splitOn = new boolean[this.numberOfAttributes];
+		for (int col : this.flatTree.feature) {
+			if (col >= 0) {
+				splitOn[col] = true;
+			}
+		}
+		List<PermutationTask> tasks = new ArrayList<>();
+		for (int col = 0; col < this.numberOfAttributes; col++) {
+			if (splitOn[col] == false || rows == 0) {
+				continue;
+			}
+			for (int repeat = 0; repeat < repeats; repeat++) {
+				PermutationTask task = new PermutationTask(tree, labeled, col,
+						seed + 0x9E3779B97F4A7C15L
+								* ((long) col * repeats + repeat));
+				if (this.scoringPool != null) {
+					this.scoringPool.execute(task);
+				}
+				tasks.add(task);
+			}
+		}
+		// summed in column and repeat order, whichever task ends first
+		long[] errors = new long[this.numberOfAttributes];
+		for (PermutationTask task : tasks) {
+			errors[task.column] += (this.scoringPool != null ? task.join()
+					: task.invoke()) - baseErrors;
+		}
+		double[] importances = new double[this.numberOfAttributes];
+		for (int col = 0; col < importances.length; col++) {
+			if (splitOn[col] && rows > 0) {
+				importances[col] = (double) errors[col] / repeats / rows;
+			}
+		}
+		return importances;
+	}
+
+	/**
+	 * @param fileName
+	 *            labeled records without the header
+	 * @param repeats
+	 * @param seed
+	 * @return see permutationImportances(EncodedRecords, int, long)
+	 * @throws IOException
+	 */
+	public double[] permutationImportances(String fileName, int repeats,
+			long seed) throws IOException {
+		return this.permutationImportances(this.loadLabeledRecords(fileName),
+				repeats, seed);
+	}
+
+	private static int misclassified(EncodedRecords labeled, int[] classIds) {
+		int errors = 0;
+		for (int row = 0; row < labeled.numberOfRows(); row++) {
+			if (classIds[row] != labeled.classIdOf(row)) {
+				errors++;
+			}
+		}
+		return errors;
 	}
 
 	@Override
@@ -23,6 +23,7 @@ public class Driver1 {
 			exp.printStackTrace();
 		}
 		/* C: Trace of the tree building */
+		dtc.setBuildListener(new BuildTrace(BuildTrace.Level.NODES));
 		dtc.buildTree();
 		/* A and B: prints the tree structure (albeit sideways) */
 		System.out.println(dtc);
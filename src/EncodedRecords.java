@@ -0,0 +1,283 @@
+import java.util.Arrays;
+
+/**
+ * The training records, column by column, in the smallest primitive encoding
+ * each column's dictionary allows: one bit per record for binary columns, one
+ * byte for up to 256 values, an int otherwise. Labels are class ids. There is
+ * no object per record.
+ *
+ * Missing values are a bit per record in a bitset of their column, made the
+ * first time the column gets one; valueAt returns ColumnDictionary.MISSING
+ * for them. Records without missing values cost nothing extra.
+ */
+public class EncodedRecords {
+	static final int BITS = 0;
+	static final int BYTES = 1;
+	static final int INTS = 2;
+
+	private final int numberOfAttributes;
+	private final int[] kind;
+	// only the array matching kind[col] is set for a column
+	private final long[][] bitColumns;
+	private final byte[][] byteColumns;
+	private final int[][] intColumns;
+	// null for columns without a missing value
+	private final long[][] missingColumns;
+	private boolean hasMissingValues = false;
+	private int[] classIds;
+	private int numberOfRows = 0;
+	private int capacity;
+
+	/**
+	 * @param dictionaries
+	 *            one per attribute column; decides each column's encoding
+	 * @param expectedRows
+	 *            initial capacity, grown as needed
+	 */
+	public EncodedRecords(ColumnDictionary[] dictionaries, int expectedRows) {
+		this.numberOfAttributes = dictionaries.length;
+		this.capacity = Math.max(64, expectedRows);
+		this.kind = new int[this.numberOfAttributes];
+		this.bitColumns = new long[this.numberOfAttributes][];
+		this.byteColumns = new byte[this.numberOfAttributes][];
+		this.intColumns = new int[this.numberOfAttributes][];
+		this.missingColumns = new long[this.numberOfAttributes][];
+		for (int col = 0; col < this.numberOfAttributes; col++) {
+			this.kind[col] = encodingOf(dictionaries[col]);
+			switch (this.kind[col]) {
+			case BITS:
+				this.bitColumns[col] = new long[(this.capacity + 63) >>> 6];
+				break;
+			case BYTES:
+				this.byteColumns[col] = new byte[this.capacity];
+				break;
+			default:
+				this.intColumns[col] = new int[this.capacity];
+			}
+		}
+		this.classIds = new int[this.capacity];
+	}
+
+	/**
+	 * For subclasses that keep the columns somewhere else; they override
+	 * valueAt, classIdOf and bitColumn.
+	 *
+	 * @param numberOfAttributes
+	 * @param numberOfRows
+	 */
+	protected EncodedRecords(int numberOfAttributes, int numberOfRows) {
+		this.numberOfAttributes = numberOfAttributes;
+		this.numberOfRows = numberOfRows;
+		this.capacity = numberOfRows;
+		this.kind = null;
+		this.bitColumns = null;
+		this.byteColumns = null;
+		this.intColumns = null;
+		this.missingColumns = null;
+	}
+
+	/**
+	 * @param dictionary
+	 * @return BITS, BYTES or INTS, whichever holds every code of the column
+	 */
+	static int encodingOf(ColumnDictionary dictionary) {
+		// bins of numeric columns are not known until loading is done
+		int size = dictionary.isNumeric() ? ColumnDictionary.MAX_BINS
+				: dictionary.size();
+		if (size <= 2) {
+			return BITS;
+		}
+		return size <= 256 ? BYTES : INTS;
+	}
+
+	public int numberOfRows() {
+		return this.numberOfRows;
+	}
+
+	public int numberOfAttributes() {
+		return this.numberOfAttributes;
+	}
+
+	/**
+	 * @param row
+	 * @param col
+	 * @return the code of the value of the record at row, or
+	 *         ColumnDictionary.MISSING
+	 */
+	public int valueAt(int row, int col) {
+		if (this.hasMissingValues && this.isMissing(row, col)) {
+			return ColumnDictionary.MISSING;
+		}
+		switch (this.kind[col]) {
+		case BITS:
+			return (int) (this.bitColumns[col][row >>> 6] >>> row) & 1;
+		case BYTES:
+			return this.byteColumns[col][row] & 0xFF;
+		default:
+			return this.intColumns[col][row];
+		}
+	}
+
+	private boolean isMissing(int row, int col) {
+		long[] missing = this.missingColumns[col];
+		return missing != null && (missing[row >>> 6] >>> row & 1) != 0;
+	}
+
+	/**
+	 * @return True if a record has a missing value
+	 */
+	public boolean hasMissingValues() {
+		return this.hasMissingValues;
+	}
+
+	public int classIdOf(int row) {
+		return this.classIds[row];
+	}
+
+	/**
+	 * @param col
+	 * @return the packed bits of a binary column (bit set for code 1, clear
+	 *         for 0 and missing values), or null if the column is not binary
+	 */
+	public long[] bitColumn(int col) {
+		return this.bitColumns[col];
+	}
+
+	/**
+	 * @param codes
+	 *            code of each attribute value, or ColumnDictionary.MISSING
+	 * @param classId
+	 *            class id of the label, or -1 for an unlabeled record
+	 */
+	public void addRow(int[] codes, int classId) {
+		if (this.numberOfRows == this.capacity) {
+			this.grow(Math.max(64, this.capacity * 2));
+		}
+		int row = this.numberOfRows;
+		for (int col = 0; col < this.numberOfAttributes; col++) {
+			if (codes[col] == ColumnDictionary.MISSING) {
+				this.setMissing(row, col);
+				continue;
+			}
+			switch (this.kind[col]) {
+			case BITS:
+				if (codes[col] == 1) {
+					this.bitColumns[col][row >>> 6] |= 1L << row;
+				}
+				break;
+			case BYTES:
+				this.byteColumns[col][row] = (byte) codes[col];
+				break;
+			default:
+				this.intColumns[col][row] = codes[col];
+			}
+		}
+		this.classIds[row] = classId;
+		this.numberOfRows++;
+	}
+
+	/**
+	 * Overwrites the code at row and col, e.g. once a numeric value is
+	 * binned.
+	 *
+	 * @param row
+	 * @param col
+	 * @param code
+	 */
+	public void setValue(int row, int col, int code) {
+		if (code == ColumnDictionary.MISSING) {
+			this.setMissing(row, col);
+			return;
+		}
+		if (this.missingColumns[col] != null) {
+			this.missingColumns[col][row >>> 6] &= ~(1L << row);
+		}
+		switch (this.kind[col]) {
+		case BITS:
+			if (code == 1) {
+				this.bitColumns[col][row >>> 6] |= 1L << row;
+			} else {
+				this.bitColumns[col][row >>> 6] &= ~(1L << row);
+			}
+			break;
+		case BYTES:
+			this.byteColumns[col][row] = (byte) code;
+			break;
+		default:
+			this.intColumns[col][row] = code;
+		}
+	}
+
+	/**
+	 * Marks the value at row and col missing; its code stays 0.
+	 */
+	private void setMissing(int row, int col) {
+		if (this.missingColumns[col] == null) {
+			this.missingColumns[col] = new long[(this.capacity + 63) >>> 6];
+		}
+		this.missingColumns[col][row >>> 6] |= 1L << row;
+		this.hasMissingValues = true;
+	}
+
+	/**
+	 * @param newClassId
+	 *            newClassId[oldClassId]
+	 */
+	public void renumberClassIds(int[] newClassId) {
+		for (int row = 0; row < this.numberOfRows; row++) {
+			if (this.classIds[row] >= 0) {
+				this.classIds[row] = newClassId[this.classIds[row]];
+			}
+		}
+	}
+
+	/**
+	 * Empties the records but keeps their capacity, so a block can be
+	 * refilled without allocating.
+	 */
+	public void clear() {
+		for (long[] bits : this.bitColumns) {
+			if (bits != null) {
+				Arrays.fill(bits, 0L);
+			}
+		}
+		for (long[] missing : this.missingColumns) {
+			if (missing != null) {
+				Arrays.fill(missing, 0L);
+			}
+		}
+		this.hasMissingValues = false;
+		this.numberOfRows = 0;
+	}
+
+	/**
+	 * Drops the spare capacity once loading is done.
+	 */
+	public void trim() {
+		this.grow(this.numberOfRows);
+	}
+
+	private void grow(int newCapacity) {
+		for (int col = 0; col < this.numberOfAttributes; col++) {
+			if (this.missingColumns[col] != null) {
+				this.missingColumns[col] = Arrays.copyOf(
+						this.missingColumns[col], (newCapacity + 63) >>> 6);
+			}
+			switch (this.kind[col]) {
+			case BITS:
+				this.bitColumns[col] = Arrays.copyOf(this.bitColumns[col],
+						(newCapacity + 63) >>> 6);
+				break;
+			case BYTES:
+				this.byteColumns[col] = Arrays.copyOf(this.byteColumns[col],
+						newCapacity);
+				break;
+			default:
+				this.intColumns[col] = Arrays.copyOf(this.intColumns[col],
+						newCapacity);
+			}
+		}
+		this.classIds = Arrays.copyOf(this.classIds, newCapacity);
+		this.capacity = newCapacity;
+	}
+}
@@ -0,0 +1,242 @@
+/**
+ * A trained tree compiled into parallel primitive arrays, nodes laid out
+ * breadth first so the top levels share cache lines. Node 0 is the root.
+ * Classifying is a loop over the arrays with no allocation and no String
+ * compares. A code above the node's threshold goes left, the rest right; for
+ * binary columns the threshold is 0, so 1 goes left and 0 right, like
+ * DecisionTreeClassifier.classify always has. Subset splits of categorical
+ * columns go left by leftCodes instead. A missing value (a negative code)
+ * goes the node's missingLeft way.
+ *
+ * Every leaf also keeps the class distribution of the training records that
+ * reached it, as numberOfClasses floats packed leaf after leaf in node order,
+ * for probability outputs.
+ */
+public class FlatTree implements TreeScorer {
+	// column tested at each node, -1 for leaves
+	final int[] feature;
+	final int[] left;
+	final int[] right;
+	// class id of each leaf, -1 for internal nodes
+	final int[] leafClass;
+	final int[] threshold;
+	// codes going left at subset splits, null elsewhere
+	final boolean[][] leftCodes;
+	// where missing values go at each node
+	final boolean[] missingLeft;
+	final int numberOfClasses;
+	// class fractions of each leaf, numberOfClasses per leaf
+	final float[] distributions;
+	// start of each leaf's distribution, -1 for internal nodes
+	private final int[] distributionOffset;
+	// generated by compile, else null
+	private volatile TreeScorer compiled;
+
+	/**
+	 * @param numberOfClasses
+	 * @param distributions
+	 *            the class fractions of the leaves in node order,
+	 *            numberOfClasses each; null gives each leaf all of its
+	 *            leafClass
+	 */
+	public FlatTree(int[] feature, int[] left, int[] right, int[] leafClass,
+			int[] threshold, boolean[][] leftCodes, boolean[] missingLeft,
+			int numberOfClasses, float[] distributions) {
+		this.feature = feature;
+		this.left = left;
+		this.right = right;
+		this.leafClass = leafClass;
+		this.threshold = threshold;
+		this.leftCodes = leftCodes;
+		this.missingLeft = missingLeft;
+		this.numberOfClasses = numberOfClasses;
+		this.distributionOffset = new int[feature.length];
+		int numberOfLeaves = 0;
+		for (int node = 0; node < feature.length; node++) {
+			this.distributionOffset[node] = feature[node] >= 0 ? -1
+					: numberOfClasses * numberOfLeaves++;
+		}
+		if (distributions == null) {
+			distributions = new float[numberOfClasses * numberOfLeaves];
+			for (int node = 0; node < feature.length; node++) {
+				if (feature[node] < 0 && leafClass[node] >= 0) {
+					distributions[this.distributionOffset[node]
+							+ leafClass[node]] = 1;
+				}
+			}
+		}
+		this.distributions = distributions;
+	}
+
+	/**
+	 * A tree whose leaves hold all of their leafClass.
+	 */
+	public FlatTree(int[] feature, int[] left, int[] right, int[] leafClass,
+			int[] threshold, boolean[][] leftCodes, boolean[] missingLeft) {
+		this(feature, left, right, leafClass, threshold, leftCodes,
+				missingLeft, maxClassId(leafClass) + 1, null);
+	}
+
+	/**
+	 * A tree that sends missing values right.
+	 */
+	public FlatTree(int[] feature, int[] left, int[] right, int[] leafClass,
+			int[] threshold, boolean[][] leftCodes) {
+		this(feature, left, right, leafClass, threshold, leftCodes,
+				new boolean[feature.length]);
+	}
+
+	/**
+	 * A tree of binary splits only.
+	 */
+	public FlatTree(int[] feature, int[] left, int[] right, int[] leafClass) {
+		this(feature, left, right, leafClass, new int[feature.length],
+				new boolean[feature.length][]);
+	}
+
+	@Override
+	public int classify(double[] attrList) {
+		int node = 0;
+		int col;
+		while ((col = this.feature[node]) >= 0) {
+			node = this.goesLeft(node, (int) attrList[col]) ? this.left[node]
+					: this.right[node];
+		}
+		return this.leafClass[node];
+	}
+
+	@Override
+	public int classify(EncodedRecords records, int row) {
+		return this.leafClass[this.leafOf(records, row)];
+	}
+
+	/**
+	 * @param records
+	 * @param row
+	 * @return the leaf node the record at row reaches
+	 */
+	int leafOf(EncodedRecords records, int row) {
+		int node = 0;
+		int col;
+		while ((col = this.feature[node]) >= 0) {
+			node = this.goesLeft(node, records.valueAt(row, col))
+					? this.left[node]
+					: this.right[node];
+		}
+		return node;
+	}
+
+	/**
+	 * Compiles the tree to a class of its own for scorer(), unless it has
+	 * more than maxNodes nodes or the runtime will not define the class.
+	 *
+	 * @param maxNodes
+	 * @return whether scorer() runs generated code
+	 */
+	public boolean compile(int maxNodes) {
+		if (this.compiled == null) {
+			this.compiled = TreeCompiler.compile(this, maxNodes);
+		}
+		return this.compiled != null;
+	}
+
+	/**
+	 * @return the compiled tree, or this tree interpreting its arrays if it
+	 *         was not compiled
+	 */
+	public TreeScorer scorer() {
+		TreeScorer scorer = this.compiled;
+		return scorer != null ? scorer : this;
+	}
+
+	/**
+	 * Writes the class distribution of the leaf each record in rows
+	 * [from, to) of a block reaches.
+	 *
+	 * @param records
+	 * @param from
+	 * @param to
+	 * @param probabilities
+	 *            gets the fraction of class c for row r at probabilities[
+	 *            offset + (r - from) * numberOfClasses + c]
+	 * @param offset
+	 */
+	public void probabilities(EncodedRecords records, int from, int to,
+			double[] probabilities, int offset) {
+		int width = this.numberOfClasses;
+		for (int row = from; row < to; row++) {
+			int start = this.distributionOffset[this.leafOf(records, row)];
+			int out = offset + (row - from) * width;
+			for (int c = 0; c < width; c++) {
+				probabilities[out + c] = this.distributions[start + c];
+			}
+		}
+	}
+
+	/**
+	 * Like the double version, for callers that keep a float buffer.
+	 */
+	public void probabilities(EncodedRecords records, int from, int to,
+			float[] probabilities, int offset) {
+		int width = this.numberOfClasses;
+		for (int row = from; row < to; row++) {
+			int start = this.distributionOffset[this.leafOf(records, row)];
+			System.arraycopy(this.distributions, start, probabilities,
+					offset + (row - from) * width, width);
+		}
+	}
+
+	/**
+	 * @param node
+	 *            a leaf
+	 * @param classId
+	 * @return the fraction of the leaf's training records of the class
+	 */
+	public float probability(int node, int classId) {
+		return this.distributions[this.distributionOffset[node] + classId];
+	}
+
+	public int numberOfClasses() {
+		return this.numberOfClasses;
+	}
+
+	private static int maxClassId(int[] leafClass) {
+		int max = -1;
+		for (int classId : leafClass) {
+			max = Math.max(max, classId);
+		}
+		return max;
+	}
+
+	private boolean goesLeft(int node, int code) {
+		if (code < 0) {
+			return this.missingLeft[node];
+		}
+		boolean[] codes = this.leftCodes[node];
+		if (codes == null) {
+			return code > this.threshold[node];
+		}
+		return code < codes.length && codes[code];
+	}
+
+	public int numberOfNodes() {
+		return this.feature.length;
+	}
+
+	/**
+	 * @return the number of edges on the longest root to leaf path
+	 */
+	public int depth() {
+		// children always come after their parent in breadth first order
+		int[] depthOfNode = new int[this.feature.length];
+		int depth = 0;
+		for (int node = 0; node < this.feature.length; node++) {
+			if (this.feature[node] >= 0) {
+				depthOfNode[this.left[node]] = depthOfNode[node] + 1;
+				depthOfNode[this.right[node]] = depthOfNode[node] + 1;
+			}
+			depth = Math.max(depth, depthOfNode[node]);
+		}
+		return depth;
+	}
+}
@@ -0,0 +1,88 @@
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts latencies in buckets that are 1/8 of a power of two wide, so a
+ * percentile is within about 12% of the real value whatever the range.
+ * Recording is one atomic increment; safe from any number of threads.
+ */
+public class LatencyHistogram {
+	private static final int SUB_BUCKET_BITS = 3;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	// values below this get a bucket each
+	private static final int EXACT = 2 * SUB_BUCKETS;
+	private static final int NUMBER_OF_BUCKETS = EXACT
+			+ (63 - SUB_BUCKET_BITS - 1) * SUB_BUCKETS;
+
+	private final AtomicLongArray counts = new AtomicLongArray(
+			NUMBER_OF_BUCKETS);
+
+	/**
+	 * @param nanos
+	 *            negative values count as 0
+	 */
+	public void record(long nanos) {
+		this.counts.incrementAndGet(bucketOf(Math.max(0, nanos)));
+	}
+
+	public long count() {
+		long count = 0;
+		for (int bucket = 0; bucket < NUMBER_OF_BUCKETS; bucket++) {
+			count += this.counts.get(bucket);
+		}
+		return count;
+	}
+
+	/**
+	 * @param percentile
+	 *            e.g. 50 or 99.9
+	 * @return the latency at the percentile (the middle of its bucket), or 0
+	 *         if nothing was recorded
+	 */
+	public long percentile(double percentile) {
+		long[] snapshot = new long[NUMBER_OF_BUCKETS];
+		long count = 0;
+		for (int bucket = 0; bucket < NUMBER_OF_BUCKETS; bucket++) {
+			snapshot[bucket] = this.counts.get(bucket);
+			count += snapshot[bucket];
+		}
+		if (count == 0) {
+			return 0;
+		}
+		long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+		long seen = 0;
+		for (int bucket = 0; bucket < NUMBER_OF_BUCKETS; bucket++) {
+			seen += snapshot[bucket];
+			if (seen >= rank) {
+				return middleOf(bucket);
+			}
+		}
+		return middleOf(NUMBER_OF_BUCKETS - 1);
+	}
+
+	public void reset() {
+		for (int bucket = 0; bucket < NUMBER_OF_BUCKETS; bucket++) {
+			this.counts.set(bucket, 0);
+		}
+	}
+
+	private static int bucketOf(long value) {
+		if (value < EXACT) {
+			return (int) value;
+		}
+		int exponent = 63 - Long.numberOfLeadingZeros(value);
+		int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS))
+				& (SUB_BUCKETS - 1);
+		return EXACT + (exponent - SUB_BUCKET_BITS - 1) * SUB_BUCKETS
+				+ subBucket;
+	}
+
+	private static long middleOf(int bucket) {
+		if (bucket < EXACT) {
+			return bucket;
+		}
+		int exponent = (bucket - EXACT) / SUB_BUCKETS + SUB_BUCKET_BITS + 1;
+		int subBucket = (bucket - EXACT) % SUB_BUCKETS;
+		long width = 1L << (exponent - SUB_BUCKET_BITS);
+		return (SUB_BUCKETS + subBucket) * width + width / 2;
+	}
+}
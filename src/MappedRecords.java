@@ -0,0 +1,100 @@
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+
+/**
+ * Encoded records whose columns stay in a memory mapped ColumnFile, so the
+ * operating system pages them in and out and the heap holds none of them.
+ * Missing values are bits in a mapped bitset of their column, as in
+ * EncodedRecords. Read only.
+ */
+public class MappedRecords extends EncodedRecords {
+	private final int[] kind;
+	// only the buffer matching kind[col] is set for a column
+	private final LongBuffer[] bitColumns;
+	private final ByteBuffer[] byteColumns;
+	private final IntBuffer[] intColumns;
+	private final IntBuffer classIds;
+	// null for columns without a missing value
+	private final LongBuffer[] missingColumns;
+	private final boolean hasMissingValues;
+
+	MappedRecords(int numberOfRows, int[] kind, LongBuffer[] bitColumns,
+			ByteBuffer[] byteColumns, IntBuffer[] intColumns,
+			IntBuffer classIds, LongBuffer[] missingColumns) {
+		super(kind.length, numberOfRows);
+		this.kind = kind;
+		this.bitColumns = bitColumns;
+		this.byteColumns = byteColumns;
+		this.intColumns = intColumns;
+		this.classIds = classIds;
+		this.missingColumns = missingColumns;
+		boolean hasMissingValues = false;
+		for (LongBuffer missing : missingColumns) {
+			hasMissingValues |= missing != null;
+		}
+		this.hasMissingValues = hasMissingValues;
+	}
+
+	@Override
+	public int valueAt(int row, int col) {
+		if (this.hasMissingValues && this.isMissing(row, col)) {
+			return ColumnDictionary.MISSING;
+		}
+		switch (this.kind[col]) {
+		case BITS:
+			return (int) (this.bitColumns[col].get(row >>> 6) >>> row) & 1;
+		case BYTES:
+			return this.byteColumns[col].get(row) & 0xFF;
+		default:
+			return this.intColumns[col].get(row);
+		}
+	}
+
+	private boolean isMissing(int row, int col) {
+		LongBuffer missing = this.missingColumns[col];
+		return missing != null && (missing.get(row >>> 6) >>> row & 1) != 0;
+	}
+
+	@Override
+	public boolean hasMissingValues() {
+		return this.hasMissingValues;
+	}
+
+	@Override
+	public int classIdOf(int row) {
+		return this.classIds.get(row);
+	}
+
+	/**
+	 * @return null; the bits are not on the heap
+	 */
+	@Override
+	public long[] bitColumn(int col) {
+		return null;
+	}
+
+	@Override
+	public void addRow(int[] codes, int classId) {
+		throw new UnsupportedOperationException("mapped records are read only");
+	}
+
+	@Override
+	public void setValue(int row, int col, int code) {
+		throw new UnsupportedOperationException("mapped records are read only");
+	}
+
+	@Override
+	public void renumberClassIds(int[] newClassId) {
+		throw new UnsupportedOperationException("mapped records are read only");
+	}
+
+	@Override
+	public void clear() {
+		throw new UnsupportedOperationException("mapped records are read only");
+	}
+
+	@Override
+	public void trim() {
+	}
+}
@@ -0,0 +1,280 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Binary file of a trained tree: the flattened tree, the value names of every
+ * attribute column and the class id to label table. Layout, all ints big
+ * endian and strings as a byte count then UTF-8 bytes:
+ *
+ * <pre>
+ * magic "DTCM", version
+ * numberOfRecords, numberOfClasses, numberOfAttributes
+ * per attribute column: 1 and the bin edges as doubles for a numeric
+ *     column, otherwise 0, number of values, value names in code order
+ * number of classes in the tree, label names in class id order
+ * numberOfNodes, feature[], left[], right[], leafClass[], threshold[]
+ * per node: length of its left code set (0 for none), then the set as bytes
+ * per node: 1 if missing values go left, else 0, as a byte
+ * number of classes per leaf, then per leaf in node order the class
+ *     fractions of its training records as floats
+ * CRC32 of everything before it
+ * </pre>
+ *
+ * Version 1 files, from before numeric and categorical columns, have no
+ * column kinds, thresholds or code sets and still load. Neither do version 2
+ * files have missing value directions; their trees send missing values
+ * right. Files before version 4 have no leaf distributions; each of their
+ * leaves gets all of its class.
+ *
+ * Loading maps the file and copies the node arrays out in bulk, so there is
+ * no parsing and no object per node.
+ */
+public class ModelFile {
+	public static final int MAGIC = 0x4454434D; // "DTCM"
+	public static final int VERSION = 4;
+
+	private final int numberOfRecords;
+	private final int numberOfClasses;
+	private final ColumnDictionary[] attributeDictionaries;
+	private final String[] classNames;
+	private final FlatTree tree;
+
+	public ModelFile(int numberOfRecords, int numberOfClasses,
+			ColumnDictionary[] attributeDictionaries, String[] classNames,
+			FlatTree tree) {
+		this.numberOfRecords = numberOfRecords;
+		this.numberOfClasses = numberOfClasses;
+		this.attributeDictionaries = attributeDictionaries;
+		this.classNames = classNames;
+		this.tree = tree;
+	}
+
+	public int numberOfRecords() {
+		return this.numberOfRecords;
+	}
+
+	/**
+	 * @return the number of classes declared in the training file header
+	 */
+	public int numberOfClasses() {
+		return this.numberOfClasses;
+	}
+
+	public ColumnDictionary[] attributeDictionaries() {
+		return this.attributeDictionaries;
+	}
+
+	public String[] classNames() {
+		return this.classNames;
+	}
+
+	public FlatTree tree() {
+		return this.tree;
+	}
+
+	/**
+	 * @param fileName
+	 * @throws IOException
+	 */
+	public void write(String fileName) throws IOException {
+		CRC32 crc = new CRC32();
+		OutputStream file = Files.newOutputStream(Paths.get(fileName));
+		try (DataOutputStream out = new DataOutputStream(
+				new CheckedOutputStream(new BufferedOutputStream(file), crc))) {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(this.numberOfRecords);
+			out.writeInt(this.numberOfClasses);
+			out.writeInt(this.attributeDictionaries.length);
+			for (ColumnDictionary dictionary : this.attributeDictionaries) {
+				writeDictionary(out, dictionary);
+			}
+			writeNames(out, this.classNames);
+			out.writeInt(this.tree.numberOfNodes());
+			writeInts(out, this.tree.feature);
+			writeInts(out, this.tree.left);
+			writeInts(out, this.tree.right);
+			writeInts(out, this.tree.leafClass);
+			writeInts(out, this.tree.threshold);
+			for (boolean[] codes : this.tree.leftCodes) {
+				if (codes == null) {
+					out.writeInt(0);
+					continue;
+				}
+				out.writeInt(codes.length);
+				for (boolean left : codes) {
+					out.writeByte(left ? 1 : 0);
+				}
+			}
+			for (boolean left : this.tree.missingLeft) {
+				out.writeByte(left ? 1 : 0);
+			}
+			out.writeInt(this.tree.numberOfClasses);
+			for (float fraction : this.tree.distributions) {
+				out.writeFloat(fraction);
+			}
+			out.flush();
+			// not counted in itself; written past the checked stream
+			new DataOutputStream(file).writeInt((int) crc.getValue());
+		}
+	}
+
+	/**
+	 * @param fileName
+	 * @return the model
+	 * @throws IOException
+	 *             if the file is not a model file, has a newer version or
+	 *             fails its checksum
+	 */
+	public static ModelFile read(String fileName) throws IOException {
+		MappedByteBuffer buffer;
+		try (FileChannel channel = FileChannel.open(Paths.get(fileName),
+				StandardOpenOption.READ)) {
+			buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+					channel.size());
+		}
+		int end = buffer.limit() - 4;
+		if (end < 8 || buffer.getInt(0) != MAGIC) {
+			throw new IOException(fileName + " is not a model file");
+		}
+		int version = buffer.getInt(4);
+		if (version < 1 || version > VERSION) {
+			throw new IOException(fileName + " has model version "
+					+ buffer.getInt(4) + ", expected at most " + VERSION);
+		}
+		CRC32 crc = new CRC32();
+		crc.update(buffer.duplicate().limit(end));
+		if ((int) crc.getValue() != buffer.getInt(end)) {
+			throw new IOException(fileName + " fails its checksum");
+		}
+		buffer.position(8);
+		int numberOfRecords = buffer.getInt();
+		int numberOfClasses = buffer.getInt();
+		ColumnDictionary[] attributeDictionaries = new ColumnDictionary[buffer
+				.getInt()];
+		for (int col = 0; col < attributeDictionaries.length; col++) {
+			attributeDictionaries[col] = version > 1 ? readDictionary(buffer)
+					: new ColumnDictionary(readNames(buffer));
+		}
+		String[] classNames = readNames(buffer);
+		int numberOfNodes = buffer.getInt();
+		int[] feature = readInts(buffer, numberOfNodes);
+		int[] left = readInts(buffer, numberOfNodes);
+		int[] right = readInts(buffer, numberOfNodes);
+		int[] leafClass = readInts(buffer, numberOfNodes);
+		int[] threshold = new int[numberOfNodes];
+		boolean[][] leftCodes = new boolean[numberOfNodes][];
+		boolean[] missingLeft = new boolean[numberOfNodes];
+		if (version > 1) {
+			threshold = readInts(buffer, numberOfNodes);
+			for (int node = 0; node < numberOfNodes; node++) {
+				int length = buffer.getInt();
+				if (length > 0) {
+					leftCodes[node] = new boolean[length];
+					for (int i = 0; i < length; i++) {
+						leftCodes[node][i] = buffer.get() != 0;
+					}
+				}
+			}
+		}
+		if (version > 2) {
+			for (int node = 0; node < numberOfNodes; node++) {
+				missingLeft[node] = buffer.get() != 0;
+			}
+		}
+		int classesPerLeaf = classNames.length;
+		float[] distributions = null;
+		if (version > 3) {
+			classesPerLeaf = buffer.getInt();
+			int numberOfLeaves = 0;
+			for (int col : feature) {
+				if (col < 0) {
+					numberOfLeaves++;
+				}
+			}
+			distributions = new float[numberOfLeaves * classesPerLeaf];
+			buffer.asFloatBuffer().get(distributions);
+			buffer.position(buffer.position() + distributions.length * 4);
+		}
+		FlatTree tree = new FlatTree(feature, left, right, leafClass,
+				threshold, leftCodes, missingLeft, classesPerLeaf,
+				distributions);
+		return new ModelFile(numberOfRecords, numberOfClasses,
+				attributeDictionaries, classNames, tree);
+	}
+
+	/**
+	 * Writes 1 and the bin edges of a numeric column, otherwise 0 and the
+	 * value names.
+	 */
+	static void writeDictionary(DataOutputStream out,
+			ColumnDictionary dictionary) throws IOException {
+		if (dictionary.isNumeric()) {
+			out.writeInt(1);
+			double[] edges = dictionary.edges();
+			out.writeInt(edges.length);
+			for (double edge : edges) {
+				out.writeDouble(edge);
+			}
+		} else {
+			out.writeInt(0);
+			writeNames(out, dictionary.names());
+		}
+	}
+
+	static ColumnDictionary readDictionary(ByteBuffer buffer) {
+		if (buffer.getInt() == 1) {
+			double[] edges = new double[buffer.getInt()];
+			for (int i = 0; i < edges.length; i++) {
+				edges[i] = buffer.getDouble();
+			}
+			return ColumnDictionary.numeric(edges);
+		}
+		return new ColumnDictionary(readNames(buffer));
+	}
+
+	static void writeNames(DataOutputStream out, String[] names)
+			throws IOException {
+		out.writeInt(names.length);
+		for (String name : names) {
+			byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+			out.writeInt(bytes.length);
+			out.write(bytes);
+		}
+	}
+
+	private static void writeInts(DataOutputStream out, int[] values)
+			throws IOException {
+		for (int value : values) {
+			out.writeInt(value);
+		}
+	}
+
+	static String[] readNames(ByteBuffer buffer) {
+		String[] names = new String[buffer.getInt()];
+		for (int i = 0; i < names.length; i++) {
+			byte[] bytes = new byte[buffer.getInt()];
+			buffer.get(bytes);
+			names[i] = new String(bytes, StandardCharsets.UTF_8);
+		}
+		return names;
+	}
+
+	private static int[] readInts(ByteBuffer buffer, int count) {
+		int[] values = new int[count];
+		buffer.asIntBuffer().get(values);
+		buffer.position(buffer.position() + count * 4);
+		return values;
+	}
+}
@@ -0,0 +1,75 @@
+/**
+ * A view of encoded records in which one column's values trade rows: row r
+ * reads that column from row permutation[r] and every other column from row
+ * r. Scores records with a shuffled column without copying them. Read only.
+ */
+public class PermutedRecords extends EncodedRecords {
+	private final EncodedRecords records;
+	private final int column;
+	private final int[] permutation;
+
+	/**
+	 * @param records
+	 * @param column
+	 * @param permutation
+	 *            a row of records for each row, not copied
+	 */
+	PermutedRecords(EncodedRecords records, int column, int[] permutation) {
+		super(records.numberOfAttributes(), records.numberOfRows());
+		this.records = records;
+		this.column = column;
+		this.permutation = permutation;
+	}
+
+	@Override
+	public int valueAt(int row, int col) {
+		return this.records.valueAt(col == this.column ? this.permutation[row]
+				: row, col);
+	}
+
+	@Override
+	public int classIdOf(int row) {
+		return this.records.classIdOf(row);
+	}
+
+	@Override
+	public boolean hasMissingValues() {
+		return this.records.hasMissingValues();
+	}
+
+	/**
+	 * @return null; the view keeps no bits
+	 */
+	@Override
+	public long[] bitColumn(int col) {
+		return null;
+	}
+
+	@Override
+	public void addRow(int[] codes, int classId) {
+		throw new UnsupportedOperationException(
+				"permuted records are read only");
+	}
+
+	@Override
+	public void setValue(int row, int col, int code) {
+		throw new UnsupportedOperationException(
+				"permuted records are read only");
+	}
+
+	@Override
+	public void renumberClassIds(int[] newClassId) {
+		throw new UnsupportedOperationException(
+				"permuted records are read only");
+	}
+
+	@Override
+	public void clear() {
+		throw new UnsupportedOperationException(
+				"permuted records are read only");
+	}
+
+	@Override
+	public void trim() {
+	}
+}
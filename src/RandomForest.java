@@ -0,0 +1,288 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Bagged ensemble of trees over a DecisionTreeClassifier that already has its
+ * training data loaded. Every tree is built on a bootstrap sample of the
+ * records, kept as an array of row indices into the classifier's one copy of
+ * the records, and every node of it picks its split from a random subset of
+ * the remaining columns. Trees are built concurrently and classify by
+ * majority vote, a block of records at a time. Memory is the records once,
+ * the trees, and a sample and its histograms per tree being built.
+ */
+public class RandomForest {
+	/**
+	 * Votes for rows [from, to) of a block, halving the range until it is at
+	 * most SCORING_CHUNK rows.
+	 */
+	private class VoteTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private EncodedRecords block;
+		private int from;
+		private int to;
+		private int[] classIds;
+
+		public VoteTask(EncodedRecords block, int from, int to,
+				int[] classIds) {
+			this.block = block;
+			this.from = from;
+			this.to = to;
+			this.classIds = classIds;
+		}
+
+		@Override
+		protected void compute() {
+			if (this.to - this.from <= DecisionTreeClassifier.SCORING_CHUNK) {
+				RandomForest.this.vote(this.block, this.from, this.to,
+						this.classIds);
+				return;
+			}
+			int middle = (this.from + this.to) >>> 1;
+			invokeAll(
+					new VoteTask(this.block, this.from, middle,
+							this.classIds),
+					new VoteTask(this.block, middle, this.to, this.classIds));
+		}
+	}
+
+	private final DecisionTreeClassifier classifier;
+	private final int numberOfTrees;
+	// 0 for the square root of the number of attributes
+	private int featuresPerNode = 0;
+	private long seed = 0L;
+	private ForkJoinPool pool;
+	private FlatTree[] trees;
+
+	/**
+	 * @param classifier
+	 *            with its training data loaded
+	 * @param numberOfTrees
+	 */
+	public RandomForest(DecisionTreeClassifier classifier, int numberOfTrees) {
+		this.classifier = classifier;
+		this.numberOfTrees = numberOfTrees;
+	}
+
+	/**
+	 * @param featuresPerNode
+	 *            number of columns every node picks its split from; 0, the
+	 *            default, is the square root of the number of attributes
+	 * @return this
+	 */
+	public RandomForest setFeaturesPerNode(int featuresPerNode) {
+		this.featuresPerNode = featuresPerNode;
+		return this;
+	}
+
+	/**
+	 * @param seed
+	 *            seed of the samples and column choices, so runs can be
+	 *            repeated whatever the parallelism
+	 * @return this
+	 */
+	public RandomForest setSeed(long seed) {
+		this.seed = seed;
+		return this;
+	}
+
+	/**
+	 * @param parallelism
+	 *            number of threads building trees and voting on big blocks; 1
+	 *            or less does both on the caller
+	 * @return this
+	 */
+	public RandomForest setParallelism(int parallelism) {
+		if (this.pool != null) {
+			this.pool.shutdown();
+			this.pool = null;
+		}
+		if (parallelism > 1) {
+			this.pool = new ForkJoinPool(parallelism);
+		}
+		return this;
+	}
+
+	public int numberOfTrees() {
+		return this.numberOfTrees;
+	}
+
+	/**
+	 * Builds the trees.
+	 *
+	 * @return this
+	 */
+	public RandomForest train() {
+		int numberOfAttributes = this.classifier.trainingRecords()
+				.numberOfAttributes();
+		int features = this.featuresPerNode > 0 ? this.featuresPerNode
+				: Math.max(1, (int) Math.round(Math.sqrt(numberOfAttributes)));
+		FlatTree[] newTrees = new FlatTree[this.numberOfTrees];
+		this.classifier.prepareEnsemble(features);
+		try {
+			if (this.pool == null) {
+				for (int tree = 0; tree < this.numberOfTrees; tree++) {
+					newTrees[tree] = this.buildTree(tree);
+				}
+			} else {
+				this.buildInParallel(newTrees);
+			}
+		} finally {
+			this.classifier.finishEnsemble();
+		}
+		this.trees = newTrees;
+		return this;
+	}
+
+	private void buildInParallel(FlatTree[] newTrees) {
+		List<Callable<FlatTree>> tasks = new ArrayList<>();
+		for (int tree = 0; tree < this.numberOfTrees; tree++) {
+			final int treeIndex = tree;
+			tasks.add(new Callable<FlatTree>() {
+				@Override
+				public FlatTree call() {
+					return RandomForest.this.buildTree(treeIndex);
+				}
+			});
+		}
+		try {
+			List<Future<FlatTree>> results = this.pool.invokeAll(tasks);
+			for (int tree = 0; tree < results.size(); tree++) {
+				newTrees[tree] = results.get(tree).get();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("training interrupted", e);
+		} catch (ExecutionException e) {
+			throw new IllegalStateException("building a tree failed",
+					e.getCause());
+		}
+	}
+
+	/**
+	 * Draws the tree's bootstrap sample and builds the tree on it. Both
+	 * depend only on the seed and the tree's index.
+	 */
+	private FlatTree buildTree(int tree) {
+		Random random = new Random(this.seed + 0x9E3779B97F4A7C15L * tree);
+		int numberOfRecords = this.classifier.numberOfTrainingRecords();
+		int[] rows = new int[numberOfRecords];
+		for (int i = 0; i < numberOfRecords; i++) {
+			rows[i] = random.nextInt(numberOfRecords);
+		}
+		return this.classifier.ensembleTree(rows, random.nextLong());
+	}
+
+	/**
+	 * Classifies every row of a block of encoded records by majority vote;
+	 * ties go to the lowest class id.
+	 *
+	 * @param block
+	 * @param classIds
+	 *            gets the class id of each row; at least block.numberOfRows()
+	 *            long
+	 */
+	public void classifyBatch(EncodedRecords block, int[] classIds) {
+		int rows = block.numberOfRows();
+		if (this.pool == null || rows <= DecisionTreeClassifier.SCORING_CHUNK) {
+			this.vote(block, 0, rows, classIds);
+		} else {
+			this.pool.invoke(new VoteTask(block, 0, rows, classIds));
+		}
+	}
+
+	/**
+	 * @param block
+	 * @param row
+	 * @return the label the trees vote for
+	 */
+	public String classify(EncodedRecords block, int row) {
+		int[] classId = new int[1];
+		this.vote(block, row, row + 1, classId);
+		return this.classifier.labelOf(classId[0]);
+	}
+
+	/**
+	 * Tree by tree over rows [from, to), so each tree's arrays stay in cache
+	 * while it classifies the range.
+	 */
+	private void vote(EncodedRecords block, int from, int to,
+			int[] classIds) {
+		int numberOfClasses = this.classifier.numberOfClassIds();
+		int[] votes = new int[(to - from) * numberOfClasses];
+		int[] treeClassIds = new int[to - from];
+		for (FlatTree tree : this.trees) {
+			tree.classify(block, from, to, treeClassIds, 0);
+			for (int i = 0; i < treeClassIds.length; i++) {
+				if (treeClassIds[i] >= 0) {
+					votes[i * numberOfClasses + treeClassIds[i]]++;
+				}
+			}
+		}
+		for (int i = 0; i < treeClassIds.length; i++) {
+			int best = -1;
+			int bestVotes = 0;
+			for (int classId = 0; classId < numberOfClasses; classId++) {
+				if (votes[i * numberOfClasses + classId] > bestVotes) {
+					bestVotes = votes[i * numberOfClasses + classId];
+					best = classId;
+				}
+			}
+			classIds[from + i] = best;
+		}
+	}
+
+	/**
+	 * Classifies a test file and writes one label per line, a block of
+	 * records at a time.
+	 *
+	 * @param testFileName
+	 * @param outputFileName
+	 * @throws IOException
+	 */
+	public void classifyTestFileAndWriteToFile(String testFileName,
+			String outputFileName) throws IOException {
+		final int[] classIds = new int[DecisionTreeClassifier.SCORING_BLOCK_SIZE];
+		try (BufferedWriter writer = Files.newBufferedWriter(
+				Paths.get(outputFileName), Charset.defaultCharset())) {
+			final boolean[] first = { true };
+			this.classifier.scanTestFile(testFileName, block -> {
+				this.classifyBatch(block, classIds);
+				for (int row = 0; row < block.numberOfRows(); row++) {
+					if (first[0] == false) {
+						writer.write('\n');
+					}
+					writer.write(String.valueOf(
+							this.classifier.labelOf(classIds[row])));
+					first[0] = false;
+				}
+			});
+		}
+	}
+
+	/**
+	 * @return fraction of the training records the forest misclassifies
+	 */
+	public double computeTrainingError() {
+		EncodedRecords records = this.classifier.trainingRecords();
+		int[] classIds = new int[records.numberOfRows()];
+		this.classifyBatch(records, classIds);
+		int numberOfMisclassifiedRecords = 0;
+		for (int row = 0; row < classIds.length; row++) {
+			if (classIds[row] != records.classIdOf(row)) {
+				numberOfMisclassifiedRecords++;
+			}
+		}
+		return (double) numberOfMisclassifiedRecords / classIds.length;
+	}
+}
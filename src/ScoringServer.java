@@ -0,0 +1,548 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Serves a trained DecisionTreeClassifier over HTTP on the loopback
+ * interface.
+ *
+ * <pre>
+ * POST /classify   one record per line, attribute values as in a test file;
+ *                  the reply has one label per line
+ * GET  /stats      requests, batches, failed batches, p50/p99 latency and
+ *                  throughput
+ * </pre>
+ *
+ * Handlers do not score. They queue their records for a single batcher
+ * thread, which takes whatever has queued up (up to maxBatch records, or
+ * what arrives within maxDelay of the first) and scores it with one
+ * classifyBatch call. Under load, many requests then share one pass
+ * through the tree. Handlers run on virtual threads where the runtime has
+ * them, otherwise on a cached thread pool, so a handler waiting for its
+ * batch holds no scarce thread.
+ *
+ * swapModel replaces the model without stopping: the batcher reads the
+ * model once per batch, so a batch is scored and encoded by one model,
+ * the old one until the swap and the new one after.
+ */
+public class ScoringServer implements AutoCloseable {
+	/**
+	 * Told when a whole batch could not be scored, e.g. to log it. Called on
+	 * the batcher thread after the requests of the batch were failed.
+	 */
+	public interface ErrorHandler {
+		void batchFailed(Throwable t);
+	}
+
+	public static final int DEFAULT_MAX_BATCH = 4096;
+	public static final long DEFAULT_MAX_DELAY_MICROS = 100;
+
+	/**
+	 * The records of one request, waiting for the batcher.
+	 */
+	private static final class Request {
+		private final String[] lines;
+		private final CompletableFuture<String[]> labels;
+
+		Request(String[] lines) {
+			this.lines = lines;
+			this.labels = new CompletableFuture<>();
+		}
+	}
+
+	// queued by close, after every request that got in
+	private static final Request END = new Request(new String[0]);
+
+	private final AtomicReference<DecisionTreeClassifier> model;
+	private final HttpServer server;
+	private final ExecutorService handlers;
+	private final LinkedBlockingQueue<Request> queue;
+	private final Thread batcher;
+	private final Charset charset = Charset.defaultCharset();
+	private int maxBatch = DEFAULT_MAX_BATCH;
+	private long maxDelayNanos = DEFAULT_MAX_DELAY_MICROS * 1000;
+	private volatile ErrorHandler errorHandler;
+	private boolean closed = false;
+
+	// statistics
+	private final LatencyHistogram requestLatency = new LatencyHistogram();
+	private final LongAdder answeredRequests = new LongAdder();
+	private final LongAdder failedRequests = new LongAdder();
+	// records of answered requests
+	private final LongAdder records = new LongAdder();
+	private final LongAdder batches = new LongAdder();
+	private final LongAdder failedBatches = new LongAdder();
+	private volatile long statisticsStartNanos = System.nanoTime();
+
+	/**
+	 * @param model
+	 *            trained or loaded with loadModel
+	 * @param port
+	 *            0 for any free port; see port()
+	 * @throws IOException
+	 *             if the port cannot be bound
+	 */
+	public ScoringServer(DecisionTreeClassifier model, int port)
+			throws IOException {
+		checkModel(model);
+		this.model = new AtomicReference<>(model);
+		this.queue = new LinkedBlockingQueue<>();
+		this.server = HttpServer.create(
+				new InetSocketAddress(InetAddress.getLoopbackAddress(), port),
+				0);
+		this.handlers = newHandlerExecutor();
+		this.server.setExecutor(this.handlers);
+		this.server.createContext("/classify", this::classify);
+		this.server.createContext("/stats", this::stats);
+		this.batcher = new Thread(this::runBatcher, "scoring-batcher");
+		this.batcher.setDaemon(true);
+	}
+
+	/**
+	 * @param maxBatch
+	 *            most records scored in one classifyBatch call; a request with
+	 *            more is still scored whole
+	 * @return this
+	 */
+	public ScoringServer setMaxBatch(int maxBatch) {
+		this.maxBatch = Math.max(1, maxBatch);
+		return this;
+	}
+
+	/**
+	 * @param maxDelayMicros
+	 *            how long the batcher waits for more requests after the
+	 *            first of a batch; 0 scores what is queued right away
+	 * @return this
+	 */
+	public ScoringServer setMaxDelayMicros(long maxDelayMicros) {
+		this.maxDelayNanos = Math.max(0, maxDelayMicros) * 1000;
+		return this;
+	}
+
+	/**
+	 * @param errorHandler
+	 *            told about every batch that fails as a whole; null, the
+	 *            default, only counts them
+	 * @return this
+	 */
+	public ScoringServer setErrorHandler(ErrorHandler errorHandler) {
+		this.errorHandler = errorHandler;
+		return this;
+	}
+
+	/**
+	 * @return this
+	 */
+	public ScoringServer start() {
+		this.batcher.start();
+		this.server.start();
+		return this;
+	}
+
+	public int port() {
+		return this.server.getAddress().getPort();
+	}
+
+	/**
+	 * Scores every batch from now on with newModel. Requests already queued
+	 * are scored by whichever model their batch gets.
+	 *
+	 * @param newModel
+	 *            trained or loaded with loadModel
+	 * @return the model that was served until now
+	 */
+	public DecisionTreeClassifier swapModel(DecisionTreeClassifier newModel) {
+		checkModel(newModel);
+		return this.model.getAndSet(newModel);
+	}
+
+	/**
+	 * @param modelFileName
+	 *            written by saveModel
+	 * @return the model that was served until now
+	 * @throws IOException
+	 */
+	public DecisionTreeClassifier swapModel(String modelFileName)
+			throws IOException {
+		return this.swapModel(DecisionTreeClassifier.loadModel(modelFileName));
+	}
+
+	public DecisionTreeClassifier model() {
+		return this.model.get();
+	}
+
+	private static void checkModel(DecisionTreeClassifier model) {
+		if (model == null || model.hasTree() == false) {
+			throw new IllegalArgumentException("the model has no tree");
+		}
+	}
+
+	/**
+	 * Virtual threads through reflection, so the server still compiles for
+	 * and runs on runtimes without them.
+	 */
+	private static ExecutorService newHandlerExecutor() {
+		try {
+			return (ExecutorService) Executors.class
+					.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		} catch (ReflectiveOperationException e) {
+			return Executors.newCachedThreadPool(runnable -> {
+				Thread thread = new Thread(runnable, "scoring-handler");
+				thread.setDaemon(true);
+				return thread;
+			});
+		}
+	}
+
+	/**
+	 * Stops taking requests; the ones already queued are answered first.
+	 */
+	@Override
+	public void close() {
+		synchronized (this) {
+			if (this.closed) {
+				return;
+			}
+			this.closed = true;
+			this.queue.add(END);
+		}
+		try {
+			this.batcher.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		// a second for the handlers to write their replies
+		this.server.stop(1);
+		this.handlers.shutdown();
+	}
+
+	/**
+	 * @return False once the server is closed
+	 */
+	private synchronized boolean enqueue(Request request) {
+		if (this.closed) {
+			return false;
+		}
+		this.queue.add(request);
+		return true;
+	}
+
+	private void classify(HttpExchange exchange) throws IOException {
+		long arrival = System.nanoTime();
+		try {
+			if (exchange.getRequestMethod().equals("POST") == false) {
+				this.respond(exchange, 405, "POST records to /classify");
+				return;
+			}
+			String body = new String(exchange.getRequestBody().readAllBytes(),
+					this.charset);
+			Request request = new Request(lines(body));
+			if (this.enqueue(request) == false) {
+				this.respond(exchange, 503, "the server is closed");
+				return;
+			}
+			String[] labels;
+			try {
+				labels = request.labels.join();
+			} catch (CompletionException e) {
+				this.failedRequests.increment();
+				this.respond(exchange,
+						e.getCause() instanceof ScoringException ? 500 : 400,
+						e.getCause().getMessage());
+				return;
+			}
+			this.respond(exchange, 200, String.join("\n", labels));
+			this.requestLatency.record(System.nanoTime() - arrival);
+			this.answeredRequests.increment();
+		} finally {
+			exchange.close();
+		}
+	}
+
+	private void stats(HttpExchange exchange) throws IOException {
+		try {
+			this.respond(exchange, 200, this.statistics());
+		} finally {
+			exchange.close();
+		}
+	}
+
+	private void respond(HttpExchange exchange, int status, String text)
+			throws IOException {
+		byte[] bytes = text.getBytes(this.charset);
+		exchange.getResponseHeaders().set("Content-Type",
+				"text/plain; charset=" + this.charset.name());
+		exchange.sendResponseHeaders(status, bytes.length);
+		try (OutputStream body = exchange.getResponseBody()) {
+			body.write(bytes);
+		}
+	}
+
+	/**
+	 * @return the non-blank lines of body
+	 */
+	private static String[] lines(String body) {
+		ArrayList<String> lines = new ArrayList<>();
+		for (String line : body.split("\n")) {
+			if (line.isBlank() == false) {
+				lines.add(line);
+			}
+		}
+		return lines.toArray(new String[0]);
+	}
+
+	private void runBatcher() {
+		List<Request> batch = new ArrayList<>();
+		EncodedRecords block = null;
+		// the dictionaries block was made for; a swapped in model may encode
+		// its columns differently
+		ColumnDictionary[] blockDictionaries = null;
+		int[] classIds = new int[0];
+		boolean ending = false;
+		while (ending == false) {
+			Request request = this.take();
+			if (request == END) {
+				break;
+			}
+			batch.add(request);
+			int numberOfRecords = request.lines.length;
+			long deadline = System.nanoTime() + this.maxDelayNanos;
+			while (numberOfRecords < this.maxBatch) {
+				request = this.queue.poll();
+				if (request == null) {
+					long wait = deadline - System.nanoTime();
+					request = wait > 0 ? this.poll(wait) : null;
+				}
+				if (request == null) {
+					break;
+				}
+				if (request == END) {
+					ending = true;
+					break;
+				}
+				batch.add(request);
+				numberOfRecords += request.lines.length;
+			}
+			try {
+				DecisionTreeClassifier batchModel = this.model.get();
+				ColumnDictionary[] dictionaries = batchModel
+						.attributeDictionaries();
+				if (dictionaries != blockDictionaries) {
+					block = new EncodedRecords(dictionaries, numberOfRecords);
+					blockDictionaries = dictionaries;
+				} else {
+					block.clear();
+				}
+				if (classIds.length < numberOfRecords) {
+					classIds = new int[numberOfRecords];
+				}
+				this.score(batchModel, batch, block, classIds);
+			} catch (Throwable t) {
+				// the batcher must outlive a bad batch, or every request
+				// after it waits forever
+				fail(batch, t);
+				block = null;
+				blockDictionaries = null;
+				this.failedBatches.increment();
+				this.batchFailed(t);
+			}
+			batch.clear();
+		}
+	}
+
+	private void batchFailed(Throwable t) {
+		ErrorHandler handler = this.errorHandler;
+		if (handler == null) {
+			return;
+		}
+		try {
+			handler.batchFailed(t);
+		} catch (Throwable e) {
+			// nor must a bad handler stop it
+		}
+	}
+
+	/**
+	 * Fails the requests of batch that are not answered yet with the
+	 * scoring error.
+	 */
+	private static void fail(List<Request> batch, Throwable t) {
+		ScoringException error = new ScoringException(
+				"scoring failed: " + t, t);
+		for (Request request : batch) {
+			request.labels.completeExceptionally(error);
+		}
+	}
+
+	/**
+	 * What a request gets when its batch could not be scored, as against a
+	 * bad record of its own.
+	 */
+	private static final class ScoringException extends RuntimeException {
+		private static final long serialVersionUID = 1L;
+
+		private ScoringException(String message, Throwable cause) {
+			super(message, cause);
+		}
+	}
+
+	private Request take() {
+		while (true) {
+			try {
+				return this.queue.take();
+			} catch (InterruptedException e) {
+				// only close ends the batcher
+			}
+		}
+	}
+
+	private Request poll(long nanos) {
+		try {
+			return this.queue.poll(nanos, TimeUnit.NANOSECONDS);
+		} catch (InterruptedException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Encodes the batch with the model's dictionaries, classifies it in one
+	 * classifyBatch call and answers every request of it. A request with a
+	 * bad record fails alone; the rows it got into the block are ignored.
+	 */
+	private void score(DecisionTreeClassifier batchModel, List<Request> batch,
+			EncodedRecords block, int[] classIds) {
+		ColumnDictionary[] dictionaries = batchModel.attributeDictionaries();
+		int[] firstRows = new int[batch.size()];
+		String[] errors = new String[batch.size()];
+		int[] codes = new int[dictionaries.length];
+		for (int i = 0; i < batch.size(); i++) {
+			firstRows[i] = block.numberOfRows();
+			errors[i] = encode(batch.get(i).lines, dictionaries, codes, block);
+		}
+		batchModel.classifyBatch(block, classIds);
+		int answeredRecords = 0;
+		for (int i = 0; i < batch.size(); i++) {
+			Request request = batch.get(i);
+			if (errors[i] != null) {
+				request.labels.completeExceptionally(
+						new IllegalArgumentException(errors[i]));
+				continue;
+			}
+			String[] labels = new String[request.lines.length];
+			for (int line = 0; line < labels.length; line++) {
+				labels[line] = batchModel
+						.labelOf(classIds[firstRows[i] + line]);
+			}
+			request.labels.complete(labels);
+			answeredRecords += labels.length;
+		}
+		this.batches.increment();
+		this.records.add(answeredRecords);
+	}
+
+	/**
+	 * Adds the records of lines to block.
+	 *
+	 * @return null, or what is wrong with the first bad record
+	 */
+	private static String encode(String[] lines,
+			ColumnDictionary[] dictionaries, int[] codes,
+			EncodedRecords block) {
+		for (int line = 0; line < lines.length; line++) {
+			String[] values = lines[line].trim().split("\\s+");
+			if (values.length != dictionaries.length) {
+				return "line " + (line + 1) + " has " + values.length
+						+ " values, expected " + dictionaries.length;
+			}
+			for (int col = 0; col < values.length; col++) {
+				// MISSING for "?" and unknown values, which take the
+				// default branch
+				codes[col] = dictionaries[col].code(values[col]);
+			}
+			block.addRow(codes, -1);
+		}
+		return null;
+	}
+
+	/**
+	 * @return latency of answered requests, from arrival to reply
+	 */
+	public LatencyHistogram requestLatency() {
+		return this.requestLatency;
+	}
+
+	/**
+	 * @return records of answered requests per second since the server
+	 *         started or the statistics were reset
+	 */
+	public double recordsPerSecond() {
+		long nanos = System.nanoTime() - this.statisticsStartNanos;
+		return nanos <= 0 ? 0 : this.records.sum() * 1e9 / nanos;
+	}
+
+	public void resetStatistics() {
+		this.requestLatency.reset();
+		this.answeredRequests.reset();
+		this.failedRequests.reset();
+		this.records.reset();
+		this.batches.reset();
+		this.failedBatches.reset();
+		this.statisticsStartNanos = System.nanoTime();
+	}
+
+	/**
+	 * @return what GET /stats answers
+	 */
+	public String statistics() {
+		long numberOfBatches = this.batches.sum();
+		long numberOfRecords = this.records.sum();
+		StringBuffer sBuffer = new StringBuffer("");
+		long answered = this.answeredRequests.sum();
+		long failed = this.failedRequests.sum();
+		sBuffer.append("requests: " + (answered + failed) + " total, "
+				+ answered + " answered, " + failed + " failed\n");
+		sBuffer.append("records: " + numberOfRecords + " answered in "
+				+ numberOfBatches + " batches, "
+				+ String.format("%.1f", numberOfBatches == 0 ? 0.0
+						: (double) numberOfRecords / numberOfBatches)
+				+ " per batch\n");
+		sBuffer.append("failed batches: " + this.failedBatches.sum() + "\n");
+		sBuffer.append("latency: p50 "
+				+ this.requestLatency.percentile(50) / 1000 + " us, p99 "
+				+ this.requestLatency.percentile(99) / 1000 + " us\n");
+		sBuffer.append("throughput: " + (long) this.recordsPerSecond()
+				+ " records/s");
+		return sBuffer.toString();
+	}
+
+	/**
+	 * java ScoringServer modelFile [port]
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length < 1) {
+			System.err.println("usage: ScoringServer modelFile [port]");
+			System.exit(1);
+		}
+		ScoringServer server = new ScoringServer(
+				DecisionTreeClassifier.loadModel(args[0]),
+				args.length > 1 ? Integer.parseInt(args[1]) : 0).start();
+		System.out.println("scoring on http://localhost:" + server.port()
+				+ "/classify");
+	}
+}
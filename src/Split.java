@@ -0,0 +1,50 @@
+/**
+ * How a node divides its records between its children. A record goes left
+ * when the code of its value at column is above threshold or, for a subset
+ * split of a categorical column, when leftCodes[code] is set. Binary columns
+ * split at threshold 0, so value 1 goes left and 0 goes right. A record whose
+ * value is missing goes to the side that got more of the node's records with
+ * a value, which is left when missingGoesLeft is set.
+ */
+public class Split {
+	final int column;
+	final int threshold;
+	// null for threshold splits
+	final boolean[] leftCodes;
+	// average weighted impurity of the children
+	final double impurity;
+	final boolean missingGoesLeft;
+
+	public Split(int column, int threshold, boolean[] leftCodes,
+			double impurity, boolean missingGoesLeft) {
+		this.column = column;
+		this.threshold = threshold;
+		this.leftCodes = leftCodes;
+		this.impurity = impurity;
+		this.missingGoesLeft = missingGoesLeft;
+	}
+
+	/**
+	 * A split that sends missing values right.
+	 */
+	public Split(int column, int threshold, boolean[] leftCodes,
+			double impurity) {
+		this(column, threshold, leftCodes, impurity, false);
+	}
+
+	/**
+	 * @param code
+	 *            the record's value code at column, or
+	 *            ColumnDictionary.MISSING
+	 * @return True if the record goes to the left child
+	 */
+	public boolean goesLeft(int code) {
+		if (code < 0) {
+			return this.missingGoesLeft;
+		}
+		if (this.leftCodes != null) {
+			return code < this.leftCodes.length && this.leftCodes[code];
+		}
+		return code > this.threshold;
+	}
+}
@@ -0,0 +1,571 @@
+import java.util.Arrays;
+import java.util.Set;
+
+/**
+ * Scores candidate splits of a node from one contingency table
+ * counts[column][value][classId] that is filled in a single pass over the
+ * node's records. Scoring a column then only reads the table, so there is
+ * no allocation per candidate column.
+ *
+ * A binary column has the one split 1 left, 0 right. The codes of an ordered
+ * (numeric) column are bins, so every threshold between them is tried with
+ * running sums over the bins, never by sorting the node's records. The codes
+ * of a categorical column are put in order of how much of the node's
+ * majority class they hold and cut the same way, which gives the best subset
+ * for two classes.
+ */
+public class SplitEvaluator {
+	public static final int NUMBER_OF_VALUES = 2;
+	public static final int RIGHT_VALUE = 0;
+	public static final int LEFT_VALUE = 1;
+
+	private final ImpurityMeasure measure;
+	private final int numberOfClasses;
+	// counts[column][value][classId], reused from node to node
+	private final int[][][] counts;
+	private final boolean[] ordered;
+	private int nodeSize;
+	// class counts of the node, missing values or not
+	private final int[] nodeClassCounts;
+	// splits leaving fewer records on a side are not candidates
+	private int minLeafSize = 1;
+	// scratch for threshold and subset searches
+	private final int[] leftScratch;
+	private final int[] rightScratch;
+	private final int[] totalScratch;
+
+	/**
+	 * An evaluator for binary columns only.
+	 */
+	public SplitEvaluator(ImpurityMeasure measure, int numberOfAttributes,
+			int numberOfClasses) {
+		this(measure, binaryColumns(numberOfAttributes), numberOfClasses);
+	}
+
+	/**
+	 * @param measure
+	 * @param dictionaries
+	 *            of the attribute columns; numeric ones are ordered
+	 * @param numberOfClasses
+	 */
+	public SplitEvaluator(ImpurityMeasure measure,
+			ColumnDictionary[] dictionaries, int numberOfClasses) {
+		this.measure = measure;
+		this.numberOfClasses = numberOfClasses;
+		this.counts = new int[dictionaries.length][][];
+		this.ordered = new boolean[dictionaries.length];
+		for (int col = 0; col < dictionaries.length; col++) {
+			this.counts[col] = new int[Math.max(NUMBER_OF_VALUES,
+					dictionaries[col].size())][numberOfClasses];
+			this.ordered[col] = dictionaries[col].isNumeric();
+		}
+		this.nodeClassCounts = new int[numberOfClasses];
+		this.leftScratch = new int[numberOfClasses];
+		this.rightScratch = new int[numberOfClasses];
+		this.totalScratch = new int[numberOfClasses];
+	}
+
+	private static ColumnDictionary[] binaryColumns(int numberOfAttributes) {
+		ColumnDictionary[] dictionaries = new ColumnDictionary[numberOfAttributes];
+		Arrays.fill(dictionaries,
+				new ColumnDictionary(new String[] { "0", "1" }));
+		return dictionaries;
+	}
+
+	/**
+	 * @param minLeafSize
+	 *            fewest records a split may leave on either side; 1, the
+	 *            default, lets binary columns score an empty side too, as
+	 *            they always have
+	 */
+	public void setMinLeafSize(int minLeafSize) {
+		this.minLeafSize = minLeafSize;
+	}
+
+	/**
+	 * @param col
+	 * @return True if col has a single split, 1 left and 0 right
+	 */
+	public boolean isBinary(int col) {
+		return this.counts[col].length <= NUMBER_OF_VALUES;
+	}
+
+	/**
+	 * @param col
+	 *            filled
+	 * @return True if at most one value of col occurs in the filled node,
+	 *         and for a binary column no record misses it; then no split on
+	 *         col divides the node or any part of it
+	 */
+	public boolean isConstant(int col) {
+		int present = 0;
+		int knownSize = 0;
+		for (int[] codeCounts : this.counts[col]) {
+			int count = sum(codeCounts);
+			if (count > 0) {
+				present++;
+				knownSize += count;
+			}
+		}
+		return present <= 1
+				&& (this.isBinary(col) == false || knownSize == this.nodeSize);
+	}
+
+	/**
+	 * @param col
+	 *            filled
+	 * @return True if a record of the filled node misses its value of col
+	 */
+	public boolean hasMissingValues(int col) {
+		int knownSize = 0;
+		for (int[] codeCounts : this.counts[col]) {
+			knownSize += sum(codeCounts);
+		}
+		return knownSize < this.nodeSize;
+	}
+
+	/**
+	 * Fills the table for the given columns with one pass over the records.
+	 *
+	 * @param records
+	 * @param indicesOfRecords
+	 * @param columns
+	 */
+	public void fill(EncodedRecords records, Set<Integer> indicesOfRecords,
+			int[] columns) {
+		for (int col : columns) {
+			for (int[] classCounts : this.counts[col]) {
+				Arrays.fill(classCounts, 0);
+			}
+		}
+		Arrays.fill(this.nodeClassCounts, 0);
+		for (Integer index : indicesOfRecords) {
+			int classId = records.classIdOf(index);
+			this.nodeClassCounts[classId]++;
+			for (int col : columns) {
+				int code = records.valueAt(index, col);
+				if (code >= 0) {
+					this.counts[col][code][classId]++;
+				}
+			}
+		}
+		this.nodeSize = indicesOfRecords.size();
+	}
+
+	/**
+	 * Fills the table for the given columns from rows[from, to).
+	 *
+	 * @param records
+	 * @param rows
+	 * @param from
+	 * @param to
+	 * @param columns
+	 */
+	public void fill(EncodedRecords records, int[] rows, int from, int to,
+			int[] columns) {
+		for (int col : columns) {
+			for (int[] classCounts : this.counts[col]) {
+				Arrays.fill(classCounts, 0);
+			}
+		}
+		Arrays.fill(this.nodeClassCounts, 0);
+		for (int i = from; i < to; i++) {
+			int index = rows[i];
+			int classId = records.classIdOf(index);
+			this.nodeClassCounts[classId]++;
+			for (int col : columns) {
+				int code = records.valueAt(index, col);
+				if (code >= 0) {
+					this.counts[col][code][classId]++;
+				}
+			}
+		}
+		this.nodeSize = to - from;
+	}
+
+	/**
+	 * Turns the table of a node into that of the node minus one of its
+	 * children, i.e. into the table of its other child, without reading any
+	 * records.
+	 *
+	 * @param child
+	 *            evaluator filled for the child over at least columns
+	 * @param columns
+	 */
+	public void subtract(SplitEvaluator child, int[] columns) {
+		for (int col : columns) {
+			for (int value = 0; value < this.counts[col].length; value++) {
+				int[] classCounts = this.counts[col][value];
+				int[] childCounts = child.counts[col][value];
+				for (int classId = 0; classId < this.numberOfClasses; classId++) {
+					classCounts[classId] -= childCounts[classId];
+				}
+			}
+		}
+		for (int classId = 0; classId < this.numberOfClasses; classId++) {
+			this.nodeClassCounts[classId] -= child.nodeClassCounts[classId];
+		}
+		this.nodeSize -= child.nodeSize;
+	}
+
+	/**
+	 * Fills the table for a node that is the full node minus some records,
+	 * which costs a pass over the removed records only.
+	 *
+	 * @param full
+	 *            evaluator filled for the full node over at least columns
+	 * @param records
+	 * @param removedIndices
+	 * @param columns
+	 */
+	public void fillBySubtracting(SplitEvaluator full, EncodedRecords records,
+			int[] removedIndices, int[] columns) {
+		for (int col : columns) {
+			for (int value = 0; value < this.counts[col].length; value++) {
+				System.arraycopy(full.counts[col][value], 0,
+						this.counts[col][value], 0, this.numberOfClasses);
+			}
+		}
+		System.arraycopy(full.nodeClassCounts, 0, this.nodeClassCounts, 0,
+				this.numberOfClasses);
+		for (int index : removedIndices) {
+			int classId = records.classIdOf(index);
+			this.nodeClassCounts[classId]--;
+			for (int col : columns) {
+				int code = records.valueAt(index, col);
+				if (code >= 0) {
+					this.counts[col][code][classId]--;
+				}
+			}
+		}
+		this.nodeSize = full.nodeSize - removedIndices.length;
+	}
+
+	/**
+	 * Adds one record to the table, for a node that grows a record at a time.
+	 *
+	 * @param records
+	 * @param row
+	 * @param columns
+	 *            the columns the table is kept for
+	 */
+	public void add(EncodedRecords records, int row, int[] columns) {
+		int classId = records.classIdOf(row);
+		this.nodeClassCounts[classId]++;
+		for (int col : columns) {
+			int code = records.valueAt(row, col);
+			if (code >= 0) {
+				this.counts[col][code][classId]++;
+			}
+		}
+		this.nodeSize++;
+	}
+
+	/**
+	 * @param split
+	 *            a split of the filled node, on a column the table is kept for
+	 * @param leftCounts
+	 *            gets the class counts of the records that go left, missing
+	 *            values included
+	 * @return the number of records that go left
+	 */
+	public int leftCounts(Split split, int[] leftCounts) {
+		if (split.missingGoesLeft) {
+			// all of them less those with a value going right
+			System.arraycopy(this.nodeClassCounts, 0, leftCounts, 0,
+					this.numberOfClasses);
+		} else {
+			Arrays.fill(leftCounts, 0);
+		}
+		int[][] codeCounts = this.counts[split.column];
+		for (int code = 0; code < codeCounts.length; code++) {
+			if (split.goesLeft(code) != split.missingGoesLeft) {
+				int sign = split.missingGoesLeft ? -1 : 1;
+				for (int classId = 0; classId < this.numberOfClasses; classId++) {
+					leftCounts[classId] += sign * codeCounts[code][classId];
+				}
+			}
+		}
+		return sum(leftCounts);
+	}
+
+	/**
+	 * @param split
+	 *            a split of the filled node, on a column the table is kept for
+	 * @return its average weighted impurity, as bestSplit scores it
+	 */
+	public double impurity(Split split) {
+		int[] leftCounts = new int[this.numberOfClasses];
+		int[] rightCounts = new int[this.numberOfClasses];
+		int[][] codeCounts = this.counts[split.column];
+		for (int code = 0; code < codeCounts.length; code++) {
+			int[] side = split.goesLeft(code) ? leftCounts : rightCounts;
+			for (int classId = 0; classId < this.numberOfClasses; classId++) {
+				side[classId] += codeCounts[code][classId];
+			}
+		}
+		int leftSize = sum(leftCounts);
+		int rightSize = sum(rightCounts);
+		int knownSize = leftSize + rightSize;
+		double value = this.averageWeightedImpurity(leftCounts, leftSize,
+				rightCounts, rightSize, knownSize);
+		if (knownSize == this.nodeSize) {
+			return value;
+		}
+		int[] knownCounts = new int[this.numberOfClasses];
+		for (int classId = 0; classId < this.numberOfClasses; classId++) {
+			knownCounts[classId] = leftCounts[classId] + rightCounts[classId];
+		}
+		return this.withMissingValues(value, knownCounts, knownSize);
+	}
+
+	/**
+	 * Makes the table for the given columns that of another evaluator.
+	 *
+	 * @param other
+	 *            evaluator filled over at least columns
+	 * @param columns
+	 */
+	public void copyFrom(SplitEvaluator other, int[] columns) {
+		for (int col : columns) {
+			for (int value = 0; value < this.counts[col].length; value++) {
+				System.arraycopy(other.counts[col][value], 0,
+						this.counts[col][value], 0, this.numberOfClasses);
+			}
+		}
+		System.arraycopy(other.nodeClassCounts, 0, this.nodeClassCounts, 0,
+				this.numberOfClasses);
+		this.nodeSize = other.nodeSize;
+	}
+
+	/**
+	 * @param col
+	 * @return the average weighted impurity of splitting the filled node on
+	 *         col
+	 */
+	public double averageWeightedImpurity(int col) {
+		int[] leftCounts = this.counts[col][LEFT_VALUE];
+		int[] rightCounts = this.counts[col][RIGHT_VALUE];
+		return this.averageWeightedImpurity(leftCounts, sum(leftCounts),
+				rightCounts, sum(rightCounts), this.nodeSize);
+	}
+
+	/**
+	 * @param leftCounts
+	 * @param leftSize
+	 * @param rightCounts
+	 * @param rightSize
+	 * @param nodeSize
+	 * @return the average weighted impurity of a split from its class counts
+	 */
+	public double averageWeightedImpurity(int[] leftCounts, int leftSize,
+			int[] rightCounts, int rightSize, int nodeSize) {
+		double impurityLeft = this.measure.impurity(leftCounts, leftSize);
+		double impurityRight = this.measure.impurity(rightCounts, rightSize);
+		return impurityLeft * leftSize / nodeSize
+				+ impurityRight * rightSize / nodeSize;
+	}
+
+	/**
+	 * Ties go to the column that comes first in columns, and within a column
+	 * to the lowest threshold or smallest subset.
+	 *
+	 * A column with missing values in the node is scored on the records that
+	 * have one, and the impurity it gains is scaled by their share of the
+	 * node, as C4.5 does; its records with missing values go to the side that
+	 * got more of the others.
+	 *
+	 * The search stops at the first split of impurity 0 on records that all
+	 * have a value: nothing scores lower, and ties go to the first.
+	 *
+	 * @param columns
+	 * @return the split with the lowest average weighted impurity of the
+	 *         filled node, or null if no column can divide it
+	 */
+	public Split bestSplit(int[] columns) {
+		double minValue = Double.MAX_VALUE;
+		int bestColumnIndex = -1;
+		int bestThreshold = 0;
+		boolean[] bestLeftCodes = null;
+		boolean bestMissingGoesLeft = false;
+		search: for (int col : columns) {
+			if (this.isBinary(col)) {
+				int leftSize = sum(this.counts[col][LEFT_VALUE]);
+				int rightSize = sum(this.counts[col][RIGHT_VALUE]);
+				int smallerSide = Math.min(leftSize, rightSize);
+				if (this.minLeafSize > 1 && smallerSide < this.minLeafSize) {
+					continue;
+				}
+				int knownSize = leftSize + rightSize;
+				if (knownSize == 0) {
+					continue;
+				}
+				double value = knownSize == this.nodeSize
+						? this.averageWeightedImpurity(col)
+						: this.withMissingValues(this.averageWeightedImpurity(
+								this.counts[col][LEFT_VALUE], leftSize,
+								this.counts[col][RIGHT_VALUE], rightSize,
+								knownSize), this.classTotals(col), knownSize);
+				if (value < minValue) {
+					minValue = value;
+					bestColumnIndex = col;
+					bestThreshold = 0;
+					bestLeftCodes = null;
+					bestMissingGoesLeft = leftSize > rightSize;
+					if (value <= 0 && knownSize == this.nodeSize) {
+						break search;
+					}
+				}
+				continue;
+			}
+			int[] classTotals = this.classTotals(col);
+			int knownSize = sum(classTotals);
+			if (knownSize == 0) {
+				continue;
+			}
+			int[] order = this.ordered[col] ? null
+					: this.subsetOrder(col, classTotals);
+			int numberOfCuts = (order == null ? this.counts[col].length
+					: order.length) - 1;
+			int[] leftCounts = this.leftScratch;
+			int[] rightCounts = this.rightScratch;
+			Arrays.fill(rightCounts, 0);
+			int rightSize = 0;
+			// codes up to the cut go right, the rest left
+			for (int cut = 0; cut < numberOfCuts; cut++) {
+				int[] codeCounts = this.counts[col][order == null ? cut
+						: order[cut]];
+				for (int classId = 0; classId < this.numberOfClasses; classId++) {
+					rightCounts[classId] += codeCounts[classId];
+					rightSize += codeCounts[classId];
+				}
+				int leftSize = knownSize - rightSize;
+				if (rightSize == 0 || leftSize == 0
+						|| rightSize < this.minLeafSize
+						|| leftSize < this.minLeafSize) {
+					continue;
+				}
+				for (int classId = 0; classId < this.numberOfClasses; classId++) {
+					leftCounts[classId] = classTotals[classId]
+							- rightCounts[classId];
+				}
+				double value = this.averageWeightedImpurity(leftCounts,
+						leftSize, rightCounts, rightSize, knownSize);
+				if (knownSize < this.nodeSize) {
+					value = this.withMissingValues(value, classTotals,
+							knownSize);
+				}
+				if (value < minValue) {
+					minValue = value;
+					bestColumnIndex = col;
+					bestThreshold = cut;
+					bestLeftCodes = order == null ? null
+							: leftCodesAfter(order, cut,
+									this.counts[col].length);
+					bestMissingGoesLeft = leftSize > rightSize;
+					if (value <= 0 && knownSize == this.nodeSize) {
+						break search;
+					}
+				}
+			}
+		}
+		if (bestColumnIndex < 0) {
+			return null;
+		}
+		return new Split(bestColumnIndex, bestThreshold, bestLeftCodes,
+				minValue, bestMissingGoesLeft);
+	}
+
+	/**
+	 * @param knownImpurity
+	 *            average weighted impurity of a split of the records with a
+	 *            value at its column
+	 * @param knownCounts
+	 *            class counts of those records
+	 * @param knownSize
+	 *            their number
+	 * @return the impurity of the node less the impurity the split gains on
+	 *         them, scaled by their share of the node
+	 */
+	private double withMissingValues(double knownImpurity, int[] knownCounts,
+			int knownSize) {
+		double gain = this.measure.impurity(knownCounts, knownSize)
+				- knownImpurity;
+		return this.measure.impurity(this.nodeClassCounts, this.nodeSize)
+				- gain * knownSize / this.nodeSize;
+	}
+
+	/**
+	 * @return the codes of a categorical column present in the node, by
+	 *         descending share of the node's majority class (ties by code)
+	 */
+	private int[] subsetOrder(int col, int[] classTotals) {
+		int[][] codeCounts = this.counts[col];
+		int majority = 0;
+		for (int classId = 1; classId < this.numberOfClasses; classId++) {
+			if (classTotals[classId] > classTotals[majority]) {
+				majority = classId;
+			}
+		}
+		int present = 0;
+		long[] keys = new long[codeCounts.length];
+		for (int code = 0; code < codeCounts.length; code++) {
+			int size = 0;
+			for (int count : codeCounts[code]) {
+				size += count;
+			}
+			if (size > 0) {
+				// share scaled to an int, descending, then code ascending
+				long share = (long) codeCounts[code][majority]
+						* Integer.MAX_VALUE / size;
+				keys[present++] = ((Integer.MAX_VALUE - share) << 32) | code;
+			}
+		}
+		Arrays.sort(keys, 0, present);
+		int[] order = new int[present];
+		for (int i = 0; i < present; i++) {
+			order[i] = (int) keys[i];
+		}
+		return order;
+	}
+
+	/**
+	 * The codes after the cut in order go left, i.e. those with the smaller
+	 * shares of the majority class; codes absent from the node go right.
+	 */
+	private static boolean[] leftCodesAfter(int[] order, int cut,
+			int numberOfCodes) {
+		boolean[] leftCodes = new boolean[numberOfCodes];
+		for (int i = cut + 1; i < order.length; i++) {
+			leftCodes[order[i]] = true;
+		}
+		return leftCodes;
+	}
+
+	/**
+	 * @return the number of records of each class in the filled node, from
+	 *         the counts of col (a scratch array)
+	 */
+	private int[] classTotals(int col) {
+		int[] totals = this.totalScratch;
+		Arrays.fill(totals, 0);
+		for (int[] codeCounts : this.counts[col]) {
+			for (int classId = 0; classId < this.numberOfClasses; classId++) {
+				totals[classId] += codeCounts[classId];
+			}
+		}
+		return totals;
+	}
+
+	public int numberOfClasses() {
+		return this.numberOfClasses;
+	}
+
+	private static int sum(int[] classCounts) {
+		int size = 0;
+		for (int count : classCounts) {
+			size += count;
+		}
+		return size;
+	}
+}
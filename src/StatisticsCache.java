@@ -0,0 +1,91 @@
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Root contingency tables of validation folds, keyed by the rows a fold
+ * holds out; the whole data set is the fold holding out none. Runs that
+ * retrain on the same folds (another k-fold with the same seed, the same
+ * folds under other settings) start from the cached table instead of
+ * reading records again. Holds at most maxEntries tables and drops the least
+ * recently used one first. Tables in the cache are read only; a fold that
+ * builds on one copies it. Safe to share between threads.
+ */
+public class StatisticsCache {
+	private static final class Key {
+		private final int[] heldOutRows;
+		private final int hash;
+
+		Key(int[] heldOutRows) {
+			this.heldOutRows = heldOutRows;
+			this.hash = Arrays.hashCode(heldOutRows);
+		}
+
+		@Override
+		public int hashCode() {
+			return this.hash;
+		}
+
+		@Override
+		public boolean equals(Object other) {
+			return other instanceof Key && Arrays.equals(this.heldOutRows,
+					((Key) other).heldOutRows);
+		}
+	}
+
+	private final int maxEntries;
+	private final LinkedHashMap<Key, SplitEvaluator> tables;
+
+	/**
+	 * @param maxEntries
+	 *            number of tables kept; 0 keeps none
+	 */
+	public StatisticsCache(final int maxEntries) {
+		this.maxEntries = maxEntries;
+		// access order, so the eldest entry is the least recently used
+		this.tables = new LinkedHashMap<Key, SplitEvaluator>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(
+					Map.Entry<Key, SplitEvaluator> eldest) {
+				return this.size() > maxEntries;
+			}
+		};
+	}
+
+	public int maxEntries() {
+		return this.maxEntries;
+	}
+
+	/**
+	 * @param heldOutRows
+	 *            ascending
+	 * @return the cached table of the fold, not to be changed, or null
+	 */
+	public synchronized SplitEvaluator get(int[] heldOutRows) {
+		return this.tables.get(new Key(heldOutRows));
+	}
+
+	/**
+	 * @param heldOutRows
+	 *            ascending
+	 * @param statistics
+	 *            filled for the fold over all columns; owned by the cache
+	 *            from then on
+	 */
+	public synchronized void put(int[] heldOutRows,
+			SplitEvaluator statistics) {
+		if (this.maxEntries > 0) {
+			this.tables.put(new Key(heldOutRows.clone()), statistics);
+		}
+	}
+
+	public synchronized int size() {
+		return this.tables.size();
+	}
+
+	public synchronized void clear() {
+		this.tables.clear();
+	}
+}
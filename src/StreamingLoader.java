@@ -0,0 +1,626 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Reads a training or test file straight into EncodedRecords. Bytes are
+ * tokenized from a FileChannel through one reused buffer and looked up in
+ * byte keyed copies of the column dictionaries, so there is no String, regex
+ * or Record per line; the heap holds little more than the encoded columns.
+ * Only the three header lines of a training file are turned into Strings.
+ * A value of "?" is missing, and so is any value of a test record that its
+ * column does not know; both get the code ColumnDictionary.MISSING.
+ */
+public class StreamingLoader {
+	/**
+	 * Told how far a load has got every PROGRESS_INTERVAL rows and at the end.
+	 */
+	public interface ProgressListener {
+		void progress(long bytesRead, long totalBytes, int rowsParsed);
+	}
+
+	/**
+	 * Gets the records of a file one block at a time. The block is cleared
+	 * and refilled after the call returns, so it must not be kept.
+	 */
+	public interface BlockHandler {
+		void block(EncodedRecords block) throws IOException;
+	}
+
+	public static final int PROGRESS_INTERVAL = 1 << 16;
+	private static final int BUFFER_SIZE = 1 << 20;
+
+	/**
+	 * Open addressing map from the bytes of a token to an int, so a token can
+	 * be looked up while it is still sitting in the read buffer.
+	 */
+	static class ByteSymbolTable {
+		private byte[][] keys = new byte[16][];
+		private int[] values = new int[16];
+		private int size = 0;
+
+		public void put(byte[] key, int value) {
+			if ((this.size + 1) * 2 > this.keys.length) {
+				this.grow();
+			}
+			int slot = this.slotOf(key, 0, key.length);
+			if (this.keys[slot] == null) {
+				this.keys[slot] = key;
+				this.size++;
+			}
+			this.values[slot] = value;
+		}
+
+		/**
+		 * @return the value of the key bytes[from, to), or -1 if absent
+		 */
+		public int get(byte[] bytes, int from, int to) {
+			int slot = this.slotOf(bytes, from, to);
+			return this.keys[slot] == null ? -1 : this.values[slot];
+		}
+
+		public int size() {
+			return this.size;
+		}
+
+		private int slotOf(byte[] bytes, int from, int to) {
+			int hash = 1;
+			for (int i = from; i < to; i++) {
+				hash = 31 * hash + bytes[i];
+			}
+			int mask = this.keys.length - 1;
+			int slot = (hash ^ (hash >>> 16)) & mask;
+			while (this.keys[slot] != null && Arrays.equals(this.keys[slot], 0,
+					this.keys[slot].length, bytes, from, to) == false) {
+				slot = (slot + 1) & mask;
+			}
+			return slot;
+		}
+
+		private void grow() {
+			byte[][] oldKeys = this.keys;
+			int[] oldValues = this.values;
+			this.keys = new byte[oldKeys.length * 2][];
+			this.values = new int[oldKeys.length * 2];
+			this.size = 0;
+			for (int i = 0; i < oldKeys.length; i++) {
+				if (oldKeys[i] != null) {
+					this.put(oldKeys[i], oldValues[i]);
+				}
+			}
+		}
+	}
+
+	private final ProgressListener listener;
+	private final Charset charset = Charset.defaultCharset();
+
+	// header of the last training file
+	private int numberOfRecords;
+	private int numberOfAttributes;
+	private int numberOfClasses;
+	private ColumnDictionary[] attributeDictionaries;
+	private ColumnDictionary labelDictionary;
+	// byte keyed copies of the dictionaries
+	private ByteSymbolTable[] columnSymbols;
+	private ByteSymbolTable labelSymbols;
+	// raw values of numeric columns while a training file is read; binned
+	// once it is done
+	private double[][] numericValues;
+	private int maxBins = ColumnDictionary.MAX_BINS;
+	// false while labeled records are read for a trained tree, which knows
+	// no other labels
+	private boolean newLabelsAllowed = true;
+	// set while scanTestRecords hands out blocks
+	private BlockHandler blockHandler;
+	private int blockSize;
+	// rows of the file parsed so far, over all its blocks
+	private int rowsParsed;
+
+	public StreamingLoader(ProgressListener listener) {
+		this.listener = listener;
+	}
+
+	/**
+	 * @param maxBins
+	 *            most bins a numeric column of the next training file gets, 2
+	 *            to ColumnDictionary.MAX_BINS
+	 */
+	public void setMaxBins(int maxBins) {
+		if (maxBins < 2 || maxBins > ColumnDictionary.MAX_BINS) {
+			throw new IllegalArgumentException("maxBins must be 2 to "
+					+ ColumnDictionary.MAX_BINS + ", not " + maxBins);
+		}
+		this.maxBins = maxBins;
+	}
+
+	public int numberOfRecords() {
+		return this.numberOfRecords;
+	}
+
+	public int numberOfAttributes() {
+		return this.numberOfAttributes;
+	}
+
+	public int numberOfClasses() {
+		return this.numberOfClasses;
+	}
+
+	public ColumnDictionary[] attributeDictionaries() {
+		return this.attributeDictionaries;
+	}
+
+	/**
+	 * @return the label dictionary; codes are the class ids of the records
+	 */
+	public ColumnDictionary labelDictionary() {
+		return this.labelDictionary;
+	}
+
+	/**
+	 * Loads a training file: the three header lines, then one record per line
+	 * with the label as the last token. Class ids follow
+	 * ColumnDictionary.renumberInHashMapOrder.
+	 *
+	 * @param fileName
+	 * @return the encoded records
+	 * @throws IOException
+	 */
+	public EncodedRecords loadTrainingData(String fileName) throws IOException {
+		EncodedRecords records;
+		try (FileChannel channel = FileChannel.open(Paths.get(fileName),
+				StandardOpenOption.READ)) {
+			ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+			long bytesRead = this.readTrainingHeader(channel, buffer);
+			records = new EncodedRecords(this.attributeDictionaries,
+					this.numberOfRecords);
+			this.allocateNumericValues(this.numberOfRecords);
+			try {
+				this.parse(channel, buffer, bytesRead, records, true);
+				this.binNumericColumns(records);
+			} finally {
+				this.numericValues = null;
+			}
+		}
+		records.renumberClassIds(
+				this.labelDictionary.renumberInHashMapOrder());
+		this.labelSymbols = this.symbolTable(this.labelDictionary);
+		records.trim();
+		return records;
+	}
+
+	/**
+	 * Reads a training file block by block, for when it is too big to load.
+	 * The header is read as by loadTrainingData. The codes of numeric columns
+	 * in a block are 0; their values are in numericValues(col) while the
+	 * handler has the block, and binning them is up to the caller. Class ids
+	 * are label dictionary codes in order of appearance, not yet renumbered.
+	 *
+	 * @param fileName
+	 * @param blockSize
+	 *            records per block
+	 * @param handler
+	 *            gets each block in file order; the last may be short
+	 * @throws IOException
+	 */
+	public void scanTrainingRecords(String fileName, int blockSize,
+			BlockHandler handler) throws IOException {
+		try (FileChannel channel = FileChannel.open(Paths.get(fileName),
+				StandardOpenOption.READ)) {
+			ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+			long bytesRead = this.readTrainingHeader(channel, buffer);
+			EncodedRecords block = new EncodedRecords(
+					this.attributeDictionaries, blockSize);
+			this.allocateNumericValues(blockSize);
+			this.blockHandler = handler;
+			this.blockSize = blockSize;
+			try {
+				this.parse(channel, buffer, bytesRead, block, true);
+				if (block.numberOfRows() > 0) {
+					handler.block(block);
+				}
+			} finally {
+				this.blockHandler = null;
+				this.numericValues = null;
+			}
+		}
+	}
+
+	/**
+	 * @param col
+	 * @return the values of a numeric column in the block scanTrainingRecords
+	 *         is handing out
+	 */
+	public double[] numericValues(int col) {
+		return this.numericValues[col];
+	}
+
+	/**
+	 * Reads the three header lines of a training file and sets up the
+	 * dictionaries they declare.
+	 *
+	 * @return the number of bytes read from the channel so far
+	 */
+	private long readTrainingHeader(FileChannel channel, ByteBuffer buffer)
+			throws IOException {
+		String[] header = new String[3];
+		long bytesRead = this.readHeader(channel, buffer, header);
+		String whitespace = "[ ]+";
+		String[] componentsOfFirstLine = header[0].trim().split(whitespace);
+		this.numberOfRecords = Integer.parseInt(componentsOfFirstLine[0]);
+		this.numberOfAttributes = Integer.parseInt(componentsOfFirstLine[1]);
+		this.numberOfClasses = Integer.parseInt(componentsOfFirstLine[2]);
+		this.useDictionaries(
+				ColumnDictionary.attributeDictionaries(header[1], header[2],
+						this.numberOfAttributes),
+				ColumnDictionary.labelDictionary(header[2]));
+		return bytesRead;
+	}
+
+	private void allocateNumericValues(int rows) {
+		this.numericValues = new double[this.numberOfAttributes][];
+		for (int col = 0; col < this.numberOfAttributes; col++) {
+			if (this.attributeDictionaries[col].isNumeric()) {
+				this.numericValues[col] = new double[Math.max(64, rows)];
+			}
+		}
+	}
+
+	/**
+	 * Reads test files with the given dictionaries instead of those of a
+	 * training file, e.g. the ones stored in a model file.
+	 *
+	 * @param attributeDictionaries
+	 * @param labelDictionary
+	 */
+	public void useDictionaries(ColumnDictionary[] attributeDictionaries,
+			ColumnDictionary labelDictionary) {
+		this.numberOfAttributes = attributeDictionaries.length;
+		this.attributeDictionaries = attributeDictionaries;
+		this.labelDictionary = labelDictionary;
+		this.columnSymbols = new ByteSymbolTable[this.numberOfAttributes];
+		for (int col = 0; col < this.numberOfAttributes; col++) {
+			// numeric values are parsed, not looked up
+			if (this.attributeDictionaries[col].isNumeric() == false) {
+				this.columnSymbols[col] = this
+						.symbolTable(this.attributeDictionaries[col]);
+			}
+		}
+		this.labelSymbols = this.symbolTable(this.labelDictionary);
+	}
+
+	/**
+	 * Loads a test file (attributes only) with the dictionaries of the last
+	 * training file.
+	 *
+	 * @param fileName
+	 * @return the encoded records, with class id -1
+	 * @throws IOException
+	 */
+	public EncodedRecords loadTestRecords(String fileName) throws IOException {
+		EncodedRecords records = new EncodedRecords(
+				this.attributeDictionaries, 0);
+		try (FileChannel channel = FileChannel.open(Paths.get(fileName),
+				StandardOpenOption.READ)) {
+			ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+			buffer.flip();
+			this.parse(channel, buffer, 0, records, false);
+		}
+		records.trim();
+		return records;
+	}
+
+	/**
+	 * Reads a test file block by block, so only blockSize records are in
+	 * memory at once however big the file is.
+	 *
+	 * @param fileName
+	 * @param blockSize
+	 *            records per block
+	 * @param handler
+	 *            gets each block in file order; the last may be short
+	 * @throws IOException
+	 */
+	public void scanTestRecords(String fileName, int blockSize,
+			BlockHandler handler) throws IOException {
+		EncodedRecords block = new EncodedRecords(this.attributeDictionaries,
+				blockSize);
+		this.blockHandler = handler;
+		this.blockSize = blockSize;
+		try (FileChannel channel = FileChannel.open(Paths.get(fileName),
+				StandardOpenOption.READ)) {
+			ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+			buffer.flip();
+			this.parse(channel, buffer, 0, block, false);
+			if (block.numberOfRows() > 0) {
+				handler.block(block);
+			}
+		} finally {
+			this.blockHandler = null;
+		}
+	}
+
+	/**
+	 * Reads more labeled records for the dictionaries of the last training
+	 * file, block by block: lines as in a training file, without the header.
+	 * Numeric values go into the existing bins and attribute values the
+	 * dictionaries do not know are missing, as in test records; a label they
+	 * do not know is an error.
+	 *
+	 * @param fileName
+	 * @param blockSize
+	 *            records per block
+	 * @param handler
+	 *            gets each block in file order; the last may be short
+	 * @throws IOException
+	 */
+	public void scanLabeledRecords(String fileName, int blockSize,
+			BlockHandler handler) throws IOException {
+		EncodedRecords block = new EncodedRecords(this.attributeDictionaries,
+				blockSize);
+		this.blockHandler = handler;
+		this.blockSize = blockSize;
+		this.newLabelsAllowed = false;
+		try (FileChannel channel = FileChannel.open(Paths.get(fileName),
+				StandardOpenOption.READ)) {
+			ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+			buffer.flip();
+			this.parse(channel, buffer, 0, block, true);
+			if (block.numberOfRows() > 0) {
+				handler.block(block);
+			}
+		} finally {
+			this.blockHandler = null;
+			this.newLabelsAllowed = true;
+		}
+	}
+
+	/**
+	 * Sets the bins of every numeric column from its training values and
+	 * writes the bin of each value into records.
+	 */
+	private void binNumericColumns(EncodedRecords records) {
+		int rows = records.numberOfRows();
+		for (int col = 0; col < this.numberOfAttributes; col++) {
+			double[] values = this.numericValues[col];
+			if (values == null) {
+				continue;
+			}
+			ColumnDictionary dictionary = this.attributeDictionaries[col];
+			dictionary.setEdgesFromValues(values, rows, this.maxBins);
+			for (int row = 0; row < rows; row++) {
+				if (Double.isNaN(values[row]) == false) {
+					records.setValue(row, col, dictionary.binOf(values[row]));
+				}
+			}
+		}
+	}
+
+	private ByteSymbolTable symbolTable(ColumnDictionary dictionary) {
+		ByteSymbolTable table = new ByteSymbolTable();
+		for (int code = 0; code < dictionary.size(); code++) {
+			table.put(dictionary.name(code).getBytes(this.charset), code);
+		}
+		return table;
+	}
+
+	/**
+	 * Reads the three header lines into header and leaves buffer positioned
+	 * at the first record.
+	 *
+	 * @return the number of bytes read from the channel so far
+	 */
+	private long readHeader(FileChannel channel, ByteBuffer buffer,
+			String[] header) throws IOException {
+		buffer.clear();
+		long bytesRead = Math.max(0, channel.read(buffer));
+		buffer.flip();
+		byte[] line = new byte[256];
+		for (int lineIndex = 0; lineIndex < header.length; lineIndex++) {
+			int length = 0;
+			while (true) {
+				if (buffer.hasRemaining() == false) {
+					buffer.clear();
+					int read = channel.read(buffer);
+					if (read < 0) {
+						throw new IOException("training file header is cut off");
+					}
+					bytesRead += read;
+					buffer.flip();
+				}
+				byte b = buffer.get();
+				if (b == '\n') {
+					break;
+				}
+				if (length == line.length) {
+					line = Arrays.copyOf(line, length * 2);
+				}
+				line[length++] = b;
+			}
+			header[lineIndex] = new String(line, 0, length, this.charset);
+		}
+		return bytesRead;
+	}
+
+	/**
+	 * Tokenizes the rest of the channel into records. buffer holds the bytes
+	 * already read but not yet consumed; it is walked through its backing
+	 * array.
+	 */
+	private void parse(FileChannel channel, ByteBuffer buffer, long bytesRead,
+			EncodedRecords records, boolean hasLabels) throws IOException {
+		long totalBytes = channel.size();
+		byte[] token = new byte[64];
+		int tokenLength = 0;
+		// codes of the line so far; the label code goes after the attributes
+		int[] lineCodes = new int[this.numberOfAttributes + 1];
+		int tokensInLine = 0;
+		// training files have read their three header lines by now
+		int lineNumber = bytesRead > 0 ? 4 : 1;
+		this.rowsParsed = 0;
+		byte[] bytes = buffer.array();
+		int position = buffer.position();
+		int limit = buffer.limit();
+		while (true) {
+			if (position == limit) {
+				buffer.clear();
+				int read = channel.read(buffer);
+				if (read < 0) {
+					break;
+				}
+				bytesRead += read;
+				position = 0;
+				limit = read;
+			}
+			byte b = bytes[position++];
+			if (b == ' ' || b == '\t' || b == '\r' || b == '\n') {
+				if (tokenLength > 0) {
+					this.addToken(token, tokenLength, lineCodes, tokensInLine,
+							records.numberOfRows(), hasLabels, lineNumber);
+					tokensInLine++;
+					tokenLength = 0;
+				}
+				if (b == '\n') {
+					if (tokensInLine > 0) {
+						this.addRow(records, lineCodes, tokensInLine,
+								hasLabels, lineNumber, bytesRead, totalBytes);
+					}
+					tokensInLine = 0;
+					lineNumber++;
+				}
+			} else {
+				if (tokenLength == token.length) {
+					token = Arrays.copyOf(token, tokenLength * 2);
+				}
+				token[tokenLength++] = b;
+			}
+		}
+		// last line without a newline
+		if (tokenLength > 0) {
+			this.addToken(token, tokenLength, lineCodes, tokensInLine,
+					records.numberOfRows(), hasLabels, lineNumber);
+			tokensInLine++;
+		}
+		if (tokensInLine > 0) {
+			this.addRow(records, lineCodes, tokensInLine, hasLabels,
+					lineNumber, bytesRead, totalBytes);
+		}
+		if (this.listener != null) {
+			this.listener.progress(bytesRead, totalBytes, this.rowsParsed);
+		}
+	}
+
+	/**
+	 * Looks up the token at tokenIndex of its line in its column's symbols,
+	 * or in the label symbols when it comes after the last attribute.
+	 */
+	private void addToken(byte[] token, int tokenLength, int[] lineCodes,
+			int tokenIndex, int row, boolean hasLabels, int lineNumber)
+			throws IOException {
+		if (tokenIndex >= lineCodes.length
+				|| (hasLabels == false && tokenIndex == this.numberOfAttributes)) {
+			throw new IOException("too many values at line " + lineNumber);
+		}
+		if (tokenIndex == this.numberOfAttributes) {
+			lineCodes[tokenIndex] = this.labelCode(token, tokenLength,
+					lineNumber);
+			return;
+		}
+		if (this.columnSymbols[tokenIndex] == null) {
+			lineCodes[tokenIndex] = this.numericCode(token, tokenLength,
+					tokenIndex, row, lineNumber);
+			return;
+		}
+		int code = this.columnSymbols[tokenIndex].get(token, 0, tokenLength);
+		// test and labeled records may have values the training data did
+		// not; only the training file itself has to stick to its header
+		if (code < 0 && (hasLabels == false || this.newLabelsAllowed == false
+				|| isMissing(token, tokenLength))) {
+			code = ColumnDictionary.MISSING;
+		} else if (code < 0) {
+			throw new IOException("unknown value '"
+					+ new String(token, 0, tokenLength, this.charset)
+					+ "' in column " + tokenIndex + " at line " + lineNumber);
+		}
+		lineCodes[tokenIndex] = code;
+	}
+
+	/**
+	 * @return True if the token is ColumnDictionary.MISSING_VALUE
+	 */
+	private static boolean isMissing(byte[] token, int tokenLength) {
+		return tokenLength == 1 && token[0] == '?';
+	}
+
+	/**
+	 * Parses the value of a numeric column. While a training file is read
+	 * the value is kept for binning (NaN if missing) and the code is 0 for
+	 * now; a value that is not a number fails the file. Other records are
+	 * coded as ColumnDictionary.code does, so what is not a number is
+	 * missing.
+	 */
+	private int numericCode(byte[] token, int tokenLength, int col, int row,
+			int lineNumber) throws IOException {
+		if (this.numericValues == null) {
+			return this.attributeDictionaries[col].numericCode(token, 0,
+					tokenLength);
+		}
+		double value;
+		try {
+			value = ColumnDictionary.parseNumber(token, 0, tokenLength);
+		} catch (NumberFormatException e) {
+			throw new IOException("'"
+					+ new String(token, 0, tokenLength, this.charset)
+					+ "' in column " + col + " at line " + lineNumber
+					+ " is not a number");
+		}
+		double[] values = this.numericValues[col];
+		if (row == values.length) {
+			values = Arrays.copyOf(values, values.length * 2);
+			this.numericValues[col] = values;
+		}
+		values[row] = value;
+		return Double.isNaN(value) ? ColumnDictionary.MISSING : 0;
+	}
+
+	private int labelCode(byte[] token, int tokenLength, int lineNumber)
+			throws IOException {
+		int code = this.labelSymbols.get(token, 0, tokenLength);
+		if (code < 0 && this.newLabelsAllowed == false) {
+			throw new IOException("unknown label '"
+					+ new String(token, 0, tokenLength, this.charset)
+					+ "' at line " + lineNumber);
+		}
+		if (code < 0) {
+			code = this.labelDictionary.codeOrAdd(
+					new String(token, 0, tokenLength, this.charset));
+			this.labelSymbols.put(Arrays.copyOf(token, tokenLength), code);
+		}
+		return code;
+	}
+
+	private void addRow(EncodedRecords records, int[] lineCodes,
+			int tokensInLine, boolean hasLabels, int lineNumber,
+			long bytesRead, long totalBytes) throws IOException {
+		int expected = hasLabels ? this.numberOfAttributes + 1
+				: this.numberOfAttributes;
+		if (tokensInLine != expected) {
+			throw new IOException("line " + lineNumber + " has "
+					+ tokensInLine + " values, expected " + expected);
+		}
+		records.addRow(lineCodes,
+				hasLabels ? lineCodes[this.numberOfAttributes] : -1);
+		this.rowsParsed++;
+		if (this.blockHandler != null
+				&& records.numberOfRows() == this.blockSize) {
+			this.blockHandler.block(records);
+			records.clear();
+		}
+		if (this.listener != null && this.rowsParsed % PROGRESS_INTERVAL == 0) {
+			this.listener.progress(bytesRead, totalBytes, this.rowsParsed);
+		}
+	}
+}
@@ -0,0 +1,518 @@
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Array;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Turns a FlatTree into a class of its own: nested branches over the record's
+ * values with the columns, thresholds and leaf class ids as constants, so the
+ * JIT compiles scoring to straight line code without the loop and array loads
+ * per level of the interpreter. The class file is written byte by byte here,
+ * as version 49 so it needs no stack map frames, and defined as a hidden
+ * class where the runtime has them, else in a class loader of its own; either
+ * way it is unloaded with the tree. Subtrees too big
+ * for one method get methods of their own, so every method stays under the
+ * 8000 bytes HotSpot still compiles.
+ *
+ * Generated code takes the same branches as FlatTree.goesLeft: missing values
+ * go left only at nodes that send them left, and they fail every threshold
+ * and code set test otherwise.
+ */
+public class TreeCompiler {
+	// past a few thousand nodes the generated code no longer fits the
+	// instruction cache and scores slower than the interpreter's arrays
+	public static final int DEFAULT_MAX_NODES = 1 << 12;
+
+	// subtrees bigger than this are called, not inlined; a method holds at
+	// most two of them plus its root's tests
+	private static final int OUTLINE_BYTES = 1500;
+	// aload, iload, invokestatic, ireturn
+	private static final int CALL_BYTES = 6;
+	// loading the value (at most aload, iload, ldc_w, invokevirtual, istore)
+	// and the missing value test
+	private static final int NODE_BYTES = 13;
+	private static final int LEAF_BYTES = 4;
+	private static final int MAX_STACK = 4;
+
+	private static final int ACC_PUBLIC = 0x0001;
+	private static final int ACC_PRIVATE = 0x0002;
+	private static final int ACC_STATIC = 0x0008;
+	private static final int ACC_FINAL = 0x0010;
+	private static final int ACC_SUPER = 0x0020;
+
+	private static final int ICONST_0 = 0x03;
+	private static final int BIPUSH = 0x10;
+	private static final int SIPUSH = 0x11;
+	private static final int LDC_W = 0x13;
+	private static final int ILOAD_1 = 0x1b;
+	private static final int ILOAD_2 = 0x1c;
+	private static final int ALOAD_0 = 0x2a;
+	private static final int ALOAD_1 = 0x2b;
+	private static final int DALOAD = 0x31;
+	private static final int ISTORE_1 = 0x3c;
+	private static final int ISTORE_2 = 0x3d;
+	private static final int D2I = 0x8e;
+	private static final int IFLT = 0x9b;
+	private static final int IFGT = 0x9d;
+	private static final int IF_ICMPGT = 0xa3;
+	private static final int LOOKUPSWITCH = 0xab;
+	private static final int IRETURN = 0xac;
+	private static final int RETURN = 0xb1;
+	private static final int INVOKEVIRTUAL = 0xb6;
+	private static final int INVOKESPECIAL = 0xb7;
+	private static final int INVOKESTATIC = 0xb8;
+
+	private static final String ARRAY_DESCRIPTOR = "([D)I";
+	private static final String RECORDS_DESCRIPTOR = "(LEncodedRecords;I)I";
+
+	// distinct names, for stack traces
+	private static final AtomicInteger classes = new AtomicInteger();
+
+	/**
+	 * Defines one compiled tree where hidden classes are missing, so the
+	 * class goes when the tree does instead of staying in the application
+	 * class loader for good. The class only uses public types of the parent.
+	 */
+	private static final class TreeLoader extends ClassLoader {
+		TreeLoader() {
+			super(TreeCompiler.class.getClassLoader());
+		}
+
+		Class<?> define(byte[] classFile) {
+			return this.defineClass(null, classFile, 0, classFile.length);
+		}
+	}
+
+	/**
+	 * Bytecode of one method; branches to nodes not emitted yet are patched
+	 * once the method is done.
+	 */
+	private static final class Code {
+		private byte[] bytes = new byte[256];
+		private int length;
+		// opcode position, patch position, target node, 4 for a wide offset
+		private final ArrayList<int[]> branches = new ArrayList<>();
+
+		void u1(int value) {
+			if (this.length == this.bytes.length) {
+				this.bytes = Arrays.copyOf(this.bytes, 2 * this.length);
+			}
+			this.bytes[this.length++] = (byte) value;
+		}
+
+		void u2(int value) {
+			this.u1(value >>> 8);
+			this.u1(value);
+		}
+
+		void u4(int value) {
+			this.u2(value >>> 16);
+			this.u2(value);
+		}
+
+		void branch(int opcode, int node) {
+			int at = this.length;
+			this.u1(opcode);
+			this.branches.add(new int[] { at, this.length, node, 2 });
+			this.u2(0);
+		}
+
+		void wideBranch(int opcodeAt, int node) {
+			this.branches.add(new int[] { opcodeAt, this.length, node, 4 });
+			this.u4(0);
+		}
+
+		void patch(int[] startOfNode) {
+			for (int[] branch : this.branches) {
+				int offset = startOfNode[branch[2]] - branch[0];
+				int at = branch[1];
+				if (branch[3] == 4) {
+					this.bytes[at++] = (byte) (offset >>> 24);
+					this.bytes[at++] = (byte) (offset >>> 16);
+				} else if (offset > Short.MAX_VALUE) {
+					throw new IllegalStateException("branch too long");
+				}
+				this.bytes[at++] = (byte) (offset >>> 8);
+				this.bytes[at] = (byte) offset;
+			}
+		}
+	}
+
+	private final FlatTree tree;
+	private final String className;
+	private final ByteArrayOutputStream poolBytes = new ByteArrayOutputStream();
+	private final DataOutputStream pool = new DataOutputStream(this.poolBytes);
+	private final HashMap<String, Integer> constants = new HashMap<>();
+	private int poolCount = 1;
+	private final ByteArrayOutputStream methodBytes;
+	private final DataOutputStream methods;
+	private int methodCount;
+	// whether a node's subtree is a method of its own
+	private final boolean[] outlined;
+	// where each node starts in the code of its method
+	private final int[] startOfNode;
+
+	private TreeCompiler(FlatTree tree) {
+		this.tree = tree;
+		this.className = "CompiledTree" + classes.incrementAndGet();
+		this.methodBytes = new ByteArrayOutputStream();
+		this.methods = new DataOutputStream(this.methodBytes);
+		int numberOfNodes = tree.numberOfNodes();
+		this.outlined = new boolean[numberOfNodes];
+		this.startOfNode = new int[numberOfNodes];
+		// children come after their parent, so this sizes bottom up
+		int[] size = new int[numberOfNodes];
+		for (int node = numberOfNodes - 1; node >= 0; node--) {
+			if (tree.feature[node] < 0) {
+				size[node] = LEAF_BYTES;
+				continue;
+			}
+			size[node] = NODE_BYTES + this.testBytes(node)
+					+ this.inlinedBytes(tree.left[node], size)
+					+ this.inlinedBytes(tree.right[node], size);
+		}
+		this.outlined[0] = true;
+	}
+
+	/**
+	 * @param tree
+	 * @param maxNodes
+	 *            bigger trees are not compiled
+	 * @return the compiled tree, or null if it has more than maxNodes nodes
+	 *         or the runtime would not define its class
+	 */
+	public static TreeScorer compile(FlatTree tree, int maxNodes) {
+		if (tree.numberOfNodes() > maxNodes) {
+			return null;
+		}
+		try {
+			byte[] classFile = new TreeCompiler(tree).classFile();
+			return (TreeScorer) define(classFile).getDeclaredConstructor()
+					.newInstance();
+		} catch (IOException | ReflectiveOperationException | LinkageError
+				| IllegalStateException e) {
+			// the caller interprets the tree instead
+			return null;
+		}
+	}
+
+	/**
+	 * A hidden class, through reflection so this still compiles for and
+	 * runs on runtimes without them; there an ordinary class in a throwaway
+	 * TreeLoader.
+	 */
+	private static Class<?> define(byte[] classFile)
+			throws ReflectiveOperationException {
+		MethodHandles.Lookup lookup = MethodHandles.lookup();
+		Class<?> option;
+		try {
+			option = Class.forName(
+					"java.lang.invoke.MethodHandles$Lookup$ClassOption");
+		} catch (ClassNotFoundException e) {
+			return new TreeLoader().define(classFile);
+		}
+		Object noOptions = Array.newInstance(option, 0);
+		Object hidden = MethodHandles.Lookup.class
+				.getMethod("defineHiddenClass", byte[].class, boolean.class,
+						noOptions.getClass())
+				.invoke(lookup, classFile, true, noOptions);
+		return ((MethodHandles.Lookup) hidden).lookupClass();
+	}
+
+	private byte[] classFile() throws IOException {
+		this.constructor();
+		this.entryMethod(false);
+		this.entryMethod(true);
+		this.subtreeMethods(false);
+		this.subtreeMethods(true);
+		int thisClass = this.classRef(this.className);
+		int superClass = this.classRef("java/lang/Object");
+		int scorer = this.classRef("TreeScorer");
+		if (this.poolCount > 0xFFFF) {
+			throw new IllegalStateException("too many constants");
+		}
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeInt(0xCAFEBABE);
+		out.writeShort(0);
+		out.writeShort(49);
+		out.writeShort(this.poolCount);
+		this.poolBytes.writeTo(out);
+		out.writeShort(ACC_PUBLIC | ACC_FINAL | ACC_SUPER);
+		out.writeShort(thisClass);
+		out.writeShort(superClass);
+		out.writeShort(1);
+		out.writeShort(scorer);
+		out.writeShort(0); // fields
+		out.writeShort(this.methodCount);
+		this.methodBytes.writeTo(out);
+		out.writeShort(0); // attributes
+		return bytes.toByteArray();
+	}
+
+	private void constructor() throws IOException {
+		Code code = new Code();
+		code.u1(ALOAD_0);
+		code.u1(INVOKESPECIAL);
+		code.u2(this.methodRef("java/lang/Object", "<init>", "()V"));
+		code.u1(RETURN);
+		this.method(ACC_PUBLIC, "<init>", "()V", 1, code);
+	}
+
+	/**
+	 * The TreeScorer method, calling the method of the root.
+	 */
+	private void entryMethod(boolean records) throws IOException {
+		Code code = new Code();
+		code.u1(ALOAD_1);
+		if (records) {
+			code.u1(ILOAD_2);
+		}
+		code.u1(INVOKESTATIC);
+		code.u2(this.methodRef(this.className, methodName(0, records),
+				descriptor(records)));
+		code.u1(IRETURN);
+		this.method(ACC_PUBLIC, "classify", descriptor(records),
+				records ? 3 : 2, code);
+	}
+
+	/**
+	 * A static method per outlined subtree, taking the record (the array, or
+	 * the records and the row) and giving the class id.
+	 */
+	private void subtreeMethods(boolean records) throws IOException {
+		ArrayDeque<Integer> pending = new ArrayDeque<>();
+		pending.add(0);
+		while (pending.isEmpty() == false) {
+			int root = pending.poll();
+			Code code = new Code();
+			this.emit(code, root, root, records, pending);
+			code.patch(this.startOfNode);
+			this.method(ACC_PRIVATE | ACC_STATIC, methodName(root, records),
+					descriptor(records), records ? 3 : 2, code);
+		}
+	}
+
+	private void emit(Code code, int node, int methodRoot, boolean records,
+			ArrayDeque<Integer> pending) throws IOException {
+		FlatTree tree = this.tree;
+		this.startOfNode[node] = code.length;
+		if (node != methodRoot && this.outlined[node]) {
+			code.u1(ALOAD_0);
+			if (records) {
+				code.u1(ILOAD_1);
+			}
+			code.u1(INVOKESTATIC);
+			code.u2(this.methodRef(this.className, methodName(node, records),
+					descriptor(records)));
+			code.u1(IRETURN);
+			pending.add(node);
+			return;
+		}
+		int col = tree.feature[node];
+		if (col < 0) {
+			this.pushInt(code, tree.leafClass[node]);
+			code.u1(IRETURN);
+			return;
+		}
+		code.u1(ALOAD_0);
+		if (records) {
+			code.u1(ILOAD_1);
+			this.pushInt(code, col);
+			code.u1(INVOKEVIRTUAL);
+			code.u2(this.methodRef("EncodedRecords", "valueAt", "(II)I"));
+			code.u1(ISTORE_2);
+		} else {
+			this.pushInt(code, col);
+			code.u1(DALOAD);
+			code.u1(D2I);
+			code.u1(ISTORE_1);
+		}
+		int load = records ? ILOAD_2 : ILOAD_1;
+		int left = tree.left[node];
+		boolean[] codes = tree.leftCodes[node];
+		// a negative code is in no code set and above no threshold of 0 or
+		// more, so missing values mostly only need a test to go left
+		if (tree.missingLeft[node]) {
+			code.u1(load);
+			code.branch(IFLT, left);
+		} else if (codes == null && tree.threshold[node] < 0) {
+			code.u1(load);
+			code.branch(IFLT, tree.right[node]);
+		}
+		code.u1(load);
+		if (codes != null) {
+			int at = code.length;
+			code.u1(LOOKUPSWITCH);
+			while (code.length % 4 != 0) {
+				code.u1(0);
+			}
+			int keys = numberOfLeftCodes(codes);
+			// the right subtree follows the switch
+			code.u4(code.length + 8 + 8 * keys - at);
+			code.u4(keys);
+			for (int key = 0; key < codes.length; key++) {
+				if (codes[key]) {
+					code.u4(key);
+					code.wideBranch(at, left);
+				}
+			}
+		} else if (tree.threshold[node] == 0) {
+			code.branch(IFGT, left);
+		} else {
+			this.pushInt(code, tree.threshold[node]);
+			code.branch(IF_ICMPGT, left);
+		}
+		this.emit(code, tree.right[node], methodRoot, records, pending);
+		this.emit(code, left, methodRoot, records, pending);
+	}
+
+	/**
+	 * @return bytes of the test choosing a node's child, at most
+	 */
+	private int testBytes(int node) {
+		boolean[] codes = this.tree.leftCodes[node];
+		// iload, then ldc_w and if_icmpgt, or a padded lookupswitch
+		return codes == null ? 7
+				: 1 + 1 + 3 + 8 + 8 * numberOfLeftCodes(codes);
+	}
+
+	/**
+	 * Marks a child outlined if it is too big to inline.
+	 *
+	 * @return the bytes the child takes in its parent's method
+	 */
+	private int inlinedBytes(int child, int[] size) {
+		if (size[child] > OUTLINE_BYTES) {
+			this.outlined[child] = true;
+			return CALL_BYTES;
+		}
+		return size[child];
+	}
+
+	private static int numberOfLeftCodes(boolean[] codes) {
+		int count = 0;
+		for (boolean left : codes) {
+			if (left) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	private static String methodName(int node, boolean records) {
+		return (records ? "r" : "d") + node;
+	}
+
+	private static String descriptor(boolean records) {
+		return records ? RECORDS_DESCRIPTOR : ARRAY_DESCRIPTOR;
+	}
+
+	private void pushInt(Code code, int value) throws IOException {
+		if (value >= -1 && value <= 5) {
+			code.u1(ICONST_0 + value);
+		} else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+			code.u1(BIPUSH);
+			code.u1(value);
+		} else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+			code.u1(SIPUSH);
+			code.u2(value);
+		} else {
+			code.u1(LDC_W);
+			code.u2(this.integer(value));
+		}
+	}
+
+	private void method(int access, String name, String descriptor,
+			int maxLocals, Code code) throws IOException {
+		if (code.length > 0xFFFF) {
+			throw new IllegalStateException("method too big");
+		}
+		this.methods.writeShort(access);
+		this.methods.writeShort(this.utf8(name));
+		this.methods.writeShort(this.utf8(descriptor));
+		this.methods.writeShort(1);
+		this.methods.writeShort(this.utf8("Code"));
+		this.methods.writeInt(12 + code.length);
+		this.methods.writeShort(MAX_STACK);
+		this.methods.writeShort(maxLocals);
+		this.methods.writeInt(code.length);
+		this.methods.write(code.bytes, 0, code.length);
+		this.methods.writeShort(0); // exception table
+		this.methods.writeShort(0); // attributes
+		this.methodCount++;
+	}
+
+	private int utf8(String value) throws IOException {
+		Integer index = this.constants.get("U" + value);
+		if (index == null) {
+			this.pool.writeByte(1);
+			this.pool.writeUTF(value);
+			index = this.newConstant("U" + value);
+		}
+		return index;
+	}
+
+	private int classRef(String name) throws IOException {
+		Integer index = this.constants.get("C" + name);
+		if (index == null) {
+			int nameIndex = this.utf8(name);
+			this.pool.writeByte(7);
+			this.pool.writeShort(nameIndex);
+			index = this.newConstant("C" + name);
+		}
+		return index;
+	}
+
+	private int methodRef(String owner, String name, String descriptor)
+			throws IOException {
+		String key = "M" + owner + "." + name + descriptor;
+		Integer index = this.constants.get(key);
+		if (index == null) {
+			int ownerIndex = this.classRef(owner);
+			int nameAndType = this.nameAndType(name, descriptor);
+			this.pool.writeByte(10);
+			this.pool.writeShort(ownerIndex);
+			this.pool.writeShort(nameAndType);
+			index = this.newConstant(key);
+		}
+		return index;
+	}
+
+	private int nameAndType(String name, String descriptor)
+			throws IOException {
+		String key = "N" + name + descriptor;
+		Integer index = this.constants.get(key);
+		if (index == null) {
+			int nameIndex = this.utf8(name);
+			int descriptorIndex = this.utf8(descriptor);
+			this.pool.writeByte(12);
+			this.pool.writeShort(nameIndex);
+			this.pool.writeShort(descriptorIndex);
+			index = this.newConstant(key);
+		}
+		return index;
+	}
+
+	private int integer(int value) throws IOException {
+		Integer index = this.constants.get("I" + value);
+		if (index == null) {
+			this.pool.writeByte(3);
+			this.pool.writeInt(value);
+			index = this.newConstant("I" + value);
+		}
+		return index;
+	}
+
+	private int newConstant(String key) {
+		int index = this.poolCount++;
+		this.constants.put(key, index);
+		return index;
+	}
+}
@@ -0,0 +1,37 @@
+/**
+ * Gives the class id of the leaf a record reaches. FlatTree walks its node
+ * arrays; TreeCompiler generates a class per tree that branches straight
+ * through it.
+ */
+public interface TreeScorer {
+	/**
+	 * @param attrList
+	 *            the value codes of a record
+	 * @return the class id of the leaf the record reaches
+	 */
+	int classify(double[] attrList);
+
+	/**
+	 * @param records
+	 * @param row
+	 * @return the class id of the leaf the record at row reaches
+	 */
+	int classify(EncodedRecords records, int row);
+
+	/**
+	 * Classifies the records in rows [from, to) of a block.
+	 *
+	 * @param records
+	 * @param from
+	 * @param to
+	 * @param classIds
+	 *            gets the class id of row r at classIds[r - from + offset]
+	 * @param offset
+	 */
+	default void classify(EncodedRecords records, int from, int to,
+			int[] classIds, int offset) {
+		for (int row = from; row < to; row++) {
+			classIds[offset + row - from] = this.classify(records, row);
+		}
+	}
+}